@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d;
+
+/**
+ * The way reactions are animated from reactants to products.
+ * @author rafa
+ */
+public enum AnimationMode {
+    
+    /**
+     * One <code>Transform</code> per atom and bond, each moved by its own
+     * interpolators, so the cost of every frame grows with the size of the
+     * reaction.
+     */
+    TRANSFORMS,
+    /**
+     * Atoms rendered as points and bonds as lines of one shared
+     * <code>Coordinate</code> node, moved by a single
+     * <code>CoordinateInterpolator</code>. Only bonds broken, formed or
+     * changing type are faded, by two shared interpolators.
+     */
+    COORDINATES
+}
@@ -26,8 +26,34 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
     public static final String MOLECULE_SPACING = "molecule.spacing";
     public static final String MOL_URL_PATTERN = "url.pattern.mol";
     public static final String RXN_URL_PATTERN = "url.pattern.rxn";
+    public static final String SDF_URL_PATTERN = "url.pattern.sdf";
+    public static final String XYZ_URL_PATTERN = "url.pattern.xyz";
+    public static final String BINARY_URL_PATTERN = "url.pattern.binary";
+    public static final String PROTO_URL_PATTERN = "url.pattern.protos";
+    public static final String TILE_URL_PATTERN = "url.pattern.tile";
+    public static final String ATLAS_URL_PATTERN = "url.pattern.atlas";
     public static final String RXN_ANIMATION_FRACTION = "rxn.animation.fraction";
     public static final String RXN_CYCLE_INTERVAL = "rxn.ts.cycle.interval";
+    public static final String RXN_ANIMATION_MODE = "rxn.animation.mode";
+    public static final String DISPLAY_SWITCHABLE = "display.switchable";
+    public static final String GEOMETRY_MODE = "geometry.mode";
+    public static final String MESH_RESOLUTION = "mesh.resolution";
+    public static final String BINARY_CACHE_SIZE = "binary.cache.size";
+    public static final String LOD_RANGES = "lod.ranges";
+    public static final String BVH_LEAF_SIZE = "bvh.leaf.size";
+    public static final String PARALLEL_THRESHOLD = "parallel.threshold";
+    public static final String DISPLAY_ALL = "display.all";
+    public static final String EXI_COMPRESSION = "exi.compression";
+    public static final String MARSHAL_CHUNK_SIZE = "marshal.chunk.size";
+    public static final String MARSHAL_FAST = "marshal.fast";
+    public static final String TILE_SIZE = "tile.size";
+    public static final String TILE_CACHE_SIZE = "tile.cache.size";
+    public static final String THUMBNAIL_SIZE = "thumbnail.size";
+    public static final String LABEL_ATLAS = "label.atlas";
+    public static final String POINT_THRESHOLD = "point.threshold";
+    public static final String GZIP_BLOCK_SIZE = "gzip.block.size";
+    public static final String EDIT_CACHE_SIZE = "edit.cache.size";
+    public static final String GALLERY_MAX_SIZE = "gallery.max.size";
     
     /**
      * Attribute : AtomSymbolSize
@@ -63,6 +89,30 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
      * Attribute : RxnUrlPattern
      */
     private String rxnUrlPattern;
+    /**
+     * Attribute : SdfUrlPattern
+     */
+    private String sdfUrlPattern;
+    /**
+     * Attribute : XyzUrlPattern
+     */
+    private String xyzUrlPattern;
+    /**
+     * Attribute : BinaryUrlPattern
+     */
+    private String binaryUrlPattern = "{0}";
+    /**
+     * Attribute : ProtoUrlPattern
+     */
+    private String protoUrlPattern = "ctfile2x3d-protos-{0}-{1}.x3d";
+    /**
+     * Attribute : TileUrlPattern
+     */
+    private String tileUrlPattern = "{0}-{1}-{2}.x3d";
+    /**
+     * Attribute : AtlasUrlPattern
+     */
+    private String atlasUrlPattern = "ctfile2x3d-labels-{0}.png";
     /**
      * Attribute : AnimationFraction
      */
@@ -71,6 +121,86 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
      * Attribute : RxnCycleInterval
      */
     private float rxnCycleInterval = 5.0f;
+    /**
+     * Attribute : RxnAnimationMode
+     */
+    private AnimationMode rxnAnimationMode = AnimationMode.TRANSFORMS;
+    /**
+     * Attribute : DisplaySwitchable
+     */
+    private boolean displaySwitchable = false;
+    /**
+     * Attribute : GeometryMode
+     */
+    private GeometryMode geometryMode = GeometryMode.PRIMITIVES;
+    /**
+     * Attribute : MeshResolution
+     */
+    private int meshResolution = 16;
+    /**
+     * Attribute : BinaryCacheSize
+     */
+    private long binaryCacheSize = 32L * 1024 * 1024;
+    /**
+     * Attribute : LodRanges
+     */
+    private String lodRanges = "";
+    /**
+     * Attribute : BvhLeafSize
+     */
+    private int bvhLeafSize = 0;
+    /**
+     * Attribute : ParallelThreshold
+     */
+    private int parallelThreshold = 5000;
+    /**
+     * Attribute : AllDisplays
+     */
+    private boolean allDisplays = false;
+    /**
+     * Attribute : ExiCompression
+     */
+    private boolean exiCompression = true;
+    /**
+     * Attribute : MarshalChunkSize
+     */
+    private int marshalChunkSize = 1000;
+    /**
+     * Attribute : MarshalFast
+     */
+    private boolean marshalFast = true;
+    /**
+     * Attribute : TileSize
+     */
+    private int tileSize = 0;
+    /**
+     * Attribute : TileCacheSize
+     */
+    private int tileCacheSize = 16;
+    /**
+     * Attribute : ThumbnailSize
+     */
+    private int thumbnailSize = 128;
+    /**
+     * Attribute : LabelAtlas
+     */
+    private boolean labelAtlas = false;
+    /**
+     * Attribute : PointThreshold
+     */
+    private int pointThreshold = 0;
+    /**
+     * Attribute : GzipBlockSize
+     */
+    private int gzipBlockSize = 0;
+    /**
+     * Attribute : EditCacheSize
+     */
+    private int editCacheSize = 100;
+    /**
+     * Attribute : GalleryMaxSize
+     */
+    private int galleryMaxSize = 100;
     
     /**
      * Default constructor. It tries to load settings from a file
@@ -117,8 +247,34 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
      *  <li><code>molecule.spacing</code></li>
      *  <li><code>url.pattern.mol</code></li>
      *  <li><code>url.pattern.rxn</code></li>
+     *  <li><code>url.pattern.sdf</code></li>
+     *  <li><code>url.pattern.xyz</code></li>
+     *  <li><code>url.pattern.binary</code></li>
+     *  <li><code>url.pattern.protos</code></li>
+     *  <li><code>url.pattern.tile</code></li>
+     *  <li><code>url.pattern.atlas</code></li>
      *  <li><code>rxn.animation.fraction</code></li>
      *  <li><code>rxn.ts.cycle.interval</code></li>
+     *  <li><code>rxn.animation.mode</code></li>
+     *  <li><code>display.switchable</code></li>
+     *  <li><code>geometry.mode</code></li>
+     *  <li><code>mesh.resolution</code></li>
+     *  <li><code>binary.cache.size</code></li>
+     *  <li><code>lod.ranges</code></li>
+     *  <li><code>bvh.leaf.size</code></li>
+     *  <li><code>parallel.threshold</code></li>
+     *  <li><code>display.all</code></li>
+     *  <li><code>exi.compression</code></li>
+     *  <li><code>marshal.chunk.size</code></li>
+     *  <li><code>marshal.fast</code></li>
+     *  <li><code>tile.size</code></li>
+     *  <li><code>tile.cache.size</code></li>
+     *  <li><code>thumbnail.size</code></li>
+     *  <li><code>label.atlas</code></li>
+     *  <li><code>point.threshold</code></li>
+     *  <li><code>gzip.block.size</code></li>
+     *  <li><code>edit.cache.size</code></li>
+     *  <li><code>gallery.max.size</code></li>
      * </ul>
      * See the corresponding getter/setter methods for details.
      * @param props the configuration properties.
@@ -153,6 +309,24 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
         if (props.containsKey(RXN_URL_PATTERN)){
             setRxnUrlPattern(props.getProperty(RXN_URL_PATTERN));
         }
+        if (props.containsKey(SDF_URL_PATTERN)){
+            setSdfUrlPattern(props.getProperty(SDF_URL_PATTERN));
+        }
+        if (props.containsKey(XYZ_URL_PATTERN)){
+            setXyzUrlPattern(props.getProperty(XYZ_URL_PATTERN));
+        }
+        if (props.containsKey(BINARY_URL_PATTERN)){
+            setBinaryUrlPattern(props.getProperty(BINARY_URL_PATTERN));
+        }
+        if (props.containsKey(PROTO_URL_PATTERN)){
+            setProtoUrlPattern(props.getProperty(PROTO_URL_PATTERN));
+        }
+        if (props.containsKey(TILE_URL_PATTERN)){
+            setTileUrlPattern(props.getProperty(TILE_URL_PATTERN));
+        }
+        if (props.containsKey(ATLAS_URL_PATTERN)){
+            setAtlasUrlPattern(props.getProperty(ATLAS_URL_PATTERN));
+        }
         if (props.containsKey(RXN_ANIMATION_FRACTION)){
             setRxnAnimationFraction(Float.parseFloat(
                     props.getProperty(RXN_ANIMATION_FRACTION)));
@@ -161,6 +335,85 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
             setRxnCycleInterval(Float.parseFloat(
                     props.getProperty(RXN_CYCLE_INTERVAL)));
         }
+        if (props.containsKey(RXN_ANIMATION_MODE)){
+            setRxnAnimationMode(AnimationMode.valueOf(
+                    props.getProperty(RXN_ANIMATION_MODE).trim().toUpperCase()));
+        }
+        if (props.containsKey(DISPLAY_SWITCHABLE)){
+            setDisplaySwitchable(Boolean.parseBoolean(
+                    props.getProperty(DISPLAY_SWITCHABLE)));
+        }
+        if (props.containsKey(GEOMETRY_MODE)){
+            setGeometryMode(GeometryMode.valueOf(
+                    props.getProperty(GEOMETRY_MODE).trim().toUpperCase()));
+        }
+        if (props.containsKey(MESH_RESOLUTION)){
+            setMeshResolution(Integer.parseInt(
+                    props.getProperty(MESH_RESOLUTION).trim()));
+        }
+        if (props.containsKey(BINARY_CACHE_SIZE)){
+            setBinaryCacheSize(Long.parseLong(
+                    props.getProperty(BINARY_CACHE_SIZE).trim()));
+        }
+        if (props.containsKey(LOD_RANGES)){
+            setLodRanges(props.getProperty(LOD_RANGES).trim());
+        }
+        if (props.containsKey(BVH_LEAF_SIZE)){
+            setBvhLeafSize(Integer.parseInt(
+                    props.getProperty(BVH_LEAF_SIZE).trim()));
+        }
+        if (props.containsKey(PARALLEL_THRESHOLD)){
+            setParallelThreshold(Integer.parseInt(
+                    props.getProperty(PARALLEL_THRESHOLD).trim()));
+        }
+        if (props.containsKey(DISPLAY_ALL)){
+            setAllDisplays(Boolean.parseBoolean(
+                    props.getProperty(DISPLAY_ALL)));
+        }
+        if (props.containsKey(EXI_COMPRESSION)){
+            setExiCompression(Boolean.parseBoolean(
+                    props.getProperty(EXI_COMPRESSION)));
+        }
+        if (props.containsKey(MARSHAL_CHUNK_SIZE)){
+            setMarshalChunkSize(Integer.parseInt(
+                    props.getProperty(MARSHAL_CHUNK_SIZE).trim()));
+        }
+        if (props.containsKey(MARSHAL_FAST)){
+            setMarshalFast(Boolean.parseBoolean(
+                    props.getProperty(MARSHAL_FAST)));
+        }
+        if (props.containsKey(TILE_SIZE)){
+            setTileSize(Integer.parseInt(
+                    props.getProperty(TILE_SIZE).trim()));
+        }
+        if (props.containsKey(TILE_CACHE_SIZE)){
+            setTileCacheSize(Integer.parseInt(
+                    props.getProperty(TILE_CACHE_SIZE).trim()));
+        }
+        if (props.containsKey(THUMBNAIL_SIZE)){
+            setThumbnailSize(Integer.parseInt(
+                    props.getProperty(THUMBNAIL_SIZE).trim()));
+        }
+        if (props.containsKey(LABEL_ATLAS)){
+            setLabelAtlas(Boolean.parseBoolean(
+                    props.getProperty(LABEL_ATLAS)));
+        }
+        if (props.containsKey(POINT_THRESHOLD)){
+            setPointThreshold(Integer.parseInt(
+                    props.getProperty(POINT_THRESHOLD).trim()));
+        }
+        if (props.containsKey(GZIP_BLOCK_SIZE)){
+            setGzipBlockSize(Integer.parseInt(
+                    props.getProperty(GZIP_BLOCK_SIZE).trim()));
+        }
+        if (props.containsKey(EDIT_CACHE_SIZE)){
+            setEditCacheSize(Integer.parseInt(
+                    props.getProperty(EDIT_CACHE_SIZE).trim()));
+        }
+        if (props.containsKey(GALLERY_MAX_SIZE)){
+            setGalleryMaxSize(Integer.parseInt(
+                    props.getProperty(GALLERY_MAX_SIZE).trim()));
+        }
     }
 
     @Override
@@ -183,6 +436,66 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
         rxnUrlPattern = value;
     }
 
+    @Override
+    public String getSdfUrlPattern() {
+        return sdfUrlPattern;
+    }
+
+    @Override
+    public void setSdfUrlPattern(String value) {
+        sdfUrlPattern = value;
+    }
+
+    @Override
+    public String getXyzUrlPattern() {
+        return xyzUrlPattern;
+    }
+
+    @Override
+    public void setXyzUrlPattern(String value) {
+        xyzUrlPattern = value;
+    }
+
+    @Override
+    public String getBinaryUrlPattern() {
+        return binaryUrlPattern;
+    }
+
+    @Override
+    public void setBinaryUrlPattern(String value) {
+        binaryUrlPattern = value;
+    }
+
+    @Override
+    public String getProtoUrlPattern() {
+        return protoUrlPattern;
+    }
+
+    @Override
+    public void setProtoUrlPattern(String value) {
+        protoUrlPattern = value;
+    }
+
+    @Override
+    public String getTileUrlPattern() {
+        return tileUrlPattern;
+    }
+
+    @Override
+    public void setTileUrlPattern(String value) {
+        tileUrlPattern = value;
+    }
+
+    @Override
+    public String getAtlasUrlPattern() {
+        return atlasUrlPattern;
+    }
+
+    @Override
+    public void setAtlasUrlPattern(String value) {
+        atlasUrlPattern = value;
+    }
+
     @Override
     public float getAtomTransparency() {
         return atomTransparency;
@@ -257,5 +570,205 @@ public class CTFile2X3DConfig implements CTFile2X3DConfigMBean {
     public void setRxnCycleInterval(float value) {
         rxnCycleInterval = value;
     }
+
+    @Override
+    public AnimationMode getRxnAnimationMode() {
+        return rxnAnimationMode;
+    }
+
+    @Override
+    public void setRxnAnimationMode(AnimationMode value) {
+        rxnAnimationMode = value;
+    }
+
+    @Override
+    public boolean isDisplaySwitchable() {
+        return displaySwitchable;
+    }
+
+    @Override
+    public void setDisplaySwitchable(boolean value) {
+        displaySwitchable = value;
+    }
+
+    @Override
+    public GeometryMode getGeometryMode() {
+        return geometryMode;
+    }
+
+    @Override
+    public void setGeometryMode(GeometryMode value) {
+        geometryMode = value;
+    }
+
+    @Override
+    public int getMeshResolution() {
+        return meshResolution;
+    }
+
+    @Override
+    public void setMeshResolution(int value) {
+        meshResolution = value;
+    }
+
+    @Override
+    public long getBinaryCacheSize() {
+        return binaryCacheSize;
+    }
+
+    @Override
+    public void setBinaryCacheSize(long value) {
+        binaryCacheSize = value;
+    }
+
+    @Override
+    public String getLodRanges() {
+        return lodRanges;
+    }
+
+    @Override
+    public void setLodRanges(String value) {
+        lodRanges = value;
+    }
+
+    @Override
+    public int getBvhLeafSize() {
+        return bvhLeafSize;
+    }
+
+    @Override
+    public void setBvhLeafSize(int value) {
+        bvhLeafSize = value;
+    }
+
+    @Override
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    @Override
+    public void setParallelThreshold(int value) {
+        parallelThreshold = value;
+    }
+
+    @Override
+    public boolean isAllDisplays() {
+        return allDisplays;
+    }
+
+    @Override
+    public void setAllDisplays(boolean value) {
+        allDisplays = value;
+    }
+
+    @Override
+    public boolean isExiCompression() {
+        return exiCompression;
+    }
+
+    @Override
+    public void setExiCompression(boolean value) {
+        exiCompression = value;
+    }
+
+    @Override
+    public int getMarshalChunkSize() {
+        return marshalChunkSize;
+    }
+
+    @Override
+    public void setMarshalChunkSize(int value) {
+        marshalChunkSize = value;
+    }
+
+    @Override
+    public boolean isMarshalFast() {
+        return marshalFast;
+    }
+
+    @Override
+    public void setMarshalFast(boolean value) {
+        marshalFast = value;
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Override
+    public void setTileSize(int value) {
+        tileSize = value;
+    }
+
+    @Override
+    public int getTileCacheSize() {
+        return tileCacheSize;
+    }
+
+    @Override
+    public void setTileCacheSize(int value) {
+        tileCacheSize = value;
+    }
+
+    @Override
+    public int getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    @Override
+    public void setThumbnailSize(int value) {
+        thumbnailSize = value;
+    }
+
+    @Override
+    public boolean isLabelAtlas() {
+        return labelAtlas;
+    }
+
+    @Override
+    public void setLabelAtlas(boolean value) {
+        labelAtlas = value;
+    }
+
+    @Override
+    public int getPointThreshold() {
+        return pointThreshold;
+    }
+
+    @Override
+    public void setPointThreshold(int value) {
+        pointThreshold = value;
+    }
+
+    @Override
+    public int getGzipBlockSize() {
+        return gzipBlockSize;
+    }
+
+    @Override
+    public void setGzipBlockSize(int value) {
+        gzipBlockSize = value;
+    }
+
+    @Override
+    public int getEditCacheSize() {
+        return editCacheSize;
+    }
+
+    @Override
+    public void setEditCacheSize(int value) {
+        editCacheSize = value;
+    }
+
+    @Override
+    public int getGalleryMaxSize() {
+        return galleryMaxSize;
+    }
+
+    @Override
+    public void setGalleryMaxSize(int value) {
+        galleryMaxSize = value;
+    }
     
 }
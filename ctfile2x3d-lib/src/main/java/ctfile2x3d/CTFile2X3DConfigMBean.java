@@ -37,6 +37,85 @@ public interface CTFile2X3DConfigMBean {
      */
     public void setRxnUrlPattern(String value);
 
+    /**
+     * Get pattern for the URL serving multi-model SDF files (trajectories).
+     * @return 
+     */
+    public String getSdfUrlPattern();
+
+    /**
+     * Set pattern for the URL serving multi-model SDF files (trajectories).
+     * @param value
+     */
+    public void setSdfUrlPattern(String value);
+
+    /**
+     * Get pattern for the URL serving XYZ files (trajectories).
+     * @return 
+     */
+    public String getXyzUrlPattern();
+
+    /**
+     * Set pattern for the URL serving XYZ files (trajectories).
+     * @param value
+     */
+    public void setXyzUrlPattern(String value);
+
+    /**
+     * Get pattern for the URL serving binary buffers. The buffer name is
+     * given as parameter <code>{0}</code>.
+     * @return 
+     */
+    public String getBinaryUrlPattern();
+
+    /**
+     * Set pattern for the URL serving binary buffers.
+     * @param value
+     */
+    public void setBinaryUrlPattern(String value);
+
+    /**
+     * Get pattern for the URL serving prototype libraries. The display is
+     * given as parameter <code>{0}</code>, the version of the library as
+     * parameter <code>{1}</code>.
+     * @return 
+     */
+    public String getProtoUrlPattern();
+
+    /**
+     * Set pattern for the URL serving prototype libraries.
+     * @param value
+     */
+    public void setProtoUrlPattern(String value);
+
+    /**
+     * Get pattern for the URL serving the tiles of a molecule rendered in
+     * tiles. The identifier of the molecule is given as parameter
+     * <code>{0}</code>, the number of the tile as parameter <code>{1}</code>
+     * and the display as parameter <code>{2}</code>.
+     * @return 
+     */
+    public String getTileUrlPattern();
+
+    /**
+     * Set pattern for the URL serving the tiles of a molecule.
+     * @param value
+     */
+    public void setTileUrlPattern(String value);
+
+    /**
+     * Get pattern for the URL serving the texture atlas of atom labels. The
+     * version of the atlas is given as parameter <code>{0}</code>.
+     * @return 
+     */
+    public String getAtlasUrlPattern();
+
+    /**
+     * Set pattern for the URL serving the texture atlas of atom labels.
+     * @param value
+     */
+    public void setAtlasUrlPattern(String value);
+
     /**
      * Get transparency of spheres representing atoms.
      * @return 
@@ -139,5 +218,313 @@ public interface CTFile2X3DConfigMBean {
      */
     public void setRxnCycleInterval(float value);
 
+    /**
+     * Gets the way reactions are animated: with interpolators for every atom
+     * and bond, or with a single interpolator for all of them.
+     * @return the animation mode.
+     */
+    public AnimationMode getRxnAnimationMode();
+
+    /**
+     * Sets the way reactions are animated.
+     * @param value the animation mode.
+     */
+    public void setRxnAnimationMode(AnimationMode value);
+
+    /**
+     * Gets whether the generated X3D keeps every atom sphere and label, even
+     * those fully transparent for the requested display, so that the display
+     * can be switched in the client.
+     * @return <code>true</code> if invisible geometry is kept,
+     *      <code>false</code> if it is left out of the X3D.
+     */
+    public boolean isDisplaySwitchable();
+
+    /**
+     * Sets whether the generated X3D keeps every atom sphere and label, even
+     * those fully transparent for the requested display.
+     * @param value <code>true</code> to keep invisible geometry.
+     */
+    public void setDisplaySwitchable(boolean value);
+
+    /**
+     * Gets the kind of X3D geometry used to render atoms and bonds.
+     * @return the geometry mode.
+     */
+    public GeometryMode getGeometryMode();
+
+    /**
+     * Sets the kind of X3D geometry used to render atoms and bonds.
+     * @param value the geometry mode.
+     */
+    public void setGeometryMode(GeometryMode value);
+
+    /**
+     * Gets the number of segments around spheres and cylinders tessellated
+     * by the server.
+     * @return the number of segments.
+     */
+    public int getMeshResolution();
+
+    /**
+     * Sets the number of segments around spheres and cylinders tessellated
+     * by the server.
+     * @param value the number of segments (at least 3).
+     */
+    public void setMeshResolution(int value);
+
+    /**
+     * Gets the maximum number of bytes of binary buffers kept in memory to
+     * be served.
+     * @return the size of the cache in bytes.
+     */
+    public long getBinaryCacheSize();
+
+    /**
+     * Sets the maximum number of bytes of binary buffers kept in memory to
+     * be served.
+     * @param value the size of the cache in bytes.
+     */
+    public void setBinaryCacheSize(long value);
+
+    /**
+     * Gets the distances at which atoms and bonds switch to a lower level of
+     * detail, as factors of the diagonal of the bounding box of the
+     * structure. Only used with {@link GeometryMode#PRIMITIVES primitives}.
+     * @return increasing factors separated by spaces (ex.
+     *      <code>"2 6"</code>: X3D primitives, then tessellated shapes with
+     *      fewer segments, then points and lines), or an empty string for no
+     *      levels of detail.
+     */
+    public String getLodRanges();
+
+    /**
+     * Sets the distances at which atoms and bonds switch to a lower level of
+     * detail, as factors of the diagonal of the bounding box of the
+     * structure.
+     * @param value increasing factors separated by spaces, or an empty
+     *      string for no levels of detail.
+     */
+    public void setLodRanges(String value);
+
+    /**
+     * Gets the maximum number of atoms and bonds grouped together in the
+     * leaves of the bounding volume hierarchy. Only used with
+     * {@link GeometryMode#PRIMITIVES primitives}.
+     * @return the size of the leaves, or <code>0</code> for a flat scene
+     *      without bounding boxes.
+     */
+    public int getBvhLeafSize();
+
+    /**
+     * Sets the maximum number of atoms and bonds grouped together in the
+     * leaves of the bounding volume hierarchy.
+     * @param value the size of the leaves, or <code>0</code> for a flat
+     *      scene without bounding boxes.
+     */
+    public void setBvhLeafSize(int value);
+
+    /**
+     * Gets the number of atoms from which the X3D of a structure is
+     * generated in parallel. The result is the same as the one generated
+     * sequentially.
+     * @return the number of atoms, or <code>0</code> to always generate
+     *      sequentially.
+     */
+    public int getParallelThreshold();
+
+    /**
+     * Sets the number of atoms from which the X3D of a structure is
+     * generated in parallel.
+     * @param value the number of atoms, or <code>0</code> to always generate
+     *      sequentially.
+     */
+    public void setParallelThreshold(int value);
+
+    /**
+     * Gets whether the generated X3D carries the atoms and bonds of every
+     * display, each element and bond type wrapped in a <code>Switch</code>
+     * whose <code>whichChoice</code> follows the order of {@link Display}.
+     * Only used with {@link GeometryMode#PRIMITIVES primitives}.
+     * @return <code>true</code> if every display is generated,
+     *      <code>false</code> if only the requested one.
+     */
+    public boolean isAllDisplays();
+
+    /**
+     * Sets whether the generated X3D carries the atoms and bonds of every
+     * display.
+     * @param value <code>true</code> to generate every display.
+     */
+    public void setAllDisplays(boolean value);
+
+    /**
+     * Gets whether X3D encoded with EXI is compressed. Compressed EXI is
+     * smaller than gzipped XML, but takes longer to encode than plain
+     * (bit-packed) EXI.
+     * @return <code>true</code> for compressed EXI, <code>false</code> for
+     *      bit-packed EXI.
+     */
+    public boolean isExiCompression();
+
+    /**
+     * Sets whether X3D encoded with EXI is compressed.
+     * @param value <code>true</code> for compressed EXI, <code>false</code>
+     *      for bit-packed EXI.
+     */
+    public void setExiCompression(boolean value);
+
+    /**
+     * Gets the number of top-level nodes of a scene marshalled together when
+     * its XML is written in parallel (see
+     * {@link ctfile2x3d.x3d.ParallelMarshaller}). Scenes with no more nodes
+     * than that are marshalled sequentially.
+     * @return the number of nodes, or <code>0</code> to always marshal
+     *      sequentially.
+     */
+    public int getMarshalChunkSize();
+
+    /**
+     * Sets the number of top-level nodes of a scene marshalled together when
+     * its XML is written in parallel.
+     * @param value the number of nodes, or <code>0</code> to always marshal
+     *      sequentially.
+     */
+    public void setMarshalChunkSize(int value);
+
+    /**
+     * Gets whether X3D is marshalled with the writers generated for the
+     * nodes used by ctfile2x3d (see {@link ctfile2x3d.x3d.FastMarshaller})
+     * instead of plain JAXB. The output is the same.
+     * @return <code>true</code> to use the generated writers.
+     */
+    public boolean isMarshalFast();
+
+    /**
+     * Sets whether X3D is marshalled with the generated writers.
+     * @param value <code>true</code> to use the generated writers,
+     *      <code>false</code> for plain JAXB.
+     */
+    public void setMarshalFast(boolean value);
+
+    /**
+     * Gets the maximum number of atoms in a tile: bigger molecules are served
+     * as a root scene with the bounding boxes of their tiles, each one loaded
+     * afterwards by an <code>Inline</code> node (see
+     * {@link ctfile2x3d.x3d.TiledModel}).
+     * @return the size of the tiles, or <code>0</code> to serve every
+     *      molecule in one scene.
+     */
+    public int getTileSize();
+
+    /**
+     * Sets the maximum number of atoms in a tile.
+     * @param value the size of the tiles, or <code>0</code> to serve every
+     *      molecule in one scene.
+     */
+    public void setTileSize(int value);
+
+    /**
+     * Gets the number of molecules rendered in tiles whose parsed model is
+     * kept in memory, to generate their tiles when requested.
+     * @return the number of models kept.
+     */
+    public int getTileCacheSize();
+
+    /**
+     * Sets the number of molecules rendered in tiles whose parsed model is
+     * kept in memory.
+     * @param value the number of models kept.
+     */
+    public void setTileCacheSize(int value);
+
+    /**
+     * Gets the width and height of the PNG thumbnails rendered by
+     * {@link ctfile2x3d.image.ThumbnailRenderer}.
+     * @return the size of the thumbnails, in pixels.
+     */
+    public int getThumbnailSize();
+
+    /**
+     * Sets the width and height of the PNG thumbnails.
+     * @param value the size of the thumbnails, in pixels.
+     */
+    public void setThumbnailSize(int value);
+
+    /**
+     * Gets whether atom labels are rendered as quads textured with regions
+     * of one {@link ctfile2x3d.x3d.LabelAtlas texture atlas} instead of
+     * <code>Text</code> nodes, which X3DOM rasterises into one texture each.
+     * Symbols of unsupported elements are still rendered as text.
+     * @return <code>true</code> for textured quads.
+     */
+    public boolean isLabelAtlas();
+
+    /**
+     * Sets whether atom labels are rendered as quads textured with regions
+     * of one texture atlas.
+     * @param value <code>true</code> for textured quads, <code>false</code>
+     *      for <code>Text</code> nodes.
+     */
+    public void setLabelAtlas(boolean value);
+
+    /**
+     * Gets the number of atoms from which structures are rendered as a point
+     * cloud ({@link ctfile2x3d.GeometryMode#POINTS}), whatever the geometry
+     * mode.
+     * @return the number of atoms, or <code>0</code> to always use the
+     *      geometry mode.
+     */
+    public int getPointThreshold();
+
+    /**
+     * Sets the number of atoms from which structures are rendered as a point
+     * cloud.
+     * @param value the number of atoms, or <code>0</code> to always use the
+     *      geometry mode.
+     */
+    public void setPointThreshold(int value);
+
+    /**
+     * Gets the size of the blocks compressed in parallel by
+     * {@link ctfile2x3d.x3d.ParallelGzipOutputStream} when the servlet returns
+     * X3D with gzip content encoding.
+     * @return the size of the blocks, in bytes, or <code>0</code> not to
+     *      compress the X3D.
+     */
+    public int getGzipBlockSize();
+
+    /**
+     * Sets the size of the blocks compressed in parallel.
+     * @param value the size of the blocks, in bytes, or <code>0</code> not
+     *      to compress the X3D.
+     */
+    public void setGzipBlockSize(int value);
+
+    /**
+     * Gets the number of edited molecules whose last version is kept in
+     * memory, to send the changes of their next edition.
+     * @return the number of molecules kept, for all sessions.
+     */
+    public int getEditCacheSize();
+
+    /**
+     * Sets the number of edited molecules whose last version is kept in
+     * memory.
+     * @param value the number of molecules kept, for all sessions.
+     */
+    public void setEditCacheSize(int value);
+
+    /**
+     * Gets the maximum number of MOL files rendered in one gallery.
+     * @return the number of MOL files, or <code>0</code> for no limit.
+     */
+    public int getGalleryMaxSize();
+
+    /**
+     * Sets the maximum number of MOL files rendered in one gallery.
+     * @param value the number of MOL files, or <code>0</code> for no limit.
+     */
+    public void setGalleryMaxSize(int value);
 
 }
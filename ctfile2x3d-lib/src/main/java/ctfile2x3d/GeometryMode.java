@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d;
+
+/**
+ * The kind of X3D geometry used to render atoms and bonds.
+ * @author rafa
+ */
+public enum GeometryMode {
+    
+    /**
+     * One <code>Transform</code> per atom and bond, with X3D primitives
+     * (<code>Sphere</code>, <code>Cylinder</code>).
+     */
+    PRIMITIVES,
+    /**
+     * Spheres and cylinders tessellated by the server and merged into one
+     * <code>IndexedTriangleSet</code> per element and per bond type.
+     * Reactions are always rendered with primitives, as every atom and bond
+     * needs its own node to be animated.
+     */
+    MERGED,
+    /**
+     * Like {@link #MERGED}, but every mesh is written as an X3DOM
+     * <code>BinaryGeometry</code> node, which references external binary
+     * buffers (see {@link ctfile2x3d.x3d.BufferStore}) instead of carrying
+     * its coordinates, normals and indices as text.
+     */
+    BINARY,
+    /**
+     * Atoms and bonds as <code>ProtoInstance</code>s of an external
+     * {@link ctfile2x3d.x3d.ProtoLibrary prototype library}, so every X3D only
+     * carries coordinates and connectivity. It needs an X3D browser
+     * supporting <code>ExternProtoDeclare</code>, which X3DOM does not.
+     */
+    PROTOS,
+    /**
+     * A true wireframe: every bond is a line of one
+     * <code>IndexedLineSet</code>, with the colors of its atoms, and the
+     * atoms, if visible, are one <code>PointSet</code>. Labels are left out.
+     */
+    LINES,
+    /**
+     * A point cloud: every atom is a point of one <code>PointSet</code>,
+     * whatever the display, and bonds and labels are left out. Used
+     * automatically for structures with at least
+     * {@link CTFile2X3DConfig#getPointThreshold() point.threshold} atoms.
+     */
+    POINTS
+}
@@ -4,6 +4,7 @@ import ctfile2x3d.ctfile.Atom;
 import ctfile2x3d.ctfile.AtomsAndBonds;
 import ctfile2x3d.ctfile.Bond;
 import ctfile2x3d.ctfile.Element;
+import ctfile2x3d.x3d.BufferStore;
 import ctfile2x3d.x3d.X3DGenerator;
 import ctfile2x3d.geom.Point;
 import ctfile2x3d.geom.Vector;
@@ -31,13 +32,34 @@ public class MolParser implements CTFileParser {
     public MolParser(CTFile2X3DConfig config) {
         x3dGen = new X3DGenerator(config);
     }
+
+    /**
+     * Constructor sharing a store for the binary buffers generated with
+     * {@link GeometryMode#BINARY}.
+     * @param config the configuration.
+     * @param buffers the store where binary buffers are put.
+     */
+    public MolParser(CTFile2X3DConfig config, BufferStore buffers) {
+        x3dGen = new X3DGenerator(config, buffers);
+    }
     
     @Override
     public X3D parse(InputStream is, Display display) throws IOException{
+        return x3dGen.toX3D(parseAtomsAndBonds(is), display);
+    }
+
+    /**
+     * Parses a MOL file without generating X3D, for other backends (like
+     * {@link ctfile2x3d.gltf.GltfGenerator}).
+     * @param is an input stream for a MOL file.
+     * @return an object with atoms and bonds, centered in the origin.
+     * @throws IOException in case of problem reading the input.
+     */
+    public AtomsAndBonds parseAtomsAndBonds(InputStream is)
+    throws IOException {
         InputStreamReader isr = new InputStreamReader(is);
         BufferedReader br = new BufferedReader(isr);
-        AtomsAndBonds aab = parseMol(br);
-        return x3dGen.toX3D(aab, display);
+        return parseMol(br);
     }
     
     /**
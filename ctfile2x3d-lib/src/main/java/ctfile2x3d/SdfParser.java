@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d;
+
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Parser of multi-model SD files, every record being one frame of the same
+ * structure.
+ * @author rafa
+ */
+public class SdfParser extends TrajectoryParser {
+
+    private static final String END_OF_RECORD = "$$$$";
+
+    private final MolParser molParser;
+
+    public SdfParser(CTFile2X3DConfig conf) {
+        super(conf);
+        this.molParser = new MolParser(conf == null?
+                new CTFile2X3DConfig() : conf);
+    }
+
+    /**
+     * Parses one record: a MOL file followed by data items, up to the
+     * <code>$$$$</code> line.
+     * @param reader A reader ready at the start of a record.
+     * @return an object with atoms and bonds, or <code>null</code> at the
+     *      end of the file.
+     * @throws IOException in case of problem reading the data.
+     */
+    @Override
+    protected AtomsAndBonds parseFrame(BufferedReader reader)
+    throws IOException {
+        String[] header = molParser.parseHeader(reader);
+        if (header[0] == null || header[2] == null){
+            return null;
+        }
+        AtomsAndBonds aab = molParser.parseCtab(reader);
+        aab.setName(header[0]);
+        // ignore the properties block and data items:
+        String line = reader.readLine();
+        while (line != null && !line.startsWith(END_OF_RECORD)){
+            line = reader.readLine();
+        }
+        return aab;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d;
+
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.geom.Point;
+import ctfile2x3d.geom.Vector;
+import ctfile2x3d.x3d.X3DGenerator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.web3d.x3d.ObjectFactory;
+import org.web3d.x3d.ProfileNames;
+import org.web3d.x3d.X3D;
+
+/**
+ * Parser of files with several frames of the same structure (conformers,
+ * molecular dynamics) to generate an animated X3D (see
+ * {@link X3DGenerator#toX3D(java.util.Iterator, Display)}).
+ * <br>
+ * Frames are parsed one by one while the X3D is generated, so they are
+ * never held in memory all at once. All of them are moved by the vector
+ * which centers the first one in the origin.
+ * @author rafa
+ */
+public abstract class TrajectoryParser implements CTFileParser {
+
+    private final ObjectFactory x3dOf = new ObjectFactory();
+
+    private final X3DGenerator x3dGen;
+
+    public TrajectoryParser(CTFile2X3DConfig conf) {
+        this.x3dGen = new X3DGenerator(conf == null?
+                new CTFile2X3DConfig() : conf);
+    }
+
+    @Override
+    public X3D parse(InputStream is, Display display) throws IOException {
+        Frames frames = new Frames(
+                new BufferedReader(new InputStreamReader(is)));
+        X3D x3d = x3dOf.createX3D().withScene(x3dOf.createScene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(
+                        x3dGen.toX3D(frames, display)))
+                .withProfile(ProfileNames.FULL);
+        if (frames.error != null){
+            throw frames.error;
+        }
+        return x3d;
+    }
+
+    /**
+     * Parses the next frame.
+     * @param reader a reader ready at the start of a frame.
+     * @return an object with atoms and bonds, or <code>null</code> if there
+     *      are no more frames.
+     * @throws IOException in case of problem reading the data.
+     */
+    protected abstract AtomsAndBonds parseFrame(BufferedReader reader)
+    throws IOException;
+
+    /**
+     * Iterator parsing frames on demand. As iterators cannot throw checked
+     * exceptions, a problem reading the data just ends the iteration, and
+     * is kept to be thrown once the X3D is generated.
+     */
+    private class Frames implements Iterator<AtomsAndBonds> {
+
+        private final BufferedReader reader;
+        private AtomsAndBonds next;
+        private Vector offset;
+        private IOException error;
+
+        Frames(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && error == null){
+                try {
+                    next = parseFrame(reader);
+                } catch (IOException ex) {
+                    error = ex;
+                }
+                if (next != null){
+                    if (offset == null){
+                        final Point m = next.getMiddle();
+                        offset = new Vector(-m.getX(), -m.getY(), -m.getZ());
+                    }
+                    next.move(offset);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public AtomsAndBonds next() {
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            final AtomsAndBonds frame = next;
+            next = null;
+            return frame;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
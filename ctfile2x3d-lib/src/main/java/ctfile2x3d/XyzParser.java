@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d;
+
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Parser of multi-frame XYZ files: for every frame, the number of atoms, a
+ * comment and one line per atom with its symbol and coordinates.
+ * <br>
+ * XYZ files carry no bonds, so only atoms are rendered.
+ * @author rafa
+ */
+public class XyzParser extends TrajectoryParser {
+
+    public XyzParser(CTFile2X3DConfig conf) {
+        super(conf);
+    }
+
+    /**
+     * Parses one frame.
+     * @param reader A reader ready at the start of a frame.
+     * @return an object with atoms, or <code>null</code> at the end of the
+     *      file.
+     * @throws IOException in case of problem reading the data.
+     */
+    @Override
+    protected AtomsAndBonds parseFrame(BufferedReader reader)
+    throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.trim().isEmpty()){
+            line = reader.readLine();
+        }
+        if (line == null){
+            return null;
+        }
+        final int atomCount;
+        try {
+            atomCount = Integer.parseInt(line.trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Wrong XYZ atom count: " + line, ex);
+        }
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.setName(reader.readLine()); // comment
+        for (int i = 0; i < atomCount; i++) {
+            aab.addAtom(parseAtomLine(reader.readLine()));
+        }
+        return aab;
+    }
+
+    /**
+     * Parses one atom line.
+     * @param atomLine the atom line: symbol and x, y, z coordinates,
+     *      separated by spaces.
+     * @return an Atom.
+     * @throws IOException if the line is missing or incomplete.
+     */
+    Atom parseAtomLine(String atomLine) throws IOException {
+        final String[] fields =
+                atomLine == null? new String[0] : atomLine.trim().split("\\s+");
+        if (fields.length < 4){
+            throw new IOException("Wrong XYZ atom line: " + atomLine);
+        }
+        return new Atom(Double.parseDouble(fields[1]),
+                Double.parseDouble(fields[2]),
+                Double.parseDouble(fields[3]), fields[0], 0);
+    }
+
+}
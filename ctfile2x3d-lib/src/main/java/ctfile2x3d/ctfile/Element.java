@@ -90,4 +90,17 @@ public enum Element {
         return labelColor;
     }
 
+    /**
+     * Gets the element for an atom symbol.
+     * @param symbol the atom symbol as found in a CTFile.
+     * @return the element, or {@link #OTHER} if it is not supported.
+     */
+    public static Element forSymbol(String symbol){
+        try {
+            return valueOf(symbol);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return OTHER;
+        }
+    }
+
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.geom;
+
+/**
+ * An axis-aligned bounding box, growing as points are added to it.
+ * @author rafa
+ */
+public class BoundingBox {
+
+    /**
+     * Bits per axis of {@link #getMortonCode(Point) Morton codes}.
+     */
+    private static final int MORTON_BITS = 21;
+
+    private double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE,
+            minZ = Double.MAX_VALUE;
+    private double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE,
+            maxZ = -Double.MAX_VALUE;
+
+    /**
+     * Grows the box to include a sphere.
+     * @param centre the centre of the sphere.
+     * @param radius the radius of the sphere.
+     * @return this box.
+     */
+    public BoundingBox add(Point centre, double radius) {
+        minX = Math.min(minX, centre.getX() - radius);
+        minY = Math.min(minY, centre.getY() - radius);
+        minZ = Math.min(minZ, centre.getZ() - radius);
+        maxX = Math.max(maxX, centre.getX() + radius);
+        maxY = Math.max(maxY, centre.getY() + radius);
+        maxZ = Math.max(maxZ, centre.getZ() + radius);
+        return this;
+    }
+
+    /**
+     * Grows the box to include another one.
+     * @param box the other box.
+     * @return this box.
+     */
+    public BoundingBox add(BoundingBox box) {
+        minX = Math.min(minX, box.minX);
+        minY = Math.min(minY, box.minY);
+        minZ = Math.min(minZ, box.minZ);
+        maxX = Math.max(maxX, box.maxX);
+        maxY = Math.max(maxY, box.maxY);
+        maxZ = Math.max(maxZ, box.maxZ);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return minX > maxX;
+    }
+
+    public Point getCentre() {
+        return new Point((minX + maxX) / 2, (minY + maxY) / 2,
+                (minZ + maxZ) / 2);
+    }
+
+    public Vector getSize() {
+        return new Vector(maxX - minX, maxY - minY, maxZ - minZ);
+    }
+
+    /**
+     * Calculates the position of a point along a Z-order (Morton) curve
+     * filling this box. Points close in space tend to be close along the
+     * curve, so sorting by this code groups them together.
+     * @param p a point, usually inside the box.
+     * @return the code, interleaving 21 bits per axis.
+     */
+    public long getMortonCode(Point p) {
+        return spread(quantize(p.getX(), minX, maxX))
+                | spread(quantize(p.getY(), minY, maxY)) << 1
+                | spread(quantize(p.getZ(), minZ, maxZ)) << 2;
+    }
+
+    private static long quantize(double value, double min, double max) {
+        final long cells = 1L << MORTON_BITS;
+        if (max <= min){
+            return 0;
+        }
+        final double f = (value - min) / (max - min);
+        return Math.max(0, Math.min(cells - 1, (long) (f * cells)));
+    }
+
+    /**
+     * Spreads the lower 21 bits of a number, leaving two zero bits between
+     * every two of them.
+     */
+    private static long spread(long v) {
+        v &= 0x1FFFFFL;
+        v = (v | v << 32) & 0x1F00000000FFFFL;
+        v = (v | v << 16) & 0x1F0000FF0000FFL;
+        v = (v | v << 8) & 0x100F00F00F00F00FL;
+        v = (v | v << 4) & 0x10C30C30C30C30C3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.geom;
+
+import java.util.Arrays;
+
+/**
+ * A simple indexed triangle mesh, with one normal per vertex.
+ * <br>
+ * Meshes can be built by tessellating basic shapes
+ * ({@link #getSphere(float, int) spheres},
+ * {@link #getCylinder(float, float, int) cylinders}) and then
+ * {@link #add(Mesh, Vector, Vector, double, Point) adding} them, scaled,
+ * rotated and translated, to a bigger mesh.
+ * @author rafa
+ */
+public class Mesh {
+
+    private float[] coordinates = new float[48];
+    private float[] normals = new float[48];
+    private int[] indices = new int[48];
+    private int vertexCount, indexCount;
+
+    /**
+     * Tessellates a sphere centred in the origin.
+     * @param radius the radius of the sphere.
+     * @param resolution the number of segments around the vertical axis. Half
+     *      of them are used from pole to pole.
+     * @return a new mesh.
+     */
+    public static Mesh getSphere(float radius, int resolution){
+        final int slices = Math.max(resolution, 3);
+        final int stacks = Math.max(resolution / 2, 2);
+        Mesh sphere = new Mesh();
+        for (int i = 0; i <= stacks; i++) {
+            final double theta = Math.PI * i / stacks;
+            for (int j = 0; j <= slices; j++) {
+                final double phi = 2 * Math.PI * j / slices;
+                final float nx = (float) (Math.sin(theta) * Math.cos(phi));
+                final float ny = (float) Math.cos(theta);
+                final float nz = (float) (Math.sin(theta) * Math.sin(phi));
+                sphere.addVertex(nx * radius, ny * radius, nz * radius,
+                        nx, ny, nz);
+            }
+        }
+        for (int i = 0; i < stacks; i++) {
+            for (int j = 0; j < slices; j++) {
+                final int a = i * (slices + 1) + j;
+                final int b = a + slices + 1;
+                if (i > 0){
+                    sphere.addTriangle(a, a + 1, b);
+                }
+                if (i < stacks - 1){
+                    sphere.addTriangle(a + 1, b + 1, b);
+                }
+            }
+        }
+        return sphere;
+    }
+
+    /**
+     * Tessellates a closed cylinder centred in the origin, along the Y axis
+     * (the default orientation of an X3D <code>Cylinder</code>).
+     * @param radius the radius of the cylinder.
+     * @param height the height of the cylinder.
+     * @param resolution the number of segments around the Y axis.
+     * @return a new mesh.
+     */
+    public static Mesh getCylinder(float radius, float height, int resolution){
+        final int slices = Math.max(resolution, 3);
+        final float top = height / 2, bottom = -height / 2;
+        Mesh cylinder = new Mesh();
+        // side:
+        for (int j = 0; j <= slices; j++) {
+            final double phi = 2 * Math.PI * j / slices;
+            final float nx = (float) Math.cos(phi);
+            final float nz = (float) Math.sin(phi);
+            cylinder.addVertex(nx * radius, top, nz * radius, nx, 0, nz);
+            cylinder.addVertex(nx * radius, bottom, nz * radius, nx, 0, nz);
+        }
+        for (int j = 0; j < slices; j++) {
+            final int t = 2 * j, b = t + 1;
+            cylinder.addTriangle(t, t + 2, b);
+            cylinder.addTriangle(t + 2, b + 2, b);
+        }
+        // caps:
+        for (int cap = 0; cap < 2; cap++) {
+            final float y = cap == 0? top : bottom;
+            final float ny = cap == 0? 1 : -1;
+            final int centre = cylinder.vertexCount;
+            cylinder.addVertex(0, y, 0, 0, ny, 0);
+            for (int j = 0; j <= slices; j++) {
+                final double phi = 2 * Math.PI * j / slices;
+                cylinder.addVertex((float) Math.cos(phi) * radius, y,
+                        (float) Math.sin(phi) * radius, 0, ny, 0);
+            }
+            for (int j = 0; j < slices; j++) {
+                final int r = centre + 1 + j;
+                if (cap == 0){
+                    cylinder.addTriangle(centre, r + 1, r);
+                } else {
+                    cylinder.addTriangle(centre, r, r + 1);
+                }
+            }
+        }
+        return cylinder;
+    }
+
+    /**
+     * Adds a copy of another mesh to this one. The vertices of the added mesh
+     * are scaled first, then rotated and finally translated.
+     * @param part the mesh to add.
+     * @param scale the scale factors along each axis.
+     * @param axis the axis of rotation. Ignored if <code>angle</code> is zero.
+     * @param angle the angle of rotation in radians.
+     * @param translation the translation to apply.
+     */
+    public void add(Mesh part, Vector scale, Vector axis, double angle,
+            Point translation){
+        final int offset = vertexCount;
+        final boolean rotate = angle != 0;
+        for (int i = 0; i < part.vertexCount; i++) {
+            Vector p = new Vector(
+                    part.coordinates[3*i] * scale.getX(),
+                    part.coordinates[3*i+1] * scale.getY(),
+                    part.coordinates[3*i+2] * scale.getZ());
+            // normals are transformed with the inverse transpose:
+            Vector n = new Vector(
+                    part.normals[3*i] / scale.getX(),
+                    part.normals[3*i+1] / scale.getY(),
+                    part.normals[3*i+2] / scale.getZ());
+            if (rotate){
+                p = Vector.rotate(p, axis, angle);
+                n = Vector.rotate(n, axis, angle);
+            }
+            final double m = n.getMagnitude();
+            addVertex((float) (p.getX() + translation.getX()),
+                    (float) (p.getY() + translation.getY()),
+                    (float) (p.getZ() + translation.getZ()),
+                    (float) (n.getX() / m),
+                    (float) (n.getY() / m),
+                    (float) (n.getZ() / m));
+        }
+        for (int i = 0; i < part.indexCount; i += 3) {
+            addTriangle(offset + part.indices[i],
+                    offset + part.indices[i+1],
+                    offset + part.indices[i+2]);
+        }
+    }
+
+    /**
+     * Adds a copy of another mesh to this one, just translated.
+     * @param part the mesh to add.
+     * @param translation the translation to apply.
+     */
+    public void add(Mesh part, Point translation){
+        add(part, new Vector(1, 1, 1), null, 0, translation);
+    }
+
+    private void addVertex(float x, float y, float z,
+            float nx, float ny, float nz){
+        if (3 * vertexCount + 3 > coordinates.length){
+            coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            normals = Arrays.copyOf(normals, normals.length * 2);
+        }
+        final int i = 3 * vertexCount++;
+        coordinates[i] = x;
+        coordinates[i+1] = y;
+        coordinates[i+2] = z;
+        normals[i] = nx;
+        normals[i+1] = ny;
+        normals[i+2] = nz;
+    }
+
+    private void addTriangle(int a, int b, int c){
+        if (indexCount + 3 > indices.length){
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+        indices[indexCount++] = a;
+        indices[indexCount++] = b;
+        indices[indexCount++] = c;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getTriangleCount() {
+        return indexCount / 3;
+    }
+
+    /**
+     * Gets the coordinates of the vertices.
+     * @return an array with the x, y and z coordinates of every vertex.
+     */
+    public float[] getCoordinates() {
+        return Arrays.copyOf(coordinates, 3 * vertexCount);
+    }
+
+    /**
+     * Gets the normals of the vertices.
+     * @return an array with the x, y and z components of the (unit) normal
+     *      of every vertex.
+     */
+    public float[] getNormals() {
+        return Arrays.copyOf(normals, 3 * vertexCount);
+    }
+
+    /**
+     * Gets the triangles of the mesh.
+     * @return an array with three vertex indices per triangle, in
+     *      counter-clockwise order when seen from the outside.
+     */
+    public int[] getIndices() {
+        return Arrays.copyOf(indices, indexCount);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.geom;
+
+/**
+ * A rotation around an axis, like the X3D <code>SFRotation</code> field.
+ * @author rafa
+ */
+public class Rotation {
+
+    /**
+     * Default rendering of cylinders is vertical.
+     */
+    private static final Vector VERTICAL = new Vector(0, 1, 0);
+
+    private final Vector axis;
+    private final double angle;
+
+    /**
+     * Builds a rotation.
+     * @param axis the axis of rotation. It does not need to be normalised.
+     * @param angle the angle of rotation in radians.
+     */
+    public Rotation(Vector axis, double angle) {
+        this.axis = axis;
+        this.angle = angle;
+    }
+
+    /**
+     * Calculates the rotation which turns a vector into the direction of
+     * another one.
+     * @param from the original vector.
+     * @param to the rotated vector.
+     * @return a rotation around the normal of both vectors.
+     */
+    public static Rotation getRotation(Vector from, Vector to){
+        return new Rotation(Vector.getNormal(from, to),
+                Vector.getAngle(from, to));
+    }
+
+    /**
+     * Calculates the rotation of a vertical cylinder into a given direction.
+     * @param direction the target direction.
+     * @return the rotation, with an arbitrary axis if the direction is
+     *      vertical, and no angle at all if the direction is null.
+     */
+    public static Rotation getVerticalRotation(Vector direction){
+        final Rotation r = getRotation(VERTICAL, direction);
+        return new Rotation(r.axis.getMagnitude() > 1e-9?
+                r.axis : new Vector(1, 0, 0),
+                Double.isNaN(r.angle)? 0 : r.angle);
+    }
+
+    /**
+     * Rotates a vector.
+     * @param v the vector to rotate.
+     * @return the rotated vector, or the same one if the angle is zero.
+     */
+    public Vector rotate(Vector v){
+        return angle != 0? Vector.rotate(v, axis, angle) : v;
+    }
+
+    public Vector getAxis() {
+        return axis;
+    }
+
+    public double getAngle() {
+        return angle;
+    }
+
+    /**
+     * Formats the rotation as an X3D <code>SFRotation</code>.
+     * @return the axis followed by the angle.
+     */
+    @Override
+    public String toString() {
+        return axis.toString() + " " + angle;
+    }
+
+}
@@ -103,6 +103,29 @@ public class Vector {
                 / (v1.getMagnitude() * v2.getMagnitude()));
     }
 
+    /**
+     * Rotates a vector around an axis.
+     * @param v the vector to rotate.
+     * @param axis the axis of rotation. It does not need to be normalised.
+     * @param angle the angle of rotation in radians, following the right
+     *      hand rule.
+     * @return the rotated vector.
+     * @see <a href="http://en.wikipedia.org/wiki/Rodrigues%27_rotation_formula">
+     *      Rodrigues' rotation formula</a>
+     */
+    public static Vector rotate(Vector v, Vector axis, double angle){
+        final double m = axis.getMagnitude();
+        final double kx = axis.getX() / m,
+                ky = axis.getY() / m,
+                kz = axis.getZ() / m;
+        final double cos = Math.cos(angle), sin = Math.sin(angle);
+        final double dot = kx*v.getX() + ky*v.getY() + kz*v.getZ();
+        return new Vector(
+                v.getX()*cos + (ky*v.getZ() - kz*v.getY())*sin + kx*dot*(1-cos),
+                v.getY()*cos + (kz*v.getX() - kx*v.getZ())*sin + ky*dot*(1-cos),
+                v.getZ()*cos + (kx*v.getY() - ky*v.getX())*sin + kz*dot*(1-cos));
+    }
+
     @Override
     public int hashCode() {
         int hash = 7;
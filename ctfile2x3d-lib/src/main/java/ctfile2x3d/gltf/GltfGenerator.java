@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.gltf;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import ctfile2x3d.ctfile.Element;
+import ctfile2x3d.geom.Mesh;
+import ctfile2x3d.geom.Point;
+import ctfile2x3d.geom.Rotation;
+import ctfile2x3d.geom.Vector;
+import ctfile2x3d.x3d.DisplayStyle;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Generates binary glTF 2.0 (<code>.glb</code>) from atoms and bonds, for
+ * WebGL viewers without X3D support.
+ * <br>
+ * Atoms and bonds are sized like the X3D rendering of the same
+ * {@link Display}, but only two geometries are written to the binary buffer:
+ * one unit sphere and one cylinder of unit height. Every element and every
+ * bond type has its own mesh (with its own material) referencing them, and
+ * every atom or bond cylinder is a node instancing one of these meshes with
+ * its translation, rotation and scale. Atom labels are not rendered, as glTF
+ * has no text.
+ * @author rafa
+ * @see <a href="https://registry.khronos.org/glTF/specs/2.0/glTF-2.0.html">
+ *      glTF 2.0 specification</a>
+ */
+public class GltfGenerator {
+
+    /**
+     * The media type of binary glTF.
+     */
+    public static final String CONTENT_TYPE = "model/gltf-binary";
+
+    private static final int MAGIC = 0x46546C67; // glTF
+    private static final int VERSION = 2;
+    private static final int CHUNK_JSON = 0x4E4F534A;
+    private static final int CHUNK_BIN = 0x004E4942;
+    private static final int ARRAY_BUFFER = 34962;
+    private static final int ELEMENT_ARRAY_BUFFER = 34963;
+    private static final int UNSIGNED_SHORT = 5123;
+    private static final int UNSIGNED_INT = 5125;
+    private static final int FLOAT = 5126;
+
+    private final CTFile2X3DConfig conf;
+    private final DisplayStyle style;
+
+    public GltfGenerator(CTFile2X3DConfig conf) {
+        this.conf = conf;
+        this.style = new DisplayStyle(conf);
+    }
+
+    /**
+     * Generates binary glTF.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @return the content of a <code>.glb</code> file.
+     */
+    public byte[] toGlb(AtomsAndBonds aab, Display display) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            write(aab, display, baos);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // never with a byte array
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes binary glTF.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param os the stream to write the <code>.glb</code> file to. It is not
+     *      closed.
+     * @throws IOException in case of problem writing to the stream.
+     */
+    public void write(AtomsAndBonds aab, Display display, OutputStream os)
+    throws IOException {
+        Document doc = new Document();
+        List<Integer> children = new ArrayList<>();
+        addAtoms(doc, aab, display, children);
+        addBonds(doc, aab, display, children);
+        StringBuilder root = new StringBuilder("{\"name\":").append(
+                quote(aab.getName() == null? "" : aab.getName().trim()));
+        for (int i = 0; i < children.size(); i++) {
+            root.append(i == 0? ",\"children\":[" : ",")
+                    .append(children.get(i));
+        }
+        root.append(children.isEmpty()? "}" : "]}");
+        final int rootNode = doc.nodes.size();
+        doc.nodes.add(root.toString());
+        byte[] json = doc.toJson(rootNode).getBytes(StandardCharsets.UTF_8);
+        final byte[] bin = doc.bin.toByteArray();
+        final int jsonLength = pad(json.length);
+        final int binLength = pad(bin.length);
+        ByteBuffer header = ByteBuffer.allocate(20)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putInt(12 + 8 + jsonLength
+                        + (bin.length > 0? 8 + binLength : 0))
+                .putInt(jsonLength).putInt(CHUNK_JSON);
+        os.write(header.array());
+        os.write(json);
+        for (int i = json.length; i < jsonLength; i++) {
+            os.write(' ');
+        }
+        if (bin.length > 0){
+            header.clear();
+            header.putInt(binLength).putInt(CHUNK_BIN);
+            os.write(header.array(), 0, 8);
+            os.write(bin);
+            os.write(new byte[binLength - bin.length]);
+        }
+    }
+
+    /**
+     * Adds one mesh per element, sharing a unit sphere, and one node per
+     * atom.
+     * @param doc the document being built.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param children the list where the indices of the new nodes are added.
+     */
+    private void addAtoms(Document doc, AtomsAndBonds aab, Display display,
+            List<Integer> children) {
+        final float transparency = style.getAtomTransparency(display);
+        if (aab.getAtoms().isEmpty() || !style.isVisible(transparency)){
+            return;
+        }
+        final String sphere = doc.addGeometry(
+                Mesh.getSphere(1, conf.getMeshResolution()));
+        Map<Element, Integer> meshes = new EnumMap<>(Element.class);
+        for (Atom atom : aab.getAtoms().values()) {
+            final Element elem = Element.forSymbol(atom.getSymbol());
+            Integer mesh = meshes.get(elem);
+            if (mesh == null){
+                mesh = doc.addMesh(elem.name(), sphere, doc.addMaterial(
+                        elem.name(), elem.getSphereColor(), transparency));
+                meshes.put(elem, mesh);
+            }
+            final float r = elem.getAtomRadiusEmpirical()
+                    * style.getAtomScale(display);
+            children.add(doc.addNode(mesh, atom.getCoordinates(), null,
+                    new Vector(r, r, r)));
+        }
+    }
+
+    /**
+     * Adds one mesh per bond type, sharing a cylinder of unit height, and
+     * one node per cylinder of every bond.
+     * @param doc the document being built.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param children the list where the indices of the new nodes are added.
+     */
+    private void addBonds(Document doc, AtomsAndBonds aab, Display display,
+            List<Integer> children) {
+        if (aab.getBonds().isEmpty()){
+            return;
+        }
+        final float scale = style.getBondScale(display);
+        final String cylinder = doc.addGeometry(Mesh.getCylinder(
+                style.getBondRadius(display) * scale, 1,
+                conf.getMeshResolution()));
+        Map<Integer, Integer> meshes = new TreeMap<>();
+        for (Bond bond : aab.getBonds().values()) {
+            Integer mesh = meshes.get(bond.getType());
+            if (mesh == null){
+                final String name = "bond" + bond.getType();
+                mesh = doc.addMesh(name, cylinder, doc.addMaterial(name,
+                        conf.getBondColor(bond.getType()), 0));
+                meshes.put(bond.getType(), mesh);
+            }
+            final Point fromP =
+                    aab.getAtoms().get(bond.getFromAtom()).getCoordinates();
+            final Point toP =
+                    aab.getAtoms().get(bond.getToAtom()).getCoordinates();
+            final Vector bondVector = new Vector(fromP, toP);
+            final Rotation rotation =
+                    Rotation.getVerticalRotation(bondVector);
+            final Vector cylScale =
+                    new Vector(1, bondVector.getMagnitude() * scale, 1);
+            for (Point centre : style.getBondCentres(bond,
+                    Point.getMiddle(fromP, toP), rotation)) {
+                children.add(doc.addNode(mesh, centre, rotation, cylScale));
+            }
+        }
+    }
+
+    private static int pad(int length){
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * Quotes a string as a JSON string.
+     * @param s the string.
+     * @return the quoted and escaped string.
+     */
+    static String quote(String s){
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\'){
+                sb.append('\\').append(c);
+            } else if (c < 0x20){
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * The JSON objects and the binary buffer of a glTF file being built.
+     */
+    private static class Document {
+
+        private final ByteArrayOutputStream bin = new ByteArrayOutputStream();
+        private final List<String> bufferViews = new ArrayList<>();
+        private final List<String> accessors = new ArrayList<>();
+        private final List<String> materials = new ArrayList<>();
+        private final List<String> meshes = new ArrayList<>();
+        private final List<String> nodes = new ArrayList<>();
+
+        /**
+         * Writes the vertices and triangles of a mesh to the binary buffer.
+         * @param mesh the mesh.
+         * @return the JSON attributes of a primitive using the geometry.
+         */
+        String addGeometry(Mesh mesh){
+            final float[] coords = mesh.getCoordinates();
+            float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+            float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE,
+                -Float.MAX_VALUE };
+            for (int i = 0; i < coords.length; i++) {
+                min[i % 3] = Math.min(min[i % 3], coords[i]);
+                max[i % 3] = Math.max(max[i % 3], coords[i]);
+            }
+            final int count = mesh.getVertexCount();
+            final int position = addAccessor(addView(floats(coords),
+                    ARRAY_BUFFER), FLOAT, count, "VEC3",
+                    ",\"min\":" + toJson(min) + ",\"max\":" + toJson(max));
+            final int normal = addAccessor(addView(floats(mesh.getNormals()),
+                    ARRAY_BUFFER), FLOAT, count, "VEC3", "");
+            final int[] idx = mesh.getIndices();
+            final boolean shorts = count <= 0xFFFF;
+            ByteBuffer bb = ByteBuffer.allocate(pad(idx.length
+                    * (shorts? 2 : 4))).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i : idx) {
+                if (shorts){
+                    bb.putShort((short) i);
+                } else {
+                    bb.putInt(i);
+                }
+            }
+            final int indices = addAccessor(addView(bb.array(),
+                    ELEMENT_ARRAY_BUFFER), shorts? UNSIGNED_SHORT
+                    : UNSIGNED_INT, idx.length, "SCALAR", "");
+            return "\"attributes\":{\"POSITION\":" + position
+                    + ",\"NORMAL\":" + normal + "},\"indices\":" + indices;
+        }
+
+        private int addView(byte[] data, int target){
+            bufferViews.add("{\"buffer\":0,\"byteOffset\":" + bin.size()
+                    + ",\"byteLength\":" + data.length
+                    + ",\"target\":" + target + "}");
+            bin.write(data, 0, data.length);
+            return bufferViews.size() - 1;
+        }
+
+        private int addAccessor(int view, int componentType, int count,
+                String type, String extra){
+            accessors.add("{\"bufferView\":" + view
+                    + ",\"componentType\":" + componentType
+                    + ",\"count\":" + count
+                    + ",\"type\":\"" + type + "\"" + extra + "}");
+            return accessors.size() - 1;
+        }
+
+        /**
+         * Adds a material.
+         * @param name the name of the material.
+         * @param color an X3D color (three components from 0 to 1).
+         * @param transparency the transparency, <code>1</code> meaning
+         *      invisible.
+         * @return the index of the material.
+         */
+        int addMaterial(String name, String color, float transparency){
+            StringBuilder sb = new StringBuilder("{\"name\":")
+                    .append(quote(name))
+                    .append(",\"pbrMetallicRoughness\":{\"baseColorFactor\":[");
+            for (float c : DisplayStyle.toRgb(color)) {
+                sb.append(c).append(',');
+            }
+            sb.append(1 - transparency)
+                    .append("],\"metallicFactor\":0,\"roughnessFactor\":0.5}");
+            if (transparency > 0){
+                sb.append(",\"alphaMode\":\"BLEND\"");
+            }
+            materials.add(sb.append('}').toString());
+            return materials.size() - 1;
+        }
+
+        int addMesh(String name, String geometry, int material){
+            meshes.add("{\"name\":" + quote(name) + ",\"primitives\":[{"
+                    + geometry + ",\"material\":" + material + "}]}");
+            return meshes.size() - 1;
+        }
+
+        /**
+         * Adds a node instancing a mesh. The vertices of the mesh are scaled
+         * first, then rotated and finally translated.
+         * @param mesh the index of the mesh.
+         * @param translation the translation.
+         * @param rotation the rotation, or <code>null</code> if none.
+         * @param scale the scale factors along each axis.
+         * @return the index of the node.
+         */
+        int addNode(int mesh, Point translation, Rotation rotation,
+                Vector scale){
+            StringBuilder sb = new StringBuilder("{\"mesh\":").append(mesh)
+                    .append(",\"translation\":[")
+                    .append((float) translation.getX()).append(',')
+                    .append((float) translation.getY()).append(',')
+                    .append((float) translation.getZ()).append(']');
+            if (rotation != null && rotation.getAngle() != 0){
+                // unit quaternion (x, y, z, w):
+                final Vector axis = rotation.getAxis();
+                final double s = Math.sin(rotation.getAngle() / 2)
+                        / axis.getMagnitude();
+                sb.append(",\"rotation\":[")
+                        .append((float) (axis.getX() * s)).append(',')
+                        .append((float) (axis.getY() * s)).append(',')
+                        .append((float) (axis.getZ() * s)).append(',')
+                        .append((float) Math.cos(rotation.getAngle() / 2))
+                        .append(']');
+            }
+            sb.append(",\"scale\":[")
+                    .append((float) scale.getX()).append(',')
+                    .append((float) scale.getY()).append(',')
+                    .append((float) scale.getZ()).append("]}");
+            nodes.add(sb.toString());
+            return nodes.size() - 1;
+        }
+
+        /**
+         * Builds the JSON chunk.
+         * @param rootNode the index of the node of the scene.
+         * @return the JSON text.
+         */
+        String toJson(int rootNode){
+            StringBuilder sb = new StringBuilder(
+                    "{\"asset\":{\"version\":\"2.0\",\"generator\":\"ctfile2x3d\"}")
+                    .append(",\"scene\":0,\"scenes\":[{\"nodes\":[")
+                    .append(rootNode).append("]}]");
+            append(sb, "nodes", nodes);
+            append(sb, "meshes", meshes);
+            append(sb, "materials", materials);
+            append(sb, "accessors", accessors);
+            append(sb, "bufferViews", bufferViews);
+            if (bin.size() > 0){
+                sb.append(",\"buffers\":[{\"byteLength\":")
+                        .append(bin.size()).append("}]");
+            }
+            return sb.append('}').toString();
+        }
+
+        private static void append(StringBuilder sb, String name,
+                List<String> objects){
+            if (objects.isEmpty()){
+                return;
+            }
+            sb.append(",\"").append(name).append("\":[");
+            for (int i = 0; i < objects.size(); i++) {
+                sb.append(i == 0? "" : ",").append(objects.get(i));
+            }
+            sb.append(']');
+        }
+
+        private static byte[] floats(float[] values){
+            ByteBuffer bb = ByteBuffer.allocate(4 * values.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            bb.asFloatBuffer().put(values);
+            return bb.array();
+        }
+
+        private static String toJson(float[] values){
+            return "[" + values[0] + "," + values[1] + "," + values[2] + "]";
+        }
+
+    }
+
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.image;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import ctfile2x3d.ctfile.Element;
+import ctfile2x3d.geom.BoundingBox;
+import ctfile2x3d.geom.Point;
+import ctfile2x3d.geom.Rotation;
+import ctfile2x3d.geom.Vector;
+import ctfile2x3d.x3d.DisplayStyle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders PNG thumbnails of atoms and bonds in software, for previews in
+ * lists and grids which would otherwise need one X3D scene each.
+ * <br>
+ * The structure is seen like in the default X3D viewpoint (along the Z axis)
+ * with an orthographic projection fitting it into the image. Atoms and bonds
+ * are sized like the X3D rendering of the same {@link Display}, and drawn as
+ * impostors: every pixel of a sphere or of a bond cylinder (with rounded
+ * ends, which fill the joints of sticks) is intersected analytically with
+ * its view ray, tested against a depth buffer and lit by one directional
+ * light. Transparent atoms are blended over the rest from back to front.
+ * Atom labels are not rendered, as they would not be readable at this size.
+ * The background is transparent.
+ * @author rafa
+ */
+public class ThumbnailRenderer {
+
+    /**
+     * The media type of the thumbnails.
+     */
+    public static final String CONTENT_TYPE = "image/png";
+
+    /**
+     * Empty space around the structure, as a fraction of the image size.
+     */
+    private static final double MARGIN = 0.05;
+
+    private static final float AMBIENT = 0.25F;
+    private static final float DIFFUSE = 0.75F;
+    private static final float SPECULAR = 0.35F;
+    private static final int SHININESS = 32;
+
+    /**
+     * The direction of the light (from the top left, in front) and the half
+     * vector between it and the viewer, in image coordinates (Y down).
+     */
+    private static final double[] LIGHT = normalize(-0.4, -0.5, 0.77);
+    private static final double[] HALF = normalize(LIGHT[0], LIGHT[1],
+            LIGHT[2] + 1);
+
+    private final CTFile2X3DConfig conf;
+    private final DisplayStyle style;
+
+    public ThumbnailRenderer(CTFile2X3DConfig conf) {
+        this.conf = conf;
+        this.style = new DisplayStyle(conf);
+    }
+
+    /**
+     * Renders a thumbnail as PNG, with the
+     * {@link CTFile2X3DConfig#getThumbnailSize() configured size}.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @return the content of a PNG file.
+     */
+    public byte[] toPng(AtomsAndBonds aab, Display display) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            write(aab, display, baos);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // never with a byte array
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes a thumbnail as PNG, with the
+     * {@link CTFile2X3DConfig#getThumbnailSize() configured size}.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param os the stream to write the PNG file to. It is not closed.
+     * @throws IOException in case of problem writing to the stream.
+     */
+    public void write(AtomsAndBonds aab, Display display, OutputStream os)
+    throws IOException {
+        ImageIO.write(render(aab, display, conf.getThumbnailSize()), "png",
+                os);
+    }
+
+    /**
+     * Renders a thumbnail.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param size the width and height of the image, in pixels.
+     * @return a square image with alpha channel.
+     */
+    public BufferedImage render(AtomsAndBonds aab, Display display,
+            int size) {
+        final float atomScale = style.getAtomScale(display);
+        final float transparency = style.getAtomTransparency(display);
+        final boolean atomsVisible = style.isVisible(transparency);
+        final float bondScale = style.getBondScale(display);
+        final float bondRadius = style.getBondRadius(display) * bondScale;
+        BoundingBox box = new BoundingBox();
+        for (Atom atom : aab.getAtoms().values()) {
+            box.add(atom.getCoordinates(), atomsVisible?
+                    Element.forSymbol(atom.getSymbol())
+                            .getAtomRadiusEmpirical() * atomScale
+                    : bondRadius);
+        }
+        Canvas canvas = new Canvas(size);
+        if (!box.isEmpty()){
+            final Vector extent = box.getSize();
+            final double maxExtent = Math.max(extent.getX(), extent.getY());
+            final double scale = size * (1 - 2 * MARGIN)
+                    / (maxExtent > 0? maxExtent : 1);
+            final View view = new View(box.getCentre(), scale, size);
+            drawBonds(canvas, view, aab, bondScale, bondRadius);
+            if (atomsVisible){
+                drawAtoms(canvas, view, aab, atomScale, 1 - transparency);
+            }
+        }
+        BufferedImage image =
+                new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, size, size, canvas.pixels, 0, size);
+        return image;
+    }
+
+    /**
+     * Draws the cylinders of every bond, centred in the middle of the bond
+     * and separated like in X3D for multiple bonds.
+     * @param canvas the canvas to draw on.
+     * @param view the projection of the structure into the image.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param bondScale the scale of the length of the cylinders.
+     * @param bondRadius the radius of the cylinders.
+     */
+    private void drawBonds(Canvas canvas, View view, AtomsAndBonds aab,
+            float bondScale, float bondRadius) {
+        final double r = bondRadius * view.scale;
+        for (Bond bond : aab.getBonds().values()) {
+            final float[] rgb =
+                    DisplayStyle.toRgb(conf.getBondColor(bond.getType()));
+            final Point fromP =
+                    aab.getAtoms().get(bond.getFromAtom()).getCoordinates();
+            final Point toP =
+                    aab.getAtoms().get(bond.getToAtom()).getCoordinates();
+            final Vector bondVector = new Vector(fromP, toP);
+            final Rotation rotation =
+                    Rotation.getVerticalRotation(bondVector);
+            final double half = bondScale / 2.0;
+            for (Point c : style.getBondCentres(bond,
+                    Point.getMiddle(fromP, toP), rotation)) {
+                final double[] a = view.project(
+                        c.getX() - bondVector.getX() * half,
+                        c.getY() - bondVector.getY() * half,
+                        c.getZ() - bondVector.getZ() * half);
+                final double[] b = view.project(
+                        c.getX() + bondVector.getX() * half,
+                        c.getY() + bondVector.getY() * half,
+                        c.getZ() + bondVector.getZ() * half);
+                canvas.capsule(a, b, r, rgb);
+            }
+        }
+    }
+
+    /**
+     * Draws the spheres of every atom. Transparent spheres are drawn after
+     * the opaque geometry, from back to front.
+     * @param canvas the canvas to draw on.
+     * @param view the projection of the structure into the image.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param atomScale the scale of the atom radii.
+     * @param alpha the opacity of the spheres.
+     */
+    private void drawAtoms(Canvas canvas, View view, AtomsAndBonds aab,
+            float atomScale, float alpha) {
+        Map<Element, float[]> colors = new EnumMap<>(Element.class);
+        List<Sphere> spheres = new ArrayList<>(aab.getAtoms().size());
+        for (Atom atom : aab.getAtoms().values()) {
+            final Element elem = Element.forSymbol(atom.getSymbol());
+            float[] rgb = colors.get(elem);
+            if (rgb == null){
+                rgb = DisplayStyle.toRgb(elem.getSphereColor());
+                colors.put(elem, rgb);
+            }
+            final Point p = atom.getCoordinates();
+            spheres.add(new Sphere(view.project(p.getX(), p.getY(), p.getZ()),
+                    elem.getAtomRadiusEmpirical() * atomScale * view.scale,
+                    rgb));
+        }
+        if (alpha < 1){
+            Collections.sort(spheres, new Comparator<Sphere>() {
+                @Override
+                public int compare(Sphere s1, Sphere s2) {
+                    return Double.compare(s1.centre[2], s2.centre[2]);
+                }
+            });
+        }
+        for (Sphere sphere : spheres) {
+            canvas.sphere(sphere.centre, sphere.radius, sphere.rgb, alpha);
+        }
+    }
+
+    private static double[] normalize(double x, double y, double z){
+        final double m = Math.sqrt(x * x + y * y + z * z);
+        return new double[]{ x / m, y / m, z / m };
+    }
+
+    /**
+     * The orthographic projection of the structure into the image: X to the
+     * right, Y down and Z towards the viewer, in pixels.
+     */
+    private static class View {
+
+        private final Point centre;
+        private final double scale;
+        private final double half;
+
+        View(Point centre, double scale, int size) {
+            this.centre = centre;
+            this.scale = scale;
+            this.half = size / 2.0;
+        }
+
+        double[] project(double x, double y, double z){
+            return new double[]{ half + (x - centre.getX()) * scale,
+                half - (y - centre.getY()) * scale,
+                (z - centre.getZ()) * scale };
+        }
+
+    }
+
+    /**
+     * A sphere projected into the image.
+     */
+    private static class Sphere {
+
+        private final double[] centre;
+        private final double radius;
+        private final float[] rgb;
+
+        Sphere(double[] centre, double radius, float[] rgb) {
+            this.centre = centre;
+            this.radius = radius;
+            this.rgb = rgb;
+        }
+
+    }
+
+    /**
+     * The pixels and the depth buffer of a thumbnail being rendered.
+     */
+    private static class Canvas {
+
+        private final int size;
+        private final int[] pixels;
+        private final double[] depth;
+
+        Canvas(int size) {
+            this.size = size;
+            this.pixels = new int[size * size];
+            this.depth = new double[size * size];
+            Arrays.fill(depth, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * Draws a sphere.
+         * @param c the centre of the sphere.
+         * @param r the radius of the sphere.
+         * @param rgb the color of the sphere.
+         * @param alpha the opacity of the sphere. Transparent spheres do not
+         *      write to the depth buffer.
+         */
+        void sphere(double[] c, double r, float[] rgb, float alpha){
+            final int x0 = Math.max(0, (int) Math.floor(c[0] - r));
+            final int x1 = Math.min(size - 1, (int) Math.ceil(c[0] + r));
+            final int y0 = Math.max(0, (int) Math.floor(c[1] - r));
+            final int y1 = Math.min(size - 1, (int) Math.ceil(c[1] + r));
+            for (int y = y0; y <= y1; y++) {
+                final double dy = y + 0.5 - c[1];
+                for (int x = x0; x <= x1; x++) {
+                    final double dx = x + 0.5 - c[0];
+                    final double d2 = dx * dx + dy * dy;
+                    if (d2 >= r * r){
+                        continue;
+                    }
+                    final double dz = Math.sqrt(r * r - d2);
+                    final int i = y * size + x;
+                    if (c[2] + dz <= depth[i]){
+                        continue;
+                    }
+                    final int color = shade(rgb, dx / r, dy / r, dz / r);
+                    if (alpha < 1){
+                        pixels[i] = blend(color, alpha, pixels[i]);
+                    } else {
+                        pixels[i] = color;
+                        depth[i] = c[2] + dz;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Draws an opaque cylinder with hemispherical ends.
+         * @param a the centre of one end.
+         * @param b the centre of the other end.
+         * @param r the radius.
+         * @param rgb the color of the cylinder.
+         */
+        void capsule(double[] a, double[] b, double r, float[] rgb){
+            final double ax = b[0] - a[0], ay = b[1] - a[1], az = b[2] - a[2];
+            final double length = Math.sqrt(ax * ax + ay * ay + az * az);
+            if (length < 1e-9){
+                sphere(a, r, rgb, 1);
+                return;
+            }
+            // unit axis, and the part of the view direction (0, 0, 1)
+            // perpendicular to it:
+            final double ux = ax / length, uy = ay / length, uz = az / length;
+            final double px = -uz * ux, py = -uz * uy, pz = 1 - uz * uz;
+            final int x0 = Math.max(0,
+                    (int) Math.floor(Math.min(a[0], b[0]) - r));
+            final int x1 = Math.min(size - 1,
+                    (int) Math.ceil(Math.max(a[0], b[0]) + r));
+            final int y0 = Math.max(0,
+                    (int) Math.floor(Math.min(a[1], b[1]) - r));
+            final int y1 = Math.min(size - 1,
+                    (int) Math.ceil(Math.max(a[1], b[1]) + r));
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    // the view ray is (x, y, t), from the back to the front:
+                    final double wx = x + 0.5 - a[0], wy = y + 0.5 - a[1];
+                    double z = Double.NEGATIVE_INFINITY;
+                    double nx = 0, ny = 0, nz = 0;
+                    if (pz > 1e-12){
+                        // the point (x, y, t) is at wa + t * uz along the
+                        // axis, and at v + t * p from it:
+                        final double wa = wx * ux + wy * uy - a[2] * uz;
+                        final double vx = wx - wa * ux, vy = wy - wa * uy,
+                                vz = -a[2] - wa * uz;
+                        final double qb = 2 * (vx * px + vy * py + vz * pz);
+                        final double qc = vx * vx + vy * vy + vz * vz - r * r;
+                        final double disc = qb * qb - 4 * pz * qc;
+                        if (disc >= 0){
+                            final double t = (-qb + Math.sqrt(disc)) / (2 * pz);
+                            final double s = wa + t * uz;
+                            if (s >= 0 && s <= length){
+                                z = t;
+                                nx = (vx + t * px) / r;
+                                ny = (vy + t * py) / r;
+                                nz = (vz + t * pz) / r;
+                            }
+                        }
+                    }
+                    for (double[] end : new double[][]{ a, b }) {
+                        final double dx = x + 0.5 - end[0];
+                        final double dy = y + 0.5 - end[1];
+                        final double d2 = dx * dx + dy * dy;
+                        if (d2 < r * r){
+                            final double dz = Math.sqrt(r * r - d2);
+                            if (end[2] + dz > z){
+                                z = end[2] + dz;
+                                nx = dx / r;
+                                ny = dy / r;
+                                nz = dz / r;
+                            }
+                        }
+                    }
+                    final int i = y * size + x;
+                    if (z > depth[i]){
+                        pixels[i] = shade(rgb, nx, ny, nz);
+                        depth[i] = z;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Lights a point with ambient, diffuse and specular terms.
+         * @param rgb the color of the surface.
+         * @param nx the X component of the unit normal.
+         * @param ny the Y component of the unit normal.
+         * @param nz the Z component of the unit normal.
+         * @return an opaque ARGB color.
+         */
+        private static int shade(float[] rgb, double nx, double ny,
+                double nz){
+            final double diffuse = Math.max(0,
+                    nx * LIGHT[0] + ny * LIGHT[1] + nz * LIGHT[2]);
+            final double specular = Math.pow(Math.max(0,
+                    nx * HALF[0] + ny * HALF[1] + nz * HALF[2]), SHININESS);
+            final double light = AMBIENT + DIFFUSE * diffuse;
+            int argb = 0xFF;
+            for (float c : rgb) {
+                argb = (argb << 8) | (int) Math.min(255,
+                        Math.round(255 * (c * light + SPECULAR * specular)));
+            }
+            return argb;
+        }
+
+        /**
+         * Composites a color over another one.
+         * @param color the opaque ARGB color on top.
+         * @param alpha the opacity of the color on top.
+         * @param under the ARGB color below, maybe transparent.
+         * @return the composite ARGB color.
+         */
+        private static int blend(int color, float alpha, int under){
+            final float underAlpha = (under >>> 24) / 255F * (1 - alpha);
+            final float outAlpha = alpha + underAlpha;
+            int argb = Math.round(outAlpha * 255);
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                argb = (argb << 8) | Math.round(((color >> shift & 0xFF)
+                        * alpha + (under >> shift & 0xFF) * underAlpha)
+                        / outAlpha);
+            }
+            return argb;
+        }
+
+    }
+
+}
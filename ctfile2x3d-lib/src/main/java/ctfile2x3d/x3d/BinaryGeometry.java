@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import org.web3d.x3d.IndexedTriangleSet;
+
+/**
+ * The X3DOM <code>BinaryGeometry</code> node, which is not part of the X3D
+ * schema. Its vertex data are loaded by the browser from external binary
+ * buffers (typed arrays) instead of being parsed from numeric strings.
+ * <br>
+ * It extends <code>IndexedTriangleSet</code> so it can be added wherever a
+ * geometry is expected; the inherited <code>index</code> field holds the URL
+ * of the index buffer. To marshal it, the JAXB context must be created with
+ * the {@link #CONTEXT_PATH context path} defined here.
+ * @author rafa
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "")
+@XmlRootElement(name = "BinaryGeometry")
+public class BinaryGeometry extends IndexedTriangleSet {
+
+    /**
+     * JAXB context path including both X3D nodes and this one.
+     */
+    public static final String CONTEXT_PATH = "org.web3d.x3d:ctfile2x3d.x3d";
+
+    @XmlAttribute(name = "coord")
+    protected String coord;
+    @XmlAttribute(name = "normal")
+    protected String normal;
+    @XmlAttribute(name = "vertexCount")
+    protected String vertexCount;
+    @XmlAttribute(name = "primType")
+    protected String primType;
+    @XmlAttribute(name = "position")
+    protected String position;
+    @XmlAttribute(name = "size")
+    protected String size;
+    @XmlAttribute(name = "indexType")
+    protected String indexType;
+    @XmlAttribute(name = "coordType")
+    protected String coordType;
+    @XmlAttribute(name = "normalType")
+    protected String normalType;
+
+    public String getCoord() {
+        return coord;
+    }
+
+    public BinaryGeometry withCoord(String value) {
+        this.coord = value;
+        return this;
+    }
+
+    public String getNormal() {
+        return normal;
+    }
+
+    public BinaryGeometry withNormal(String value) {
+        this.normal = value;
+        return this;
+    }
+
+    public String getVertexCount() {
+        return vertexCount;
+    }
+
+    public BinaryGeometry withVertexCount(String value) {
+        this.vertexCount = value;
+        return this;
+    }
+
+    public String getPrimType() {
+        return primType;
+    }
+
+    public BinaryGeometry withPrimType(String value) {
+        this.primType = value;
+        return this;
+    }
+
+    public String getPosition() {
+        return position;
+    }
+
+    public BinaryGeometry withPosition(String value) {
+        this.position = value;
+        return this;
+    }
+
+    public String getSize() {
+        return size;
+    }
+
+    public BinaryGeometry withSize(String value) {
+        this.size = value;
+        return this;
+    }
+
+    public String getIndexType() {
+        return indexType;
+    }
+
+    public BinaryGeometry withIndexType(String value) {
+        this.indexType = value;
+        return this;
+    }
+
+    public String getCoordType() {
+        return coordType;
+    }
+
+    public BinaryGeometry withCoordType(String value) {
+        this.coordType = value;
+        return this;
+    }
+
+    public String getNormalType() {
+        return normalType;
+    }
+
+    public BinaryGeometry withNormalType(String value) {
+        this.normalType = value;
+        return this;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory store of the binary buffers referenced by
+ * {@link BinaryGeometry} nodes.
+ * <br>
+ * Buffers are named after a digest of their content, so the same buffer is
+ * stored only once and a name always refers to the same bytes (they can be
+ * cached for ever by the browser). When the total size of the buffers goes
+ * over the capacity of the store, the least recently used ones are dropped.
+ * @author rafa
+ */
+public class BufferStore {
+
+    private final long capacity;
+    private long size;
+    private final LinkedHashMap<String, byte[]> buffers =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Builds an empty store.
+     * @param capacity the maximum number of bytes kept in the store.
+     */
+    public BufferStore(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a buffer to the store.
+     * @param data the content of the buffer.
+     * @return the name of the buffer.
+     */
+    public synchronized String put(byte[] data) {
+        final String name = getName(data);
+        if (!buffers.containsKey(name)){
+            buffers.put(name, data);
+            size += data.length;
+            Iterator<Map.Entry<String, byte[]>> it =
+                    buffers.entrySet().iterator();
+            while (size > capacity && buffers.size() > 1) {
+                size -= it.next().getValue().length;
+                it.remove();
+            }
+        } else {
+            buffers.get(name); // refresh its access order
+        }
+        return name;
+    }
+
+    /**
+     * Gets a buffer from the store.
+     * @param name the name of the buffer.
+     * @return the content of the buffer, or <code>null</code> if there is no
+     *      such buffer (or it has already been dropped).
+     */
+    public synchronized byte[] get(String name) {
+        return buffers.get(name);
+    }
+
+    /**
+     * Calculates the name of a buffer.
+     * @param data the content of the buffer.
+     * @return the hexadecimal SHA-1 digest of the content.
+     */
+    private static String getName(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                  .append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(".bin").toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-1:
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Encodes numbers as a <code>Float32Array</code>.
+     * @param values the values.
+     * @return the values in little-endian byte order.
+     */
+    public static byte[] toFloat32(float[] values) {
+        ByteBuffer bb = ByteBuffer.allocate(values.length * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bb.asFloatBuffer().put(values);
+        return bb.array();
+    }
+
+    /**
+     * Encodes numbers as a <code>Uint16Array</code>.
+     * @param values the values, none of them over 65535.
+     * @return the values in little-endian byte order.
+     */
+    public static byte[] toUint16(int[] values) {
+        ByteBuffer bb = ByteBuffer.allocate(values.length * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : values) {
+            bb.putShort((short) value);
+        }
+        return bb.array();
+    }
+
+    /**
+     * Encodes numbers as a <code>Uint32Array</code>.
+     * @param values the values.
+     * @return the values in little-endian byte order.
+     */
+    public static byte[] toUint32(int[] values) {
+        ByteBuffer bb = ByteBuffer.allocate(values.length * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bb.asIntBuffer().put(values);
+        return bb.array();
+    }
+
+}
@@ -27,6 +27,6 @@ public enum CssClass {
     BondMaterial, BondCylinder, BondCylinderTransform, BondType,
     AtomSphereMaterial, AtomSphereTransform,
     AtomLabelTransform, AtomLabelMaterial , AtomLabelFontStyle,
-    AtomPI, TimeSensor
+    AtomPI, TimeSensor, DisplaySwitch, TileBox
     
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Deflate compression of X3D with a preset dictionary.
+ * <br>
+ * Small structures compress poorly with plain gzip, because most of their
+ * bytes are the boilerplate of the generator (tags, DEFs, CSS classes...)
+ * which appears only a few times in each of them. The preset dictionary holds
+ * that boilerplate, so even its first occurrence is compressed.
+ * <br>
+ * The streams are zlib streams (RFC 1950) whose header carries the Adler-32
+ * of the dictionary, so they can only be inflated with the same dictionary,
+ * by {@link #inflate(InputStream) inflate}. The dictionary is the resource
+ * <code>ctfile2x3d/x3d/dictionary.x3d</code>, built with
+ * {@link #train(List, int) train} from the X3D of sample structures.
+ * @author rafa
+ */
+public class DictionaryCodec {
+
+    /**
+     * The <code>Content-Encoding</code> of X3D compressed with the preset
+     * dictionary.
+     */
+    public static final String CONTENT_ENCODING = "x-x3d-dictionary";
+    /**
+     * The maximum size of a dictionary, the size of the deflate window.
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+    private static final String RESOURCE = "ctfile2x3d/x3d/dictionary.x3d";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The maximum number of consecutive tags taken as a single token.
+     */
+    private static final int MAX_RUN = 4;
+
+    private static byte[] dictionary;
+
+    private DictionaryCodec() {
+    }
+
+    /**
+     * Gets the preset dictionary.
+     * @return the dictionary, loaded from the classpath.
+     */
+    public static synchronized byte[] getDictionary() {
+        if (dictionary == null){
+            try (InputStream is = DictionaryCodec.class.getClassLoader()
+                    .getResourceAsStream(RESOURCE)) {
+                if (is == null){
+                    throw new IllegalStateException(
+                            "Dictionary not found: " + RESOURCE);
+                }
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final byte[] buf = new byte[4096];
+                for (int n; (n = is.read(buf)) != -1; ) {
+                    baos.write(buf, 0, n);
+                }
+                dictionary = baos.toByteArray();
+            } catch (IOException ex) {
+                throw new IllegalStateException(
+                        "Unable to read dictionary: " + RESOURCE, ex);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Gets the identifier of the dictionary written in the zlib header.
+     * @return the Adler-32 of the dictionary.
+     */
+    public static int getDictionaryId() {
+        Adler32 adler = new Adler32();
+        adler.update(getDictionary());
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Wraps a stream to compress everything written to it.
+     * @param os the stream to write the compressed bytes to. It is closed
+     *      with the returned stream.
+     * @return the stream to write the uncompressed bytes to. It must be
+     *      closed (or {@link DeflaterOutputStream#finish() finished}) to
+     *      complete the compressed stream.
+     */
+    public static DeflaterOutputStream deflate(OutputStream os) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setDictionary(getDictionary());
+        return new DeflaterOutputStream(os, deflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream to decompress what is read from it.
+     * @param is the stream of compressed bytes. It is closed with the
+     *      returned stream.
+     * @return the stream of uncompressed bytes. Reading from it fails with a
+     *      {@link ZipException} if the bytes were not compressed with the
+     *      same dictionary.
+     */
+    public static InputStream inflate(InputStream is) {
+        return new DictionaryInflaterInputStream(is);
+    }
+
+    /**
+     * Compresses some bytes.
+     * @param data the bytes to compress.
+     * @return the compressed bytes.
+     */
+    public static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflaterOutputStream dos = deflate(baos)) {
+            dos.write(data);
+        } catch (IOException ex) {
+            // not thrown by a ByteArrayOutputStream:
+            throw new IllegalStateException(ex);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decompresses some bytes.
+     * @param data the bytes compressed by {@link #deflate(byte[]) deflate}.
+     * @return the uncompressed bytes.
+     * @throws ZipException if the bytes were not compressed with the same
+     *      dictionary, or are corrupted.
+     */
+    public static byte[] inflate(byte[] data) throws ZipException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = inflate(new ByteArrayInputStream(data))) {
+            final byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) != -1; ) {
+                baos.write(buf, 0, n);
+            }
+        } catch (ZipException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            // not thrown by a ByteArrayInputStream:
+            throw new IllegalStateException(ex);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Builds a dictionary from sample X3D. Samples are split into tags and
+     * attributes, and those found in at least 5% of the samples are kept, so
+     * that coordinates and other values specific to a structure are left
+     * out. As deflate encodes closer matches with fewer bits, the tokens
+     * saving more bytes (occurrences times length) are placed at the end.
+     * @param samples the X3D of typical structures, in UTF-8.
+     * @param size the maximum size of the dictionary, up to
+     *      {@link #MAX_SIZE}.
+     * @return the dictionary.
+     */
+    public static byte[] train(List<byte[]> samples, int size) {
+        final Map<String, Integer> occurrences = new HashMap<>();
+        final Map<String, Integer> sampleCounts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<String> seen = new HashSet<>();
+            for (String token : getTokens(sample)) {
+                Integer n = occurrences.get(token);
+                occurrences.put(token, n == null? 1 : n + 1);
+                if (seen.add(token)){
+                    n = sampleCounts.get(token);
+                    sampleCounts.put(token, n == null? 1 : n + 1);
+                }
+            }
+        }
+        final int minSamples = Math.max(2, samples.size() / 20);
+        List<String> tokens = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : sampleCounts.entrySet()) {
+            if (entry.getValue() >= minSamples){
+                tokens.add(entry.getKey());
+            }
+        }
+        // most valuable first, to keep them if the dictionary is full:
+        Collections.sort(tokens, new Comparator<String>() {
+            @Override
+            public int compare(String t1, String t2) {
+                final long v1 = (long) occurrences.get(t1) * t1.length();
+                final long v2 = (long) occurrences.get(t2) * t2.length();
+                return v1 != v2? Long.compare(v2, v1) : t1.compareTo(t2);
+            }
+        });
+        final int max = Math.min(size, MAX_SIZE);
+        List<byte[]> kept = new ArrayList<>();
+        int total = 0;
+        for (String token : tokens) {
+            final byte[] bytes = token.getBytes(UTF_8);
+            if (total + bytes.length <= max){
+                kept.add(bytes);
+                total += bytes.length;
+            }
+        }
+        // ...and last in the dictionary:
+        Collections.reverse(kept);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(total);
+        for (byte[] bytes : kept) {
+            baos.write(bytes, 0, bytes.length);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Splits X3D into tokens: every run of up to {@link #MAX_RUN} consecutive
+     * tags (each one with the text up to the next tag), and also the name,
+     * every attribute and every attribute name of the tags with attributes.
+     * @param x3d the X3D, in UTF-8.
+     * @return the tokens in document order.
+     */
+    private static List<String> getTokens(byte[] x3d) {
+        final String s = new String(x3d, UTF_8);
+        List<Integer> starts = new ArrayList<>();
+        for (int i = s.indexOf('<'); i != -1; i = s.indexOf('<', i + 1)) {
+            starts.add(i);
+        }
+        starts.add(s.length());
+        List<String> tokens = new ArrayList<>();
+        for (int t = 0; t < starts.size() - 1; t++) {
+            final String tag = s.substring(starts.get(t), starts.get(t + 1));
+            final String[] parts = tag.split("(?= [A-Za-z]+=\")");
+            if (parts.length > 1){
+                Collections.addAll(tokens, parts);
+                for (int i = 1; i < parts.length; i++) {
+                    tokens.add(parts[i]
+                            .substring(0, parts[i].indexOf('"') + 1));
+                }
+            }
+            final int last = Math.min(t + MAX_RUN, starts.size() - 1);
+            for (int end = t + 1; end <= last; end++) {
+                tokens.add(s.substring(starts.get(t), starts.get(end)));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Inflates zlib streams, setting the preset dictionary when requested by
+     * their header.
+     */
+    private static class DictionaryInflaterInputStream
+            extends InflaterInputStream {
+
+        DictionaryInflaterInputStream(InputStream is) {
+            super(is, new Inflater());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0){
+                return 0;
+            }
+            try {
+                int n;
+                while ((n = inf.inflate(b, off, len)) == 0) {
+                    if (inf.needsDictionary()){
+                        if (inf.getAdler() != getDictionaryId()){
+                            throw new ZipException("Unknown dictionary");
+                        }
+                        inf.setDictionary(getDictionary());
+                    } else if (inf.finished()){
+                        return -1;
+                    } else if (inf.needsInput()){
+                        fill();
+                    }
+                }
+                return n;
+            } catch (DataFormatException ex) {
+                throw new ZipException(ex.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.ctfile.Bond;
+import ctfile2x3d.geom.Point;
+import ctfile2x3d.geom.Rotation;
+import ctfile2x3d.geom.Vector;
+
+/**
+ * Sizes and transparencies of atoms and bonds for every type of display.
+ * @author rafa
+ */
+public class DisplayStyle {
+
+    private final CTFile2X3DConfig conf;
+
+    public DisplayStyle(CTFile2X3DConfig conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * Gets the scale applied to atom spheres.
+     * @param display the type of display for chemical structures.
+     * @return a factor applied to the atom radius.
+     */
+    public float getAtomScale(Display display){
+        switch (display) {
+            case BALLS_STICKS:
+                return 0.5F;
+            default:
+                return 1.0F;
+        }
+    }
+
+    /**
+     * Gets the transparency of atom spheres.
+     * @param display the type of display for chemical structures.
+     * @return a transparency, <code>1</code> meaning invisible.
+     */
+    public float getAtomTransparency(Display display){
+        switch (display) {
+            case WIREFRAME:
+            case STICKS:
+                return 1.0F;
+            case MIXED:
+                return conf.getAtomTransparency();
+            default:
+                return 0.0F;
+        }
+    }
+
+    /**
+     * Gets the transparency of atom labels.
+     * @param display the type of display for chemical structures.
+     * @return a transparency, <code>1</code> meaning invisible.
+     */
+    public float getLabelTransparency(Display display){
+        switch (display) {
+            case WIREFRAME:
+            case MIXED:
+                return 0.0F;
+            default:
+                return 1.0F;
+        }
+    }
+
+    /**
+     * Gets the radius of the cylinders representing bonds.
+     * @param display the type of display for chemical structures.
+     * @return the radius, before applying the
+     *      {@link #getBondScale(ctfile2x3d.Display) bond scale}.
+     */
+    public float getBondRadius(Display display){
+        switch (display) {
+            case WIREFRAME:
+                return 0.02F;
+            default:
+                return 0.05F;
+        }
+    }
+
+    /**
+     * Gets the scale applied to the cylinders representing bonds.
+     * @param display the type of display for chemical structures.
+     * @return a factor applied to both radius and length of the cylinders.
+     */
+    public float getBondScale(Display display){
+        switch (display) {
+            case WIREFRAME:
+            case MIXED:
+                return 0.5F;
+            default:
+                return 1.0F;
+        }
+    }
+
+    /**
+     * Gets the offsets of the cylinders representing one bond.
+     * @param bondType the type of bond: 1: single, 2: double, 3: triple,
+     *      4: aromatic.
+     * @return the distances of every cylinder to the axis of the bond, along
+     *      the X axis of the bond.
+     */
+    public float[] getBondOffsets(int bondType){
+        final float d = conf.getBondDistance();
+        switch (bondType) {
+            case 1:
+                return new float[]{ 0 };
+            case 2:
+            case 4:
+                return new float[]{ -d, d };
+            case 3:
+                return new float[]{ -d, 0, d };
+            default:
+                return new float[0];
+        }
+    }
+
+    /**
+     * Calculates where the cylinders representing one bond are centred.
+     * @param bond the bond.
+     * @param middle the middle of the bond.
+     * @param rotation the rotation of the vertical cylinders into the
+     *      direction of the bond (see
+     *      {@link Rotation#getVerticalRotation(Vector)}).
+     * @return the centre of every cylinder, in the order of
+     *      {@link #getBondOffsets(int) getBondOffsets}.
+     */
+    public Point[] getBondCentres(Bond bond, Point middle,
+            Rotation rotation){
+        final float[] offsets = getBondOffsets(bond.getType());
+        Point[] centres = new Point[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] == 0){
+                centres[i] = middle;
+            } else {
+                final Vector v = rotation.rotate(
+                        new Vector(offsets[i], 0, 0));
+                centres[i] = new Point(middle.getX() + v.getX(),
+                        middle.getY() + v.getY(), middle.getZ() + v.getZ());
+            }
+        }
+        return centres;
+    }
+
+    /**
+     * Parses an X3D color, like those of elements and bond types.
+     * @param color three components from 0 to 1.
+     * @return the components.
+     */
+    public static float[] toRgb(String color){
+        final String[] c = color.trim().split("\\s+");
+        return new float[]{ Float.parseFloat(c[0]), Float.parseFloat(c[1]),
+            Float.parseFloat(c[2]) };
+    }
+
+    /**
+     * Checks if some geometry is visible at all.
+     * @param transparency the transparency of the geometry.
+     * @return <code>true</code> if the geometry is not fully transparent.
+     */
+    public boolean isVisible(float transparency){
+        return transparency < 1.0F;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.api.sax.EXIResult;
+import com.siemens.ct.exi.main.api.sax.EXISource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import org.web3d.x3d.X3D;
+import org.xml.sax.InputSource;
+
+/**
+ * Marshals X3D into the Efficient XML Interchange (EXI) binary encoding, the
+ * compressed encoding of X3D.
+ * <br>
+ * The encoding is schema-informed, with the grammars of the X3D schema
+ * bundled in the <code>x3d</code> module, so element and attribute names are
+ * not written at all. Encoding is not strict, so nodes outside of the schema
+ * (like {@link BinaryGeometry}) are still allowed. The grammars are built
+ * once, the first time they are needed, and shared by every marshaller.
+ * @author rafa
+ */
+public class ExiMarshaller {
+
+    /**
+     * The MIME type of X3D encoded with EXI.
+     */
+    public static final String CONTENT_TYPE = "model/x3d+exi";
+    /**
+     * The X3D schema, in the classpath.
+     */
+    private static final String SCHEMA = "x3d-3.3.xsd";
+
+    private static Grammars grammars;
+
+    private final JAXBContext jc;
+    private final boolean compression;
+
+    /**
+     * Builds a marshaller.
+     * @param compression <code>true</code> to compress the EXI stream (which
+     *      then needs no further gzip), <code>false</code> for plain
+     *      bit-packed EXI.
+     * @throws JAXBException if the JAXB context cannot be created.
+     */
+    public ExiMarshaller(boolean compression) throws JAXBException {
+        this.jc = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
+        this.compression = compression;
+    }
+
+    /**
+     * Gets the grammars of the X3D schema.
+     * @return the grammars, built from the schema in the classpath.
+     * @throws EXIException if the schema cannot be read.
+     */
+    private static synchronized Grammars getGrammars() throws EXIException {
+        if (grammars == null){
+            URL schema = ExiMarshaller.class.getClassLoader()
+                    .getResource(SCHEMA);
+            if (schema == null){
+                throw new EXIException("X3D schema not found: " + SCHEMA);
+            }
+            // the URL lets the schema include the Web3D extensions:
+            grammars = GrammarFactory.newInstance()
+                    .createGrammars(schema.toExternalForm());
+        }
+        return grammars;
+    }
+
+    private EXIFactory getFactory() throws EXIException {
+        EXIFactory factory = DefaultEXIFactory.newInstance();
+        factory.setGrammars(getGrammars());
+        factory.setCodingMode(compression?
+                CodingMode.COMPRESSION : CodingMode.BIT_PACKED);
+        return factory;
+    }
+
+    /**
+     * Marshals X3D into EXI.
+     * @param x3d the X3D to marshal.
+     * @param os the stream to write the EXI to. It is not closed.
+     * @throws JAXBException if the X3D cannot be marshalled.
+     * @throws IOException if the EXI cannot be written.
+     */
+    public void marshal(X3D x3d, OutputStream os)
+    throws JAXBException, IOException {
+        try {
+            EXIResult result = new EXIResult(getFactory());
+            result.setOutputStream(os);
+            jc.createMarshaller().marshal(x3d, result);
+        } catch (EXIException ex) {
+            throw new IOException("Unable to encode EXI", ex);
+        }
+    }
+
+    /**
+     * Unmarshals X3D from EXI written by {@link #marshal(X3D, OutputStream)
+     * marshal}, with the same compression.
+     * @param is the stream to read the EXI from.
+     * @return the X3D.
+     * @throws JAXBException if the X3D cannot be unmarshalled.
+     * @throws IOException if the EXI cannot be read.
+     */
+    public X3D unmarshal(InputStream is) throws JAXBException, IOException {
+        try {
+            EXISource source = new EXISource(getFactory());
+            source.setInputSource(new InputSource(is));
+            return (X3D) jc.createUnmarshaller().unmarshal(source);
+        } catch (EXIException ex) {
+            throw new IOException("Unable to decode EXI", ex);
+        }
+    }
+
+}
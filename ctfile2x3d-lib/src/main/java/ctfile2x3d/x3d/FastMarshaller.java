@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import org.web3d.x3d.X3D;
+import org.web3d.x3d.X3DWriter;
+import org.web3d.x3d.writer.XmlOutput;
+
+/**
+ * Marshals X3D with the writers generated at build time in the
+ * <code>x3d</code> module ({@link X3DWriter}), which write the nodes used by
+ * {@link X3DGenerator} without reflection.
+ * <br>
+ * The output is the same as the one of a JAXB marshaller without formatting.
+ * Any other node (like {@link BinaryGeometry}) is marshalled with JAXB as an
+ * XML fragment, so the JAXB context is only needed - and created, if not
+ * provided - the first time one of them is found.
+ * @author rafa
+ */
+public class FastMarshaller {
+
+    private static JAXBContext sharedContext;
+
+    private final JAXBContext jc;
+
+    /**
+     * Builds a marshaller which creates its JAXB context only if needed.
+     */
+    public FastMarshaller() {
+        this(null);
+    }
+
+    /**
+     * Builds a marshaller.
+     * @param jc the JAXB context to marshal nodes without generated writer.
+     *      It must know about {@link BinaryGeometry}.
+     */
+    public FastMarshaller(JAXBContext jc) {
+        this.jc = jc;
+    }
+
+    private JAXBContext getContext() throws JAXBException {
+        if (jc != null){
+            return jc;
+        }
+        synchronized (FastMarshaller.class){
+            if (sharedContext == null){
+                sharedContext =
+                        JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
+            }
+            return sharedContext;
+        }
+    }
+
+    /**
+     * Marshals X3D, without formatting.
+     * @param x3d the X3D to marshal.
+     * @param writer the writer to write the XML to.
+     * @throws JAXBException if the X3D cannot be marshalled.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void marshal(X3D x3d, Writer writer)
+    throws JAXBException, IOException {
+        FallbackOutput out = new FallbackOutput(writer);
+        try {
+            out.declaration();
+            X3DWriter.write(x3d, out);
+            out.flush();
+        } catch (FallbackException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Marshals top-level nodes of a scene as an XML fragment, without
+     * formatting.
+     * @param nodes the nodes.
+     * @param writer the writer to write the XML to.
+     * @throws JAXBException if a node cannot be marshalled.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void marshalSceneChildren(List<?> nodes, Writer writer)
+    throws JAXBException, IOException {
+        FallbackOutput out = new FallbackOutput(writer);
+        try {
+            for (Object node : nodes) {
+                X3DWriter.writeSceneChild(node, out);
+            }
+            out.flush();
+        } catch (FallbackException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Marshals an update as an XML document, without formatting:
+     * <pre>
+     * &lt;update&gt;
+     *  &lt;remove DEF="AAM5"/&gt;
+     *  &lt;set DEF="AAM3" translation="1.0 2.0 0.0"/&gt;
+     *  &lt;add&gt;&lt;Transform DEF="AAM7" ...&gt;...&lt;/Transform&gt;&lt;/add&gt;
+     * &lt;/update&gt;
+     * </pre>
+     * @param update the update.
+     * @param writer the writer to write the XML to.
+     * @throws JAXBException if an added node cannot be marshalled.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void marshal(X3DUpdate update, Writer writer)
+    throws JAXBException, IOException {
+        FallbackOutput out = new FallbackOutput(writer);
+        try {
+            out.declaration();
+            out.startTag("update");
+            for (String def : update.getRemoved()) {
+                out.startTag("remove");
+                out.attribute("DEF", def);
+                out.endTag("remove");
+            }
+            for (Map.Entry<String, Map<String, String>> entry
+                    : update.getFields().entrySet()) {
+                out.startTag("set");
+                out.attribute("DEF", entry.getKey());
+                for (Map.Entry<String, String> field
+                        : entry.getValue().entrySet()) {
+                    out.attribute(field.getKey(), field.getValue());
+                }
+                out.endTag("set");
+            }
+            if (!update.getAdded().isEmpty()){
+                out.startTag("add");
+                for (Object node : update.getAdded()) {
+                    X3DWriter.writeSceneChild(node, out);
+                }
+                out.endTag("add");
+            }
+            out.endTag("update");
+            out.flush();
+        } catch (FallbackException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Output marshalling nodes without generated writer with JAXB.
+     */
+    private class FallbackOutput extends XmlOutput {
+
+        private Marshaller marshaller;
+
+        FallbackOutput(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeOther(String name, Class<?> type, Object value)
+        throws IOException {
+            try {
+                if (marshaller == null){
+                    marshaller = getContext().createMarshaller();
+                    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+                }
+                marshaller.marshal(name == null? value
+                        : new JAXBElement<>(new QName(name),
+                                (Class<Object>) type, value),
+                        getWriter());
+            } catch (JAXBException ex) {
+                throw new FallbackException(ex);
+            }
+        }
+
+    }
+
+    /**
+     * Carries a {@link JAXBException} through the generated writers.
+     */
+    private static class FallbackException extends IOException {
+
+        FallbackException(JAXBException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized JAXBException getCause() {
+            return (JAXBException) super.getCause();
+        }
+
+    }
+
+}
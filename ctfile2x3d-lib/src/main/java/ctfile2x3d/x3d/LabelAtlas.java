@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.ctfile.Element;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * The texture atlas of atom labels used with
+ * {@link CTFile2X3DConfig#isLabelAtlas() label atlas}: one PNG image with
+ * the symbol of every supported element, in its label color, on a grid of
+ * cells of {@value #CELL_WIDTH} x {@value #CELL_HEIGHT} pixels. Every label
+ * is a quad textured with the region of its symbol, so the browser uploads
+ * one texture per scene instead of rasterising one per <code>Text</code>
+ * node.
+ * <br>
+ * The atlas is drawn once, with the fonts of the server. Like a
+ * {@link ProtoLibrary}, it is versioned with a digest of its content, which
+ * is part of its {@link CTFile2X3DConfig#getAtlasUrlPattern() URL}.
+ * @author rafa
+ */
+public class LabelAtlas {
+
+    /**
+     * The media type of the atlas.
+     */
+    public static final String CONTENT_TYPE = "image/png";
+
+    static final int CELL_WIDTH = 64;
+    static final int CELL_HEIGHT = 32;
+    private static final int COLUMNS = 8;
+
+    /**
+     * The size of the font, relative to the height of a cell.
+     */
+    private static final float FONT_SCALE = 0.75F;
+
+    private final CTFile2X3DConfig conf;
+    private final List<Element> elements = new ArrayList<>();
+    private final int width;
+    private final int height;
+    private byte[] image;
+    private String version;
+
+    public LabelAtlas(CTFile2X3DConfig conf) {
+        this.conf = conf;
+        for (Element elem : Element.values()) {
+            if (elem != Element.OTHER){
+                elements.add(elem);
+            }
+        }
+        width = COLUMNS * CELL_WIDTH;
+        final int rows = (elements.size() + COLUMNS - 1) / COLUMNS;
+        // a power of two, for mipmaps:
+        height = Integer.highestOneBit(rows * CELL_HEIGHT * 2 - 1);
+    }
+
+    /**
+     * Checks whether a symbol is in the atlas.
+     * @param symbol the atom symbol.
+     * @return <code>true</code> for the symbol of a supported element.
+     */
+    public boolean contains(String symbol) {
+        return Element.forSymbol(symbol) != Element.OTHER;
+    }
+
+    /**
+     * Gets the texture coordinates of the region of a symbol, for the
+     * vertices of a {@link #getQuad(float) quad}.
+     * @param symbol the atom symbol, which must be in the atlas.
+     * @return the texture coordinates of the bottom left, bottom right, top
+     *      right and top left corners.
+     */
+    public String getTexCoords(String symbol) {
+        final int i = elements.indexOf(Element.forSymbol(symbol));
+        final float u0 = (float) (i % COLUMNS * CELL_WIDTH) / width;
+        final float u1 = u0 + (float) CELL_WIDTH / width;
+        // the rows of the image go down, the texture coordinates up:
+        final float v1 = 1 - (float) (i / COLUMNS * CELL_HEIGHT) / height;
+        final float v0 = v1 - (float) CELL_HEIGHT / height;
+        return u0 + " " + v0 + " " + u1 + " " + v0 + " "
+                + u1 + " " + v1 + " " + u0 + " " + v1;
+    }
+
+    /**
+     * Gets the coordinates of a quad showing a symbol of the atlas, centred
+     * like a <code>Text</code> justified in the middle.
+     * @param fontSize the size of the font.
+     * @return the coordinates of the bottom left, bottom right, top right and
+     *      top left corners.
+     */
+    public String getQuad(float fontSize) {
+        final float y = fontSize / FONT_SCALE / 2;
+        final float x = y * CELL_WIDTH / CELL_HEIGHT;
+        return -x + " " + -y + " 0 " + x + " " + -y + " 0 "
+                + x + " " + y + " 0 " + -x + " " + y + " 0";
+    }
+
+    /**
+     * Gets the atlas.
+     * @return the content of a PNG file.
+     */
+    public synchronized byte[] getImage() {
+        if (image == null){
+            BufferedImage bi =
+                    new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = bi.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN,
+                    Math.round(CELL_HEIGHT * FONT_SCALE)));
+            final FontMetrics fm = g.getFontMetrics();
+            for (int i = 0; i < elements.size(); i++) {
+                final Element elem = elements.get(i);
+                final String[] rgb = elem.getLabelColor().trim().split("\\s+");
+                g.setColor(new Color(Float.parseFloat(rgb[0]),
+                        Float.parseFloat(rgb[1]), Float.parseFloat(rgb[2])));
+                final int x = i % COLUMNS * CELL_WIDTH + (CELL_WIDTH
+                        - fm.stringWidth(elem.name())) / 2;
+                final int y = i / COLUMNS * CELL_HEIGHT + (CELL_HEIGHT
+                        + fm.getAscent() - fm.getDescent()) / 2;
+                g.drawString(elem.name(), x, y);
+            }
+            g.dispose();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(bi, "png", baos);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex); // never with a byte array
+            }
+            image = baos.toByteArray();
+        }
+        return image;
+    }
+
+    /**
+     * Gets the version of the atlas.
+     * @return the first hexadecimal digits of the SHA-1 digest of the atlas.
+     */
+    public synchronized String getVersion() {
+        if (version == null){
+            version = ProtoLibrary.getVersion(getImage());
+        }
+        return version;
+    }
+
+    /**
+     * Gets the URL of the atlas.
+     * @return the URL, built with the
+     *      {@link CTFile2X3DConfig#getAtlasUrlPattern() configured pattern}.
+     */
+    public String getUrl() {
+        return MessageFormat.format(conf.getAtlasUrlPattern(), getVersion());
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import ctfile2x3d.ctfile.Element;
+import ctfile2x3d.geom.Mesh;
+import ctfile2x3d.geom.Point;
+import ctfile2x3d.geom.Rotation;
+import ctfile2x3d.geom.Vector;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tessellates atoms and bonds into triangle meshes, merging every atom of the
+ * same element and every bond of the same type into one mesh.
+ * @author rafa
+ */
+public class MeshBuilder {
+
+    private final DisplayStyle style;
+
+    public MeshBuilder(CTFile2X3DConfig conf) {
+        this.style = new DisplayStyle(conf);
+    }
+
+    /**
+     * Builds one mesh per element with the spheres of its atoms.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param resolution the number of segments around each sphere.
+     * @return a map of elements to meshes. It will be empty if atom spheres
+     *      are not visible with the given display.
+     */
+    public Map<Element, Mesh> getAtomMeshes(AtomsAndBonds aab,
+            Display display, int resolution) {
+        Map<Element, Mesh> meshes = new EnumMap<>(Element.class);
+        if (!style.isVisible(style.getAtomTransparency(display))){
+            return meshes;
+        }
+        Map<Element, Mesh> spheres = new EnumMap<>(Element.class);
+        for (Atom atom : aab.getAtoms().values()) {
+            final Element elem = Element.forSymbol(atom.getSymbol());
+            Mesh sphere = spheres.get(elem);
+            if (sphere == null){
+                sphere = Mesh.getSphere(elem.getAtomRadiusEmpirical()
+                        * style.getAtomScale(display), resolution);
+                spheres.put(elem, sphere);
+                meshes.put(elem, new Mesh());
+            }
+            meshes.get(elem).add(sphere, atom.getCoordinates());
+        }
+        return meshes;
+    }
+
+    /**
+     * Builds one mesh per bond type with the cylinders of its bonds.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param resolution the number of segments around each cylinder.
+     * @return a map of bond types to meshes.
+     */
+    public Map<Integer, Mesh> getBondMeshes(AtomsAndBonds aab,
+            Display display, int resolution) {
+        Map<Integer, Mesh> meshes = new TreeMap<>();
+        final float scale = style.getBondScale(display);
+        final Mesh cylinder = Mesh.getCylinder(
+                style.getBondRadius(display) * scale, 1, resolution);
+        for (Bond bond : aab.getBonds().values()) {
+            Mesh mesh = meshes.get(bond.getType());
+            if (mesh == null){
+                mesh = new Mesh();
+                meshes.put(bond.getType(), mesh);
+            }
+            addBond(mesh, cylinder, bond, aab, scale);
+        }
+        return meshes;
+    }
+
+    /**
+     * Adds the cylinders of one bond to a mesh.
+     * @param mesh the mesh to add the bond to.
+     * @param cylinder a cylinder of unit height.
+     * @param bond the bond.
+     * @param aab the object containing the atoms linked by the bond.
+     * @param scale the scale applied to the length of the bond.
+     */
+    private void addBond(Mesh mesh, Mesh cylinder, Bond bond,
+            AtomsAndBonds aab, float scale) {
+        final Point fromP =
+                aab.getAtoms().get(bond.getFromAtom()).getCoordinates();
+        final Point toP =
+                aab.getAtoms().get(bond.getToAtom()).getCoordinates();
+        final Vector bondVector = new Vector(fromP, toP);
+        final Rotation rotation = Rotation.getVerticalRotation(bondVector);
+        final Vector cylScale =
+                new Vector(1, bondVector.getMagnitude() * scale, 1);
+        for (Point centre : style.getBondCentres(bond,
+                Point.getMiddle(fromP, toP), rotation)) {
+            mesh.add(cylinder, cylScale, rotation.getAxis(),
+                    rotation.getAngle(), centre);
+        }
+    }
+
+}
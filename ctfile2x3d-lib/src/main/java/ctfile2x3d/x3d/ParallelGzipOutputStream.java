@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression in parallel, like <code>pigz</code>.
+ * <br>
+ * The bytes written are split into blocks, which are deflated by a pool of
+ * threads and written in order as one gzip member, so any gzip decoder
+ * (browsers included) can inflate it. Every block but the last one ends with
+ * a sync flush, so that the raw deflate streams of consecutive blocks can be
+ * concatenated, and is deflated with the last 32 KiB of the previous block
+ * as preset dictionary, so the compression ratio is close to the one of a
+ * {@link java.util.zip.GZIPOutputStream}. Only the CRC-32 is computed by the
+ * writing thread.
+ * <br>
+ * At most two blocks per thread of the pool are kept in memory: writing
+ * waits for the oldest block to be deflated and written when there are more.
+ * @author rafa
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+    /**
+     * The default size of the blocks deflated in parallel.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    /**
+     * The size of the deflate window, taken from the previous block as
+     * dictionary.
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b,
+        Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final int level;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] block;
+    private int count;
+    private byte[] dictionary;
+    private long size;
+    private boolean finished;
+
+    /**
+     * Builds a stream with blocks of the default size and the default
+     * compression level.
+     * @param out the stream to write the gzip member to.
+     * @throws IOException if the gzip header cannot be written.
+     */
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Builds a stream.
+     * @param out the stream to write the gzip member to.
+     * @param blockSize the size of the blocks deflated in parallel. Bigger
+     *      blocks compress slightly better, smaller blocks use more threads
+     *      for small outputs.
+     * @param level the compression level, from <code>0</code> to
+     *      <code>9</code>, or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @throws IOException if the gzip header cannot be written.
+     */
+    public ParallelGzipOutputStream(OutputStream out, int blockSize,
+            int level) throws IOException {
+        super(out);
+        if (blockSize <= 0){
+            throw new IllegalArgumentException("Block size: " + blockSize);
+        }
+        this.level = level;
+        this.maxPending = 2 * WorkerPool.get().getParallelism();
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[count++] = (byte) b;
+        if (count == block.length){
+            submit(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0){
+            final int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length){
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks already deflated and flushes the underlying stream.
+     * The current block is not deflated until it is full, as flushing it
+     * would make the compression worse.
+     * @throws IOException if the stream cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peekFirst().isDone()){
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Deflates the remaining bytes and writes the gzip trailer, without
+     * closing the underlying stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void finish() throws IOException {
+        if (finished){
+            return;
+        }
+        submit(true);
+        while (!pending.isEmpty()){
+            writeNext();
+        }
+        final long crcValue = crc.getValue();
+        final byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (crcValue >> (8 * i));
+            trailer[4 + i] = (byte) (size >> (8 * i));
+        }
+        out.write(trailer);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Sends the current block to the pool.
+     * @param last whether it is the last block of the stream.
+     * @throws IOException if the blocks already deflated cannot be written.
+     */
+    private void submit(final boolean last) throws IOException {
+        if (finished){
+            throw new IOException("Stream already finished");
+        }
+        final byte[] data = count == block.length?
+                block : Arrays.copyOf(block, count);
+        final byte[] dict = dictionary;
+        crc.update(data);
+        size += data.length;
+        pending.addLast(WorkerPool.get().submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(data, dict, last);
+            }
+        }));
+        if (data.length > 0){
+            dictionary = Arrays.copyOfRange(data,
+                    Math.max(0, data.length - DICTIONARY_SIZE), data.length);
+        }
+        if (data == block){
+            block = new byte[block.length];
+        }
+        count = 0;
+        while (pending.size() > maxPending){
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for the oldest block to be deflated and writes it.
+     * @throws IOException if the block cannot be written.
+     */
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.removeFirst().get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Deflates one block as raw deflate data.
+     * @param data the block.
+     * @param dict the end of the previous block, or <code>null</code> for
+     *      the first one.
+     * @param last whether the block ends the deflate stream.
+     * @return the deflated block, ending with a sync flush unless it is the
+     *      last one.
+     */
+    private byte[] deflate(byte[] data, byte[] dict, boolean last) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (dict != null){
+                deflater.setDictionary(dict);
+            }
+            deflater.setInput(data);
+            ByteArrayOutputStream baos =
+                    new ByteArrayOutputStream(data.length / 4 + 64);
+            final byte[] buf = new byte[16 * 1024];
+            if (last){
+                deflater.finish();
+                while (!deflater.finished()){
+                    baos.write(buf, 0, deflater.deflate(buf));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length,
+                            Deflater.SYNC_FLUSH);
+                    baos.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+}
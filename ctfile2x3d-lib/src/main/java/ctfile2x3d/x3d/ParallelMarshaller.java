@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+import org.web3d.x3d.Scene;
+import org.web3d.x3d.X3D;
+
+/**
+ * Marshals big X3D scenes in parallel.
+ * <br>
+ * The top-level nodes of the scene are split into chunks of consecutive
+ * nodes, which are marshalled as XML fragments by a pool of threads and then
+ * written in order, so the output is the same as the one of a single
+ * {@link Marshaller}. Chunks are marshalled either with JAXB or with a
+ * {@link FastMarshaller}. A node of a chunk can <code>USE</code> a node
+ * <code>DEF</code>'d in a previous chunk, but not in a later one: that is
+ * reported as an error instead of writing a <code>USE</code> before its
+ * <code>DEF</code>.
+ * @author rafa
+ */
+public class ParallelMarshaller {
+
+    private static final String EMPTY_SCENE = "<Scene/>";
+    private static final Pattern DEF_USE =
+            Pattern.compile(" (DEF|USE)=\"([^\"]*)\"");
+
+    private final JAXBContext jc;
+    private final FastMarshaller fast;
+    private final int chunkSize;
+
+    /**
+     * Builds a marshaller using JAXB.
+     * @param jc the JAXB context to create the marshallers.
+     * @param chunkSize the number of top-level nodes marshalled together, or
+     *      <code>0</code> to always marshal sequentially. Scenes with no more
+     *      nodes than that are marshalled sequentially.
+     */
+    public ParallelMarshaller(JAXBContext jc, int chunkSize) {
+        this.jc = jc;
+        this.fast = null;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Builds a marshaller using the generated writers.
+     * @param fast the marshaller with the generated writers.
+     * @param chunkSize the number of top-level nodes marshalled together, or
+     *      <code>0</code> to always marshal sequentially. Scenes with no more
+     *      nodes than that are marshalled sequentially.
+     */
+    public ParallelMarshaller(FastMarshaller fast, int chunkSize) {
+        this.jc = null;
+        this.fast = fast;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Marshals X3D, without formatting.
+     * @param x3d the X3D to marshal.
+     * @param writer the writer to write the XML to.
+     * @throws JAXBException if the X3D cannot be marshalled.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void marshal(X3D x3d, Writer writer)
+    throws JAXBException, IOException {
+        final List<Serializable> nodes = x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        final String header = getHeader(x3d);
+        final int split = header.indexOf(EMPTY_SCENE);
+        if (chunkSize <= 0 || nodes.size() <= chunkSize || split == -1
+                || !areElements(nodes)){
+            marshalAll(x3d, writer);
+            return;
+        }
+        List<Future<Chunk>> chunks = new ArrayList<>();
+        for (int from = 0; from < nodes.size(); from += chunkSize) {
+            final List<Serializable> chunk = nodes.subList(from,
+                    Math.min(from + chunkSize, nodes.size()));
+            chunks.add(WorkerPool.get().submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws JAXBException, IOException {
+                    return marshalChunk(chunk);
+                }
+            }));
+        }
+        writer.write(header, 0, split);
+        writer.write("<Scene>");
+        Set<String> defs = new HashSet<>();
+        for (Future<Chunk> future : chunks) {
+            final Chunk chunk = getChunk(future);
+            for (String use : chunk.uses) {
+                if (!defs.contains(use)){
+                    throw new JAXBException("USE before its DEF: " + use);
+                }
+            }
+            defs.addAll(chunk.defs);
+            writer.write(chunk.xml);
+        }
+        writer.write("</Scene>");
+        writer.write(header.substring(split + EMPTY_SCENE.length()));
+    }
+
+    private Marshaller getMarshaller() throws JAXBException {
+        Marshaller m = jc.createMarshaller();
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+        return m;
+    }
+
+    private void marshalAll(X3D x3d, Writer writer)
+    throws JAXBException, IOException {
+        if (fast == null){
+            getMarshaller().marshal(x3d, writer);
+        } else {
+            fast.marshal(x3d, writer);
+        }
+    }
+
+    /**
+     * Marshals the X3D without the nodes of the scene.
+     * @param x3d the X3D.
+     * @return the XML, with an empty <code>Scene</code> element.
+     * @throws JAXBException if the X3D cannot be marshalled.
+     * @throws IOException if the XML cannot be written.
+     */
+    private String getHeader(X3D x3d) throws JAXBException, IOException {
+        X3D empty = new X3D().withHead(x3d.getHead())
+                .withVersion(x3d.getVersion()).withProfile(x3d.getProfile())
+                .withScene(new Scene());
+        StringWriter sw = new StringWriter();
+        marshalAll(empty, sw);
+        return sw.toString();
+    }
+
+    /**
+     * Checks if every node can be marshalled on its own.
+     * @param nodes the top-level nodes of the scene.
+     * @return <code>true</code> if all of them are XML elements, or if the
+     *      generated writers are used (which know the name of any node).
+     */
+    private boolean areElements(List<Serializable> nodes) {
+        if (fast != null){
+            return true;
+        }
+        JAXBIntrospector introspector = jc.createJAXBIntrospector();
+        for (Serializable node : nodes) {
+            if (!introspector.isElement(node)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marshals consecutive top-level nodes as an XML fragment.
+     * @param nodes the nodes.
+     * @return the fragment along with its DEFs and the USEs of nodes DEF'd
+     *      out of it.
+     * @throws JAXBException if the nodes cannot be marshalled.
+     * @throws IOException if the XML cannot be written.
+     */
+    private Chunk marshalChunk(List<Serializable> nodes)
+    throws JAXBException, IOException {
+        StringWriter sw = new StringWriter();
+        if (fast == null){
+            Marshaller m = getMarshaller();
+            m.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            for (Serializable node : nodes) {
+                m.marshal(node, sw);
+            }
+        } else {
+            fast.marshalSceneChildren(nodes, sw);
+        }
+        final Chunk chunk = new Chunk();
+        chunk.xml = sw.toString();
+        Matcher matcher = DEF_USE.matcher(chunk.xml);
+        while (matcher.find()) {
+            if ("DEF".equals(matcher.group(1))){
+                chunk.defs.add(matcher.group(2));
+            } else if (!chunk.defs.contains(matcher.group(2))){
+                chunk.uses.add(matcher.group(2));
+            }
+        }
+        return chunk;
+    }
+
+    private static Chunk getChunk(Future<Chunk> future)
+    throws JAXBException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JAXBException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof JAXBException){
+                throw (JAXBException) ex.getCause();
+            }
+            if (ex.getCause() instanceof IOException){
+                throw (IOException) ex.getCause();
+            }
+            throw new JAXBException(ex.getCause());
+        }
+    }
+
+    /**
+     * An XML fragment with some top-level nodes.
+     */
+    private static class Chunk {
+        String xml;
+        final Set<String> defs = new HashSet<>();
+        final Set<String> uses = new HashSet<>();
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+/**
+ * The external library of atom and bond prototypes referenced by the X3D
+ * generated with {@link ctfile2x3d.GeometryMode#PROTOS prototypes}. There is
+ * one library for every type of display.
+ * <br>
+ * Every library is versioned with a digest of its content, which is part of
+ * its {@link CTFile2X3DConfig#getProtoUrlPattern() URL}, so browsers can cache
+ * it for ever. Libraries are built once: changes to the configuration after
+ * that are not reflected.
+ * @author rafa
+ */
+public class ProtoLibrary {
+
+    private final X3DGenerator x3dGen;
+    private final Map<Display, byte[]> libraries = new EnumMap<>(Display.class);
+    private final Map<Display, String> versions =
+            new EnumMap<>(Display.class);
+
+    public ProtoLibrary(X3DGenerator x3dGen) {
+        this.x3dGen = x3dGen;
+    }
+
+    /**
+     * Gets the library for a type of display.
+     * @param display the type of display for chemical structures.
+     * @return the marshalled X3D of the library.
+     */
+    public synchronized byte[] getLibrary(Display display) {
+        byte[] library = libraries.get(display);
+        if (library == null){
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                Marshaller m = JAXBContext
+                        .newInstance(BinaryGeometry.CONTEXT_PATH)
+                        .createMarshaller();
+                m.marshal(x3dGen.toProtoLibrary(display), baos);
+                library = baos.toByteArray();
+            } catch (JAXBException ex) {
+                throw new IllegalStateException(
+                        "Unable to marshal prototype library", ex);
+            }
+            libraries.put(display, library);
+        }
+        return library;
+    }
+
+    /**
+     * Gets the version of the library for a type of display.
+     * @param display the type of display for chemical structures.
+     * @return the first hexadecimal digits of the SHA-1 digest of the
+     *      library.
+     */
+    public synchronized String getVersion(Display display) {
+        String version = versions.get(display);
+        if (version == null){
+            version = getVersion(getLibrary(display));
+            versions.put(display, version);
+        }
+        return version;
+    }
+
+    /**
+     * Calculates the version of some content served with a URL cached for
+     * ever.
+     * @param content the content.
+     * @return the first hexadecimal digits of the SHA-1 digest of the
+     *      content.
+     */
+    static String getVersion(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 6; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                  .append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-1:
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Gets the URL of the library for a type of display.
+     * @param display the type of display for chemical structures.
+     * @return the URL, built with the
+     *      {@link CTFile2X3DConfig#getProtoUrlPattern() configured pattern}.
+     */
+    public String getUrl(Display display) {
+        return MessageFormat.format(x3dGen.conf.getProtoUrlPattern(),
+                display.name(), getVersion(display));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import ctfile2x3d.geom.BoundingBox;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A structure split into tiles of atoms close in space, so that it can be
+ * rendered progressively: first a root scene with one <code>Inline</code>
+ * node per tile (see {@link X3DGenerator#toTiledRoot(TiledModel, String,
+ * ctfile2x3d.Display) toTiledRoot}), then every tile on demand (see
+ * {@link X3DGenerator#toTile(TiledModel, int, ctfile2x3d.Display) toTile}).
+ * <br>
+ * Atoms are sorted along a Morton curve, like the bounding volume
+ * hierarchy, and cut into tiles of the same number of atoms. Every bond
+ * belongs to the tile of its first atom. The model is not modified after
+ * being built, so it can be shared by several threads.
+ * @author rafa
+ */
+public class TiledModel {
+
+    private final AtomsAndBonds aab;
+    private final List<List<Integer>> atoms = new ArrayList<>();
+    private final List<List<Bond>> bonds = new ArrayList<>();
+
+    /**
+     * Splits a structure into tiles.
+     * @param aab the structure.
+     * @param tileSize the maximum number of atoms in a tile.
+     */
+    public TiledModel(AtomsAndBonds aab, int tileSize) {
+        this.aab = aab;
+        BoundingBox all = new BoundingBox();
+        for (Atom atom : aab.getAtoms().values()) {
+            all.add(atom.getCoordinates(), 0);
+        }
+        final Map<Integer, Long> codes = new HashMap<>();
+        for (Map.Entry<Integer, Atom> entry : aab.getAtoms().entrySet()) {
+            codes.put(entry.getKey(),
+                    all.getMortonCode(entry.getValue().getCoordinates()));
+        }
+        Integer[] keys = codes.keySet().toArray(new Integer[0]);
+        Arrays.sort(keys, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                final int c = Long.compare(codes.get(o1), codes.get(o2));
+                return c != 0? c : o1.compareTo(o2);
+            }
+        });
+        final int size = Math.max(tileSize, 1);
+        final Map<Integer, Integer> tiles = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (i % size == 0){
+                atoms.add(new ArrayList<Integer>(size));
+                bonds.add(new ArrayList<Bond>());
+            }
+            atoms.get(i / size).add(keys[i]);
+            tiles.put(keys[i], i / size);
+        }
+        for (Bond bond : aab.getBonds().values()) {
+            final Integer tile = tiles.get(bond.getFromAtom());
+            if (tile != null){
+                bonds.get(tile).add(bond);
+            }
+        }
+    }
+
+    /**
+     * Gets the whole structure.
+     * @return the structure split into tiles.
+     */
+    public AtomsAndBonds getAtomsAndBonds() {
+        return aab;
+    }
+
+    /**
+     * Gets the number of tiles.
+     * @return the number of tiles, <code>0</code> for a structure without
+     *      atoms.
+     */
+    public int getTileCount() {
+        return atoms.size();
+    }
+
+    /**
+     * Gets the atoms of a tile.
+     * @param tile the number of the tile, from <code>0</code>.
+     * @return the keys of the atoms in the structure.
+     */
+    public List<Integer> getAtoms(int tile) {
+        return atoms.get(tile);
+    }
+
+    /**
+     * Gets the bonds of a tile.
+     * @param tile the number of the tile, from <code>0</code>.
+     * @return the bonds whose first atom is in the tile.
+     */
+    public List<Bond> getBonds(int tile) {
+        return bonds.get(tile);
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The pool of threads shared by the parallel generation
+ * ({@link X3DGenerator}), marshalling ({@link ParallelMarshaller}) and
+ * compression ({@link ParallelGzipOutputStream}) of X3D.
+ * <br>
+ * The pool is only created when first needed. Applications which are
+ * stopped without stopping the JVM, like web applications, should
+ * {@link #shutdown() shut it down}, so that its threads do not outlive
+ * them.
+ * @author rafa
+ */
+public class WorkerPool {
+
+    private static ForkJoinPool pool;
+
+    private WorkerPool() {
+    }
+
+    /**
+     * Gets the pool, creating it if needed.
+     * @return the pool of threads shared by the library.
+     */
+    public static synchronized ForkJoinPool get() {
+        if (pool == null){
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Shuts the pool down, if it was created. The tasks already submitted
+     * are still run, and a new pool will be created if needed again.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null){
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+}
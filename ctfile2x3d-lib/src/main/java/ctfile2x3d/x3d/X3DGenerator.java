@@ -17,30 +17,57 @@
 
 package ctfile2x3d.x3d;
 
+import ctfile2x3d.AnimationMode;
 import ctfile2x3d.CTFile2X3DConfig;
 import ctfile2x3d.Display;
+import ctfile2x3d.GeometryMode;
 import ctfile2x3d.ctfile.Atom;
 import ctfile2x3d.ctfile.AtomsAndBonds;
 import ctfile2x3d.ctfile.Bond;
 import ctfile2x3d.ctfile.Element;
+import ctfile2x3d.geom.BoundingBox;
+import ctfile2x3d.geom.Mesh;
 import ctfile2x3d.geom.Point;
+import ctfile2x3d.geom.Rotation;
 import ctfile2x3d.geom.Vector;
 import java.io.Serializable;
+import java.math.BigInteger;
+import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.web3d.x3d.AccessTypeNames;
 import org.web3d.x3d.Billboard;
+import org.web3d.x3d.Color;
+import org.web3d.x3d.Coordinate;
+import org.web3d.x3d.ExternProtoDeclare;
+import org.web3d.x3d.Field;
+import org.web3d.x3d.FieldTypeName;
 import org.web3d.x3d.Group;
+import org.web3d.x3d.IS;
+import org.web3d.x3d.IndexedTriangleSet;
+import org.web3d.x3d.LOD;
 import org.web3d.x3d.Material;
 import org.web3d.x3d.ObjectFactory;
+import org.web3d.x3d.ProtoDeclare;
+import org.web3d.x3d.ProtoInterface;
 import org.web3d.x3d.ROUTE;
 import org.web3d.x3d.Shape;
+import org.web3d.x3d.Switch;
 import org.web3d.x3d.TimeSensor;
 import org.web3d.x3d.Transform;
+import org.web3d.x3d.Viewpoint;
 import org.web3d.x3d.X3D;
 import org.web3d.x3d.X3DInterpolatorNode;
 import org.web3d.x3d.X3DNode;
@@ -52,11 +79,19 @@ import org.web3d.x3d.X3DNode;
 public class X3DGenerator {
 
     private static final String AAM = "AAM";
+    private static final String MOL = "MOL";
+    private static final String TILE = "TILE";
     private static final String APP_BOND = "APP_BOND_";
     private static final String MAT_BOND = "MAT_BOND_";
+    private static final String BOND = "BOND_";
+    private static final String CYL_BOND = "CYL_BOND_";
     private static final String INTERP = "INTERP_";
+    private static final String SHARED = "SHARED_";
     private static final String FADE_OUT = "FADE_OUT";
     private static final String FADE_IN = "FADE_IN";
+    private static final String RXN_COORDS = "RXN_COORDS";
+    private static final String ATOM_COORDS = "ATOM_COORDS";
+    private static final String ATOM_COLORS = "ATOM_COLORS";
     
     private static final String FRACTION_CHANGED = "fraction_changed";
     private static final String SET_FRACTION = "set_fraction";
@@ -64,31 +99,93 @@ public class X3DGenerator {
     private static final String TRANSLATION = "translation";
     private static final String ROTATION = "rotation";
     private static final String TRANSPARENCY = "transparency";
+    private static final String SCALE = "scale";
+    private static final String POINT = "point";
+    private static final String ATOM_PROTO = "Atom_";
+    private static final String BOND_PROTO = "Bond_";
+    private static final String ALL_DISPLAYS = "ALL";
+
+    /**
+     * Maximum number of atoms and bonds rendered by one parallel task.
+     */
+    private static final int PARALLEL_CHUNK = 512;
+
+    /**
+     * Minimum distance an atom must move to be animated.
+     */
+    private static final double MIN_MOVEMENT = 0.01;
 
     private static final Logger logger =
             Logger.getLogger(X3DGenerator.class.getName());
     
     public final CTFile2X3DConfig conf;
     public final ObjectFactory x3dOf = new ObjectFactory();
+    private final DisplayStyle style;
+    private final MeshBuilder meshBuilder;
+    private final BufferStore buffers;
+    private ProtoLibrary protoLibrary;
+    private LabelAtlas labelAtlas;
 
     public X3DGenerator(CTFile2X3DConfig conf) {
+        this(conf, new BufferStore(conf.getBinaryCacheSize()));
+    }
+
+    /**
+     * Constructor sharing a store for binary buffers.
+     * @param conf the configuration.
+     * @param buffers the store where the buffers referenced by
+     *      {@link BinaryGeometry} nodes are put.
+     */
+    public X3DGenerator(CTFile2X3DConfig conf, BufferStore buffers) {
         this.conf = conf;
+        this.style = new DisplayStyle(conf);
+        this.meshBuilder = new MeshBuilder(conf);
+        this.buffers = buffers;
+    }
+
+    public BufferStore getBufferStore() {
+        return buffers;
     }
 
     /**
-     * Builds an X3D text with the element symbol.
+     * Gets the prototype library referenced by the X3D generated with
+     * {@link ctfile2x3d.GeometryMode#PROTOS prototypes}.
+     * @return the library, created on first use.
+     */
+    public synchronized ProtoLibrary getProtoLibrary() {
+        if (protoLibrary == null){
+            protoLibrary = new ProtoLibrary(this);
+        }
+        return protoLibrary;
+    }
+
+    /**
+     * Gets the texture atlas referenced by atom labels rendered with the
+     * {@link CTFile2X3DConfig#isLabelAtlas() label atlas}.
+     * @return the atlas, created on first use.
+     */
+    public synchronized LabelAtlas getLabelAtlas() {
+        if (labelAtlas == null){
+            labelAtlas = new LabelAtlas(conf);
+        }
+        return labelAtlas;
+    }
+
+    /**
+     * Builds an X3D text with the element symbol, or a quad textured with
+     * the symbol if the {@link CTFile2X3DConfig#isLabelAtlas() label atlas}
+     * is used and has it.
      * @param elem The element to render as a label.
      * @param atom
      * @param display the type of display for chemical structures.
-     * @return
+     * @return the label, or <code>null</code> if it would be invisible for the
+     *      given display and the display is not
+     *      {@link CTFile2X3DConfig#isDisplaySwitchable() switchable}.
      */
     private Serializable getAtomLabel(Element elem, Atom atom, Display display) {
-        float transparency = 1.0F;
-        switch (display) {
-            case WIREFRAME:
-            case MIXED:
-                transparency = 0.0F;
-                break;
+        final float transparency = style.getLabelTransparency(display);
+        if (!style.isVisible(transparency) && !conf.isDisplaySwitchable()){
+            return null;
         }
         Billboard bb = x3dOf.createBillboard().withAxisOfRotation("0 0 0")
             .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
@@ -96,7 +193,10 @@ public class X3DGenerator {
                     .withClazz(CssClass.AtomLabelTransform.name())
                     .withTranslation("0 -0.45 0")
                     .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        x3dOf.createShape().withRest(
+                        conf.isLabelAtlas()
+                                && getLabelAtlas().contains(atom.getSymbol())?
+                            getAtlasLabel(atom, transparency)
+                            : x3dOf.createShape().withRest(
                             x3dOf.createAppearance()
                                 .withAppearanceChildContentModel(
                                     x3dOf.createMaterial()
@@ -119,24 +219,75 @@ public class X3DGenerator {
             );
         return bb;
     }
+
+    /**
+     * Builds a quad textured with the region of the
+     * {@link #getLabelAtlas() label atlas} showing the symbol of an atom.
+     * The symbol is drawn with its color in the atlas, so the white material
+     * only carries the transparency, and every label references the same
+     * texture URL.
+     * @param atom the atom.
+     * @param transparency the transparency of the label.
+     * @return the Shape of the label.
+     */
+    private Shape getAtlasLabel(Atom atom, float transparency) {
+        final LabelAtlas atlas = getLabelAtlas();
+        return x3dOf.createShape().withRest(
+                x3dOf.createAppearance()
+                    .withAppearanceChildContentModel(
+                        x3dOf.createMaterial()
+                            .withClazz(CssClass.AtomLabelMaterial.name())
+                            .withDiffuseColor("1 1 1")
+                            .withTransparency(transparency),
+                        x3dOf.createImageTexture()
+                            .withUrl("\"" + atlas.getUrl() + "\"")),
+                x3dOf.createIndexedTriangleSet()
+                    .withSolid(false)
+                    .withIndex("0 1 2 0 2 3")
+                    .withComposedGeometryContentModel(
+                        x3dOf.createCoordinate().withPoint(
+                                atlas.getQuad(conf.getAtomSymbolSize())),
+                        x3dOf.createTextureCoordinate().withPoint(
+                                atlas.getTexCoords(atom.getSymbol()))));
+    }
     
     /**
      * Calculates the <code>rotation</code> field (X3D <code>Transform</code>
      * node) for two given points.
      * @param p1
      * @param p2
-     * @return a String suitable as a <code>rotation</code> field.
+     * @return the rotation of a vertical cylinder to go from <code>p1</code>
+     *      to <code>p2</code>.
      */
-    protected String getRotation(Point p1, Point p2){
-        Vector vector = new Vector(
-                p2.getX() - p1.getX(),
-                p2.getY() - p1.getY(),
-                p2.getZ() - p1.getZ());
+    protected Rotation getRotation(Point p1, Point p2){
         // Default rendering in X3D is vertical:
-        Vector vertVector = new Vector(0, 1, 0);
-        double rotAngle = Vector.getAngle(vertVector, vector);
-        Vector rotVector = Vector.getNormal(vertVector, vector);
-        return rotVector.toString() + " " + rotAngle;
+        return Rotation.getRotation(new Vector(0, 1, 0), new Vector(p1, p2));
+    }
+
+    /**
+     * Calculates the <code>rotation</code> field of the Transform around a
+     * bond.
+     * @param bond the bond.
+     * @param aab the object containing the atoms linked by the bond.
+     * @return the rotation of the bond.
+     */
+    private Rotation getRotation(Bond bond, AtomsAndBonds aab){
+        return getRotation(
+                aab.getAtoms().get(bond.getFromAtom()).getCoordinates(),
+                aab.getAtoms().get(bond.getToAtom()).getCoordinates());
+    }
+
+    /**
+     * Calculates the <code>translation</code> field of the Transform around
+     * a bond.
+     * @param bond the bond.
+     * @param aab the object containing the atoms linked by the bond.
+     * @return the middle of the bond.
+     */
+    private static Point getMiddle(Bond bond, AtomsAndBonds aab){
+        return Point.getMiddle(
+                aab.getAtoms().get(bond.getFromAtom()).getCoordinates(),
+                aab.getAtoms().get(bond.getToAtom()).getCoordinates());
     }
 
     /**
@@ -146,27 +297,126 @@ public class X3DGenerator {
      *      already there, it will be added.
      * @param display the type of display for chemical structures.
      * @param aab the object containing the atoms linked by this bond.
-     * @return a Transform representing a bond.
+     * @param fading whether the bond will be faded in or out by an animation,
+     *      thus requiring its own material instead of the shared one.
+     * @param lodRange the <code>range</code> of the <code>LOD</code> node
+     *      wrapping the cylinders, or <code>null</code> for no LOD. Ignored
+     *      for fading bonds.
+     * @return a Transform representing a bond. Its <code>scale</code> field
+     *      stretches the unit-height cylinders to the length of the bond.
      */
     Transform getBondTransform(Bond bond, Map<String, X3DNode> defs,
-            Display display, AtomsAndBonds aab) {
+            Display display, AtomsAndBonds aab, boolean fading,
+            String lodRange) {
+        final X3DNode x3dBond;
+        final String groupDef = getBondGroupDef(bond, display);
+        if (fading){
+            x3dBond = getGroup(bond, defs, display, true, 0);
+        } else if (defs.containsKey(groupDef)){
+            x3dBond = x3dOf.createGroup().withUSE(defs.get(groupDef));
+        } else {
+            x3dBond = getBondGroup(bond, defs, display, lodRange);
+        }
+        return getBondTransform(bond, x3dBond, aab);
+    }
+
+    /**
+     * Builds the Group of cylinders shared by every bond of the same type.
+     * @param bond the first bond of its type.
+     * @param defs a table of DEFs already defined. The DEF of the new Group
+     *      (and those of the nodes inside) will be added.
+     * @param display the type of display for chemical structures.
+     * @param lodRange the <code>range</code> of the <code>LOD</code> node
+     *      wrapping the cylinders, or <code>null</code> for no LOD.
+     * @return the DEF'd Group. With
+     *      {@link CTFile2X3DConfig#isAllDisplays() all displays}, it contains
+     *      a Switch with the cylinders for every display.
+     */
+    private Group getBondGroup(Bond bond, Map<String, X3DNode> defs,
+            Display display, String lodRange) {
+        final String groupDef = getBondGroupDef(bond, display);
+        final Group group;
+        if (conf.isAllDisplays()){
+            Switch sw = getDisplaySwitch(display);
+            for (Display d : Display.values()) {
+                sw.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                        getSingleBondGroup(bond, defs, d, lodRange));
+            }
+            group = x3dOf.createGroup()
+                    .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                            sw);
+        } else {
+            group = getSingleBondGroup(bond, defs, display, lodRange);
+        }
+        group.setDEF(groupDef);
+        defs.put(groupDef, group);
+        return group;
+    }
+
+    private Group getSingleBondGroup(Bond bond, Map<String, X3DNode> defs,
+            Display display, String lodRange) {
+        return lodRange != null?
+                getBondLod(bond, defs, display, lodRange)
+                : getGroup(bond, defs, display, false, 0);
+    }
+
+    private String getBondGroupDef(Bond bond, Display display) {
+        return BOND + bond.getType() + "_"
+                + (conf.isAllDisplays()? ALL_DISPLAYS : display.name());
+    }
+
+    /**
+     * Builds a Switch to choose among the renderings of an element or bond
+     * type for every display.
+     * @param display the display chosen initially.
+     * @return a Switch for children in the order of {@link Display}.
+     */
+    private Switch getDisplaySwitch(Display display) {
+        return x3dOf.createSwitch()
+                .withClazz(CssClass.DisplaySwitch.name())
+                .withWhichChoice(BigInteger.valueOf(display.ordinal()));
+    }
+
+    /**
+     * Calculates the <code>scale</code> field of the Transform around a bond,
+     * which stretches the cylinders of unit height to the length of the
+     * bond.
+     * @param bond the bond.
+     * @param aab the object containing the atoms linked by the bond.
+     * @return the scale of the bond.
+     */
+    private static String getScale(Bond bond, AtomsAndBonds aab){
+        return "1 " + new Vector(
+                aab.getAtoms().get(bond.getFromAtom()).getCoordinates(),
+                aab.getAtoms().get(bond.getToAtom()).getCoordinates())
+                .getMagnitude() + " 1";
+    }
+
+    /**
+     * Builds a Transform around a bond.
+     * @param bond the bond to render.
+     * @param x3dBond the group of cylinders to place, or a USE of it, or
+     *      <code>null</code> for an empty Transform.
+     * @param aab the object containing the atoms linked by this bond.
+     * @return a Transform representing a bond.
+     */
+    private Transform getBondTransform(Bond bond, X3DNode x3dBond,
+            AtomsAndBonds aab) {
         // one end of the bond:
         Point fromP = aab.getAtoms().get(bond.getFromAtom()).getCoordinates();
         // the other end of the bond:
         Point toP = aab.getAtoms().get(bond.getToAtom()).getCoordinates();
         // central point of the bond:
         Point middle = Point.getMiddle(fromP, toP);
-        Vector bondVector = new Vector(
-                toP.getX() - fromP.getX(),
-                toP.getY() - fromP.getY(),
-                toP.getZ() - fromP.getZ());
-        double bondLength = bondVector.getMagnitude();
-        final Serializable x3dBond = getGroup(bond, defs, bondLength, display);
         Transform tr = x3dOf.createTransform()
             .withDEF(bond.getFullLabel())
             .withTranslation(middle.toString())
-            .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(x3dBond);
-        tr.setRotation(getRotation(fromP, toP));
+            .withScale(getScale(bond, aab));
+        if (x3dBond != null){
+            tr.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    x3dBond);
+        }
+        tr.setRotation(getRotation(fromP, toP).toString());
         return tr;
     }
 
@@ -175,89 +425,1142 @@ public class X3DGenerator {
      * X3D Scene.
      * @param aab the object encapsulating atoms and bonds.
      * @param display the type of display for chemical structures.
+     * @param fading the full labels of the bonds which will be faded in or
+     *      out by an animation.
      * @return a list of X3D objects along with the map of DEFs used.
      */
-    private NodesAndDefs getNodesAndDefs(AtomsAndBonds aab, Display display) {
+    private NodesAndDefs getNodesAndDefs(AtomsAndBonds aab, Display display,
+            Set<String> fading) {
+        final int threshold = conf.getParallelThreshold();
+        if (fading.isEmpty() && threshold > 0
+                && aab.getAtoms().size() >= threshold){
+            return getParallelNodesAndDefs(aab, display);
+        }
         List<Serializable> ser = new ArrayList<>();
         // Table of existing DEFs:
         Map<String, X3DNode> defs = new HashMap<>();
+        final String lodRange = getLodRange(aab);
         int atomNum = 0;
         for (Map.Entry<Integer, Atom> entry : aab.getAtoms().entrySet()) {
-            final Atom atom = entry.getValue();
-            Transform tr = getAtomTransform(atom, defs, display, ++atomNum);
-            String def = AAM + (atom.getAam() > 0 ? atom.getAam() : atomNum);
-            tr.setDEF(def);
-            defs.put(def, tr);
-            ser.add(tr);
+            ser.add(getAtomNode(entry.getValue(), defs, display, ++atomNum,
+                    lodRange));
         }
         for (Map.Entry<String, Bond> entry : aab.getBonds().entrySet()) {
             final Bond bond = entry.getValue();
-            Transform tr = getBondTransform(bond, defs, display, aab);
-            final String bondDef = bond.getFullLabel();
-            tr.setDEF(bondDef);
-            defs.put(bondDef, tr);
-            ser.add(tr);
+            ser.add(getBondNode(bond, defs, display, aab,
+                    fading.contains(bond.getFullLabel()), lodRange));
         }
-        ser.add(x3dOf.createViewpoint()
-                .withPosition(aab.getMiddle().getX() + " "
-                        + aab.getMiddle().getY() + " 10") // FIXME
-                .withDescription(aab.getName()));
+        ser.add(getViewpoint(aab));
         // TODO: add SphereSensor?
         NodesAndDefs nodesAndDefs = new NodesAndDefs(ser, defs);
         return nodesAndDefs;
     }
+
+    /**
+     * Renders atoms and bonds like
+     * {@link #getNodesAndDefs(AtomsAndBonds, Display, Set) getNodesAndDefs},
+     * but in parallel. The result is exactly the same.
+     * <br>
+     * The nodes shared by several atoms or bonds are built first, in input
+     * order, so that the first atom or bond needing one gets its DEF. Then
+     * ranges of atoms and bonds are rendered by fork-join tasks which only
+     * read those shared nodes. Finally, the DEFs of every atom and bond are
+     * registered, again in input order.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @return a list of X3D objects along with the map of DEFs used.
+     */
+    private NodesAndDefs getParallelNodesAndDefs(final AtomsAndBonds aab,
+            final Display display) {
+        final Map<String, X3DNode> defs = new HashMap<>();
+        final String lodRange = getLodRange(aab);
+        final Atom[] atoms = aab.getAtoms().values().toArray(new Atom[0]);
+        final Bond[] bonds = aab.getBonds().values().toArray(new Bond[0]);
+        final boolean[] owners = getSharedNodes(atoms, bonds, defs, display,
+                lodRange);
+        final Serializable[] nodes = new Serializable[owners.length];
+        WorkerPool.get().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                render(0, nodes.length);
+            }
+
+            private void render(final int from, final int to) {
+                if (to - from > PARALLEL_CHUNK){
+                    final int middle = (from + to) >>> 1;
+                    invokeAll(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            render(from, middle);
+                        }
+                    }, new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            render(middle, to);
+                        }
+                    });
+                    return;
+                }
+                for (int i = from; i < to; i++) {
+                    nodes[i] = getSharedNode(i, atoms, bonds, owners, defs,
+                            display, aab);
+                }
+            }
+        });
+        List<Serializable> ser = new ArrayList<>(nodes.length + 1);
+        for (Serializable node : nodes) {
+            defs.put(((Transform) node).getDEF(), (Transform) node);
+            ser.add(node);
+        }
+        ser.add(getViewpoint(aab));
+        return new NodesAndDefs(ser, defs);
+    }
+
+    /**
+     * Builds the nodes shared by several atoms or bonds, in input order, so
+     * that the first atom or bond needing one gets its DEF.
+     * @param atoms the atoms.
+     * @param bonds the bonds.
+     * @param defs a table of DEFs already defined. The DEFs of the new
+     *      shared nodes will be added.
+     * @param display the type of display for chemical structures.
+     * @param lodRange the <code>range</code> of LOD nodes, or
+     *      <code>null</code> for no LOD.
+     * @return which atoms and bonds (after the atoms) own the DEF of a
+     *      shared node.
+     */
+    private boolean[] getSharedNodes(Atom[] atoms, Bond[] bonds,
+            Map<String, X3DNode> defs, Display display, String lodRange) {
+        final boolean[] owners = new boolean[atoms.length + bonds.length];
+        Set<String> invisible = new HashSet<>();
+        for (int i = 0; i < atoms.length; i++) {
+            final String symbol = atoms[i].getSymbol();
+            if (!defs.containsKey(symbol) && !invisible.contains(symbol)){
+                Group group = getAtomGroup(atoms[i], display, lodRange);
+                if (group == null){
+                    invisible.add(symbol);
+                } else {
+                    defs.put(symbol, group);
+                    owners[i] = true;
+                }
+            }
+        }
+        for (int i = 0; i < bonds.length; i++) {
+            if (!defs.containsKey(getBondGroupDef(bonds[i], display))){
+                getBondGroup(bonds[i], defs, display, lodRange);
+                owners[atoms.length + i] = true;
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Builds the Transform for one atom or bond from the shared nodes built
+     * by {@link #getSharedNodes(Atom[], Bond[], Map, Display, String)
+     * getSharedNodes}. It only reads the shared nodes, so it can be called
+     * from several threads.
+     * @param i the index of the atom, or of the bond after the atoms.
+     * @param atoms the atoms.
+     * @param bonds the bonds.
+     * @param owners which atoms and bonds own the DEF of a shared node.
+     * @param defs the shared nodes, which will not be modified.
+     * @param display the type of display for chemical structures.
+     * @param aab the object containing the atoms.
+     * @return a Transform representing an atom or a bond.
+     */
+    private Transform getSharedNode(int i, Atom[] atoms, Bond[] bonds,
+            boolean[] owners, Map<String, X3DNode> defs, Display display,
+            AtomsAndBonds aab) {
+        if (i < atoms.length){
+            return getSharedAtomTransform(atoms[i], i + 1, defs, owners[i]);
+        }
+        final Bond bond = bonds[i - atoms.length];
+        final X3DNode group = defs.get(getBondGroupDef(bond, display));
+        return getBondTransform(bond, owners[i]?
+                group : x3dOf.createGroup().withUSE(group), aab);
+    }
+
+    /**
+     * Renders atoms and bonds as instances of the prototypes of an
+     * {@link ProtoLibrary external library}, which are declared first. Atoms
+     * of unsupported elements and bonds of unknown types are still rendered
+     * as usual.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @return a list of X3D objects along with the map of DEFs used. Only the
+     *      nodes not rendered as prototype instances are in the map.
+     */
+    private NodesAndDefs getProtoNodesAndDefs(AtomsAndBonds aab,
+            Display display) {
+        List<Serializable> declarations = new ArrayList<>();
+        List<Serializable> instances = new ArrayList<>();
+        Map<String, X3DNode> defs = new HashMap<>();
+        Set<String> declared = new HashSet<>();
+        final String url = getProtoLibrary().getUrl(display);
+        int atomNum = 0;
+        for (Atom atom : aab.getAtoms().values()) {
+            atomNum++;
+            final Element elem = Element.forSymbol(atom.getSymbol());
+            if (elem == Element.OTHER){
+                instances.add(getAtomNode(atom, defs, display, atomNum, null));
+                continue;
+            }
+            final String name = ATOM_PROTO + elem.name();
+            if (declared.add(name)){
+                declarations.add(getExternProtoDeclare(name, url,
+                        TRANSLATION));
+            }
+            instances.add(x3dOf.createProtoInstance().withName(name)
+                    .withDEF(getAtomDef(atom, atomNum))
+                    .withFieldValue(x3dOf.createFieldValue()
+                            .withName(TRANSLATION)
+                            .withValue(atom.getCoordinates().toString())));
+        }
+        for (Bond bond : aab.getBonds().values()) {
+            if (style.getBondOffsets(bond.getType()).length == 0){
+                instances.add(getBondNode(bond, defs, display, aab, false,
+                        null));
+                continue;
+            }
+            final String name = BOND_PROTO + bond.getType();
+            if (declared.add(name)){
+                declarations.add(getExternProtoDeclare(name, url,
+                        TRANSLATION, ROTATION, SCALE));
+            }
+            final Transform tr = getBondTransform(bond, null, aab);
+            instances.add(x3dOf.createProtoInstance().withName(name)
+                    .withDEF(bond.getFullLabel())
+                    .withFieldValue(
+                        x3dOf.createFieldValue().withName(TRANSLATION)
+                            .withValue(tr.getTranslation()),
+                        x3dOf.createFieldValue().withName(ROTATION)
+                            .withValue(tr.getRotation()),
+                        x3dOf.createFieldValue().withName(SCALE)
+                            .withValue(tr.getScale())));
+        }
+        List<Serializable> ser = new ArrayList<>(declarations);
+        ser.addAll(instances);
+        ser.add(getViewpoint(aab));
+        return new NodesAndDefs(ser, defs);
+    }
+
+    /**
+     * Declares a prototype of the external library.
+     * @param name the name of the prototype.
+     * @param url the URL of the library.
+     * @param fields the names of the fields of the prototype.
+     * @return the declaration.
+     */
+    private ExternProtoDeclare getExternProtoDeclare(String name, String url,
+            String... fields) {
+        ExternProtoDeclare epd = x3dOf.createExternProtoDeclare()
+                .withName(name)
+                .withUrl("\"" + url + "#" + name + "\"");
+        for (String field : fields) {
+            epd.withField(getProtoField(field).withValue(null));
+        }
+        return epd;
+    }
+
+    /**
+     * Builds the declaration of one field of the prototypes.
+     * @param name {@link #TRANSLATION}, {@link #ROTATION} or {@link #SCALE}.
+     * @return the declaration of the field with its default value.
+     */
+    private Field getProtoField(String name) {
+        Field field = x3dOf.createField().withName(name)
+                .withAccessType(AccessTypeNames.INPUT_OUTPUT);
+        switch (name) {
+            case ROTATION:
+                return field.withType(FieldTypeName.SF_ROTATION)
+                        .withValue("0 0 1 0");
+            case SCALE:
+                return field.withType(FieldTypeName.SF_VEC_3_F)
+                        .withValue("1 1 1");
+            default:
+                return field.withType(FieldTypeName.SF_VEC_3_F)
+                        .withValue("0 0 0");
+        }
+    }
+
+    /**
+     * Builds the prototype library used with
+     * {@link ctfile2x3d.GeometryMode#PROTOS prototypes}: one
+     * <code>ProtoDeclare</code> for every supported element
+     * (<code>Atom_</code> + symbol, with a <code>translation</code> field)
+     * and for every bond type (<code>Bond_</code> + type, with
+     * <code>translation</code>, <code>rotation</code> and <code>scale</code>
+     * fields).
+     * @param display the type of display for chemical structures.
+     * @return an X3D with the prototype declarations.
+     */
+    public X3D toProtoLibrary(Display display) {
+        List<Serializable> protos = new ArrayList<>();
+        for (Element elem : Element.values()) {
+            if (elem == Element.OTHER){
+                continue;
+            }
+            Transform tr = x3dOf.createTransform()
+                    .withIS(getProtoIS(TRANSLATION));
+            Group group = getGroup(new Atom(0, 0, 0, elem.name(), 0),
+                    display);
+            if (group != null){
+                tr.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                        group);
+            }
+            protos.add(getProtoDeclare(ATOM_PROTO + elem.name(), tr,
+                    TRANSLATION));
+        }
+        for (int type = 1; type <= 4; type++) {
+            Transform tr = x3dOf.createTransform()
+                .withIS(getProtoIS(TRANSLATION, ROTATION, SCALE))
+                .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    getGroup(new Bond(1, 2, type),
+                            new HashMap<String, X3DNode>(), display, false,
+                            0));
+            protos.add(getProtoDeclare(BOND_PROTO + type, tr,
+                    TRANSLATION, ROTATION, SCALE));
+        }
+        return x3dOf.createX3D().withScene(x3dOf.createScene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(protos));
+    }
+
+    private ProtoDeclare getProtoDeclare(String name, Transform body,
+            String... fields) {
+        ProtoInterface pi = x3dOf.createProtoInterface();
+        for (String field : fields) {
+            pi.withField(getProtoField(field));
+        }
+        return x3dOf.createProtoDeclare().withName(name)
+                .withProtoInterface(pi)
+                .withProtoBody(x3dOf.createProtoBody()
+                        .withSceneGraphFragmentWithPrototypeDeclarationsContentModel(
+                                body));
+    }
+
+    private IS getProtoIS(String... fields) {
+        IS is = x3dOf.createIS();
+        for (String field : fields) {
+            is.withConnect(x3dOf.createConnect()
+                    .withNodeField(field).withProtoField(field));
+        }
+        return is;
+    }
+
+    /**
+     * Builds the Transform for one atom from the shared atom groups.
+     * @param atom the atom to render.
+     * @param atomNum the atom number. Only used if the atom does not contain
+     *      information about its mapping.
+     * @param defs the shared nodes, which will not be modified.
+     * @param owner whether this atom owns the DEF of its atom group.
+     * @return a Transform representing an atom.
+     */
+    private Transform getSharedAtomTransform(Atom atom, int atomNum,
+            Map<String, X3DNode> defs, boolean owner) {
+        final X3DNode group = defs.get(atom.getSymbol());
+        Transform tr = getAtomTransform(atom, group == null || owner?
+                group : x3dOf.createGroup().withUSE(group));
+        tr.setDEF(getAtomDef(atom, atomNum));
+        return tr;
+    }
+
+    /**
+     * Builds the Transform for one atom, DEF'd with its mapping number.
+     * @param atom the atom to render.
+     * @param defs a table of DEFs already defined. The DEF of the new
+     *      Transform will be added.
+     * @param display the type of display for chemical structures.
+     * @param atomNum the atom number. Only used if the atom does not contain
+     *      information about its mapping.
+     * @param lodRange the <code>range</code> of LOD nodes, or
+     *      <code>null</code> for no LOD.
+     * @return a Transform representing an atom.
+     */
+    private Transform getAtomNode(Atom atom, Map<String, X3DNode> defs,
+            Display display, int atomNum, String lodRange) {
+        Transform tr = getAtomTransform(atom, defs, display, atomNum,
+                lodRange);
+        String def = getAtomDef(atom, atomNum);
+        tr.setDEF(def);
+        defs.put(def, tr);
+        return tr;
+    }
+
+    /**
+     * Gets the DEF of the Transform for one atom.
+     * @param atom the atom.
+     * @param atomNum the atom number. Only used if the atom does not contain
+     *      information about its mapping.
+     * @return the mapping number (or atom number) with the
+     *      <code>AAM</code> prefix.
+     */
+    private static String getAtomDef(Atom atom, int atomNum) {
+        return AAM + (atom.getAam() > 0 ? atom.getAam() : atomNum);
+    }
+
+    /**
+     * Builds the Transform for one bond, DEF'd with its full label.
+     * @param bond the bond to render.
+     * @param defs a table of DEFs already defined. The DEF of the new
+     *      Transform will be added.
+     * @param display the type of display for chemical structures.
+     * @param aab the object containing the atoms linked by this bond.
+     * @param fading whether the bond will be faded in or out by an animation.
+     * @param lodRange the <code>range</code> of LOD nodes, or
+     *      <code>null</code> for no LOD.
+     * @return a Transform representing a bond.
+     */
+    private Transform getBondNode(Bond bond, Map<String, X3DNode> defs,
+            Display display, AtomsAndBonds aab, boolean fading,
+            String lodRange) {
+        final String bondDef = bond.getFullLabel();
+        Transform tr = getBondTransform(bond, defs, display, aab, fading,
+                lodRange);
+        tr.setDEF(bondDef);
+        defs.put(bondDef, tr);
+        return tr;
+    }
+
+    /**
+     * Renders atoms and bonds like
+     * {@link #getNodesAndDefs(AtomsAndBonds, Display, Set) getNodesAndDefs},
+     * but sorted along a Morton curve and grouped into a hierarchy of nested
+     * Groups whose <code>bboxCenter</code> and <code>bboxSize</code> let the
+     * browser cull or pick whole branches at once.
+     * <br>
+     * Nodes are generated in their final order, so that every DEF still comes
+     * before its USEs.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @return a list of X3D objects along with the map of DEFs used.
+     */
+    private NodesAndDefs getSpatialNodesAndDefs(AtomsAndBonds aab,
+            Display display) {
+        Map<String, X3DNode> defs = new HashMap<>();
+        final String lodRange = getLodRange(aab);
+        BoundingBox all = new BoundingBox();
+        for (Atom atom : aab.getAtoms().values()) {
+            all.add(atom.getCoordinates(), 0);
+        }
+        List<SpatialItem> items = new ArrayList<>();
+        int atomNum = 0;
+        for (Atom atom : aab.getAtoms().values()) {
+            items.add(new SpatialItem(atom, ++atomNum,
+                    all.getMortonCode(atom.getCoordinates())));
+        }
+        for (Bond bond : aab.getBonds().values()) {
+            items.add(new SpatialItem(bond, 0, all.getMortonCode(
+                    Point.getMiddle(getCoordinates(aab, bond.getFromAtom()),
+                            getCoordinates(aab, bond.getToAtom())))));
+        }
+        Collections.sort(items);
+        final double bondExtent =
+                conf.getBondDistance() + style.getBondRadius(display);
+        for (SpatialItem item : items) {
+            if (item.source instanceof Atom){
+                final Atom atom = (Atom) item.source;
+                item.node = getAtomNode(atom, defs, display, item.atomNum,
+                        lodRange);
+                item.box.add(atom.getCoordinates(),
+                        getAtomExtent(atom, display));
+            } else {
+                final Bond bond = (Bond) item.source;
+                item.node = getBondNode(bond, defs, display, aab, false,
+                        lodRange);
+                item.box.add(getCoordinates(aab, bond.getFromAtom()),
+                        bondExtent)
+                    .add(getCoordinates(aab, bond.getToAtom()), bondExtent);
+            }
+        }
+        List<Serializable> ser = new ArrayList<>();
+        if (!items.isEmpty()){
+            ser.add(getBvhGroup(items, 0, items.size(),
+                    Math.max(conf.getBvhLeafSize(), 2)));
+        }
+        ser.add(getViewpoint(aab));
+        return new NodesAndDefs(ser, defs);
+    }
+
+    /**
+     * Builds one node of the bounding volume hierarchy.
+     * @param items the atoms and bonds, already sorted and rendered.
+     * @param from the first item in this node (inclusive).
+     * @param to the last item in this node (exclusive).
+     * @param leafSize the maximum number of items in a leaf node.
+     * @return a Group with either the rendered items or two nested Groups
+     *      splitting them in halves.
+     */
+    private Group getBvhGroup(List<SpatialItem> items, int from, int to,
+            int leafSize) {
+        Group group = x3dOf.createGroup();
+        BoundingBox box = new BoundingBox();
+        for (int i = from; i < to; i++) {
+            box.add(items.get(i).box);
+        }
+        if (to - from <= leafSize){
+            for (int i = from; i < to; i++) {
+                group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                        items.get(i).node);
+            }
+        } else {
+            final int middle = (from + to) >>> 1;
+            group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    getBvhGroup(items, from, middle, leafSize),
+                    getBvhGroup(items, middle, to, leafSize));
+        }
+        return group.withBboxCenter(box.getCentre().toString())
+                .withBboxSize(box.getSize().toString());
+    }
+
+    /**
+     * Calculates how far the rendering of an atom reaches from its centre,
+     * including its label.
+     * @param atom the atom.
+     * @param display the type of display for chemical structures.
+     * @return the radius of a sphere enclosing the ball and the label.
+     */
+    private double getAtomExtent(Atom atom, Display display) {
+        final Element elem = Element.forSymbol(atom.getSymbol());
+        return Math.max(
+                elem.getAtomRadiusEmpirical() * style.getAtomScale(display),
+                0.45 + conf.getAtomSymbolSize());
+    }
+
+    private static Point getCoordinates(AtomsAndBonds aab, int atom) {
+        return aab.getAtoms().get(atom).getCoordinates();
+    }
+
+    /**
+     * Builds a viewpoint in front of the atoms and bonds.
+     * @param aab the object encapsulating atoms and bonds.
+     * @return a viewpoint.
+     */
+    private Viewpoint getViewpoint(AtomsAndBonds aab) {
+        return x3dOf.createViewpoint()
+                .withPosition(aab.getMiddle().getX() + " "
+                        + aab.getMiddle().getY() + " 10") // FIXME
+                .withDescription(aab.getName());
+    }
+
+    /**
+     * Renders atoms and bonds as merged meshes: one
+     * <code>IndexedTriangleSet</code> per element and one per bond type.
+     * Only atom labels, if visible, are still rendered per atom.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param binary whether meshes are written as {@link BinaryGeometry}
+     *      nodes.
+     * @return a list of X3D objects along with the map of DEFs used.
+     */
+    private NodesAndDefs getMergedNodesAndDefs(AtomsAndBonds aab,
+            Display display, boolean binary) {
+        List<Serializable> ser = new ArrayList<>();
+        Map<String, X3DNode> defs = new HashMap<>();
+        final int resolution = conf.getMeshResolution();
+        final float atomTransparency = style.getAtomTransparency(display);
+        for (Map.Entry<Element, Mesh> entry : meshBuilder
+                .getAtomMeshes(aab, display, resolution).entrySet()) {
+            ser.add(x3dOf.createShape().withRest(
+                    x3dOf.createAppearance()
+                        .withAppearanceChildContentModel(
+                            x3dOf.createMaterial()
+                                .withClazz(CssClass.AtomSphereMaterial.name())
+                                .withDiffuseColor(
+                                        entry.getKey().getSphereColor())
+                                .withTransparency(atomTransparency)),
+                    getTriangleSet(entry.getValue(), binary)));
+        }
+        if (style.isVisible(style.getLabelTransparency(display))){
+            for (Atom atom : aab.getAtoms().values()) {
+                final X3DNode label;
+                if (defs.containsKey(atom.getSymbol())){
+                    label = x3dOf.createGroup()
+                            .withUSE(defs.get(atom.getSymbol()));
+                } else {
+                    label = x3dOf.createGroup().withDEF(atom.getSymbol())
+                        .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                            getAtomLabel(Element.forSymbol(atom.getSymbol()),
+                                    atom, display));
+                    defs.put(atom.getSymbol(), label);
+                }
+                ser.add(x3dOf.createTransform()
+                        .withTranslation(atom.getCoordinates().toString())
+                        .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                                label));
+            }
+        }
+        for (Map.Entry<Integer, Mesh> entry : meshBuilder
+                .getBondMeshes(aab, display, resolution).entrySet()) {
+            final int type = entry.getKey();
+            final Material material = x3dOf.createMaterial()
+                    .withDEF(MAT_BOND + type)
+                    .withClazz(CssClass.BondMaterial.name(),
+                            CssClass.BondType.name() + type)
+                    .withDiffuseColor(conf.getBondColor(type));
+            defs.put(MAT_BOND + type, material);
+            ser.add(x3dOf.createShape().withRest(
+                    x3dOf.createAppearance()
+                        .withAppearanceChildContentModel(material),
+                    getTriangleSet(entry.getValue(), binary)));
+        }
+        ser.add(getViewpoint(aab));
+        return new NodesAndDefs(ser, defs);
+    }
+
+    /**
+     * Renders atoms and bonds as in {@link GeometryMode#LINES} or
+     * {@link GeometryMode#POINTS}: every atom is a point of one
+     * <code>Coordinate</code> node, colored with its element, and the bonds
+     * are one <code>IndexedLineSet</code> between them with the colors of
+     * their atoms. Atoms are one <code>PointSet</code>, if visible. Labels
+     * are left out.
+     * @param aab the object encapsulating atoms and bonds.
+     * @param display the type of display for chemical structures.
+     * @param points whether only the atoms are rendered, always visible, and
+     *      not the bonds.
+     * @return a list of X3D objects along with the map of DEFs used.
+     */
+    private NodesAndDefs getPointNodesAndDefs(AtomsAndBonds aab,
+            Display display, boolean points) {
+        List<Serializable> ser = new ArrayList<>();
+        Map<String, X3DNode> defs = new HashMap<>();
+        Map<Integer, Integer> indices = new HashMap<>();
+        StringBuilder coords = new StringBuilder(aab.getAtoms().size() * 24);
+        StringBuilder colors = new StringBuilder(aab.getAtoms().size() * 12);
+        for (Map.Entry<Integer, Atom> entry : aab.getAtoms().entrySet()) {
+            final String sep = indices.isEmpty()? "" : " ";
+            indices.put(entry.getKey(), indices.size());
+            coords.append(sep).append(entry.getValue().getCoordinates());
+            colors.append(sep).append(Element.forSymbol(
+                    entry.getValue().getSymbol()).getSphereColor());
+        }
+        if (!indices.isEmpty()){
+            final Coordinate coord = x3dOf.createCoordinate()
+                    .withDEF(ATOM_COORDS).withPoint(coords.toString());
+            final Color color = x3dOf.createColor()
+                    .withDEF(ATOM_COLORS).withColor(colors.toString());
+            StringBuilder coordIndex = new StringBuilder();
+            if (!points){
+                for (Bond bond : aab.getBonds().values()) {
+                    final Integer p1 = indices.get(bond.getFromAtom());
+                    final Integer p2 = indices.get(bond.getToAtom());
+                    if (p1 != null && p2 != null){
+                        coordIndex.append(coordIndex.length() == 0? "" : " ")
+                                .append(p1).append(' ').append(p2)
+                                .append(" -1");
+                    }
+                }
+            }
+            if (coordIndex.length() > 0){
+                defs.put(ATOM_COORDS, coord);
+                defs.put(ATOM_COLORS, color);
+                ser.add(x3dOf.createShape().withRest(
+                        x3dOf.createAppearance()
+                            .withAppearanceChildContentModel(
+                                x3dOf.createMaterial()
+                                    .withClazz(CssClass.BondMaterial.name())),
+                        x3dOf.createIndexedLineSet()
+                            .withColorPerVertex(true)
+                            .withCoordIndex(coordIndex.toString())
+                            .withRest(color, coord)));
+            }
+            final float transparency = points? 0
+                    : style.getAtomTransparency(display);
+            if (style.isVisible(transparency) || conf.isDisplaySwitchable()){
+                final Material material = x3dOf.createMaterial()
+                        .withTransparency(transparency);
+                if (!points){
+                    material.withClazz(CssClass.AtomSphereMaterial.name());
+                }
+                ser.add(x3dOf.createShape().withRest(
+                        x3dOf.createAppearance()
+                            .withAppearanceChildContentModel(material),
+                        x3dOf.createPointSet().withRest(
+                            defs.containsKey(ATOM_COLORS)?
+                                x3dOf.createColor().withUSE(color) : color,
+                            defs.containsKey(ATOM_COORDS)?
+                                x3dOf.createCoordinate().withUSE(coord)
+                                : coord)));
+            }
+        }
+        ser.add(getViewpoint(aab));
+        return new NodesAndDefs(ser, defs);
+    }
+
+    /**
+     * Builds an X3D triangle set from a mesh.
+     * @param mesh the mesh.
+     * @param binary whether to build a {@link BinaryGeometry} node.
+     * @return an indexed triangle set with coordinates and normals per
+     *      vertex.
+     */
+    private IndexedTriangleSet getTriangleSet(Mesh mesh, boolean binary) {
+        if (binary){
+            return getBinaryGeometry(mesh);
+        }
+        return x3dOf.createIndexedTriangleSet()
+                .withSolid(true)
+                .withNormalPerVertex(true)
+                .withIndex(toMF(mesh.getIndices()))
+                .withComposedGeometryContentModel(
+                        x3dOf.createCoordinate()
+                                .withPoint(toMF(mesh.getCoordinates())),
+                        x3dOf.createNormal()
+                                .withVector(toMF(mesh.getNormals())));
+    }
+
+    /**
+     * Builds an X3DOM binary geometry from a mesh. Its coordinates, normals
+     * and indices are put into the {@link #getBufferStore() buffer store}
+     * and referenced through the
+     * {@link CTFile2X3DConfig#getBinaryUrlPattern() binary URL pattern}.
+     * @param mesh the mesh.
+     * @return a binary geometry with coordinates and normals per vertex.
+     */
+    private BinaryGeometry getBinaryGeometry(Mesh mesh) {
+        final float[] coords = mesh.getCoordinates();
+        final int[] indices = mesh.getIndices();
+        final boolean uint16 = mesh.getVertexCount() <= 0x10000;
+        final float[] min = { Float.MAX_VALUE, Float.MAX_VALUE,
+            Float.MAX_VALUE };
+        final float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE,
+            -Float.MAX_VALUE };
+        for (int i = 0; i < coords.length; i++) {
+            min[i % 3] = Math.min(min[i % 3], coords[i]);
+            max[i % 3] = Math.max(max[i % 3], coords[i]);
+        }
+        BinaryGeometry bg = new BinaryGeometry()
+                .withCoord(getBufferUrl(BufferStore.toFloat32(coords)))
+                .withNormal(getBufferUrl(
+                        BufferStore.toFloat32(mesh.getNormals())))
+                .withVertexCount(String.valueOf(indices.length))
+                .withPrimType("\"TRIANGLES\"")
+                .withPosition((min[0] + max[0]) / 2 + " "
+                        + (min[1] + max[1]) / 2 + " " + (min[2] + max[2]) / 2)
+                .withSize((max[0] - min[0]) + " " + (max[1] - min[1]) + " "
+                        + (max[2] - min[2]))
+                .withIndexType(uint16? "Uint16" : "Uint32")
+                .withCoordType("Float32")
+                .withNormalType("Float32");
+        bg.withIndex(getBufferUrl(uint16?
+                BufferStore.toUint16(indices) : BufferStore.toUint32(indices)));
+        bg.withSolid(true);
+        return bg;
+    }
+
+    /**
+     * Stores a binary buffer.
+     * @param data the content of the buffer.
+     * @return the URL to get the buffer from.
+     */
+    private String getBufferUrl(byte[] data) {
+        return MessageFormat.format(conf.getBinaryUrlPattern(),
+                buffers.put(data));
+    }
+
+    /**
+     * Formats numbers as an X3D multiple-value field.
+     * @param values the values.
+     * @return the values separated by spaces.
+     */
+    static String toMF(float[] values) {
+        StringBuilder sb = new StringBuilder(values.length * 8);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats numbers as an X3D multiple-value field.
+     * @param values the values.
+     * @return the values separated by spaces.
+     */
+    static String toMF(int[] values) {
+        StringBuilder sb = new StringBuilder(values.length * 4);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
     
+    /**
+     * Gets the geometry mode used to render a structure.
+     * @param aab the object encapsulating atoms and bonds.
+     * @return {@link GeometryMode#POINTS} for structures with at least
+     *      {@link CTFile2X3DConfig#getPointThreshold() point.threshold}
+     *      atoms, the configured geometry mode otherwise.
+     */
+    public GeometryMode getGeometryMode(AtomsAndBonds aab) {
+        return conf.getPointThreshold() > 0
+                && aab.getAtoms().size() >= conf.getPointThreshold()?
+                GeometryMode.POINTS : conf.getGeometryMode();
+    }
+
     public X3D toX3D(AtomsAndBonds aab, Display display) {
+        final NodesAndDefs nad;
+        switch (getGeometryMode(aab)) {
+            case MERGED:
+                nad = getMergedNodesAndDefs(aab, display, false);
+                break;
+            case BINARY:
+                nad = getMergedNodesAndDefs(aab, display, true);
+                break;
+            case PROTOS:
+                nad = getProtoNodesAndDefs(aab, display);
+                break;
+            case LINES:
+                nad = getPointNodesAndDefs(aab, display, false);
+                break;
+            case POINTS:
+                nad = getPointNodesAndDefs(aab, display, true);
+                break;
+            default:
+                nad = conf.getBvhLeafSize() > 0?
+                        getSpatialNodesAndDefs(aab, display)
+                        : getNodesAndDefs(aab, display,
+                                Collections.<String>emptySet());
+        }
         X3D x3d = x3dOf.createX3D().withScene(x3dOf.createScene()
                 .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(
-                        getNodesAndDefs(aab, display).getNodes()));
+                        nad.getNodes()));
         return x3d;
     }
     
+    /**
+     * Renders several structures in one scene, laid out on a grid of square
+     * cells as wide as the biggest structure plus the
+     * {@link CTFile2X3DConfig#getMoleculeSpacing() molecule spacing}, row by
+     * row from the top left corner.
+     * <br>
+     * Every structure is a Transform DEF'd <code>MOL</code> followed by its
+     * number (starting at 1), whose atoms and bonds have the usual DEFs
+     * prefixed by the DEF of the structure and <code>_</code>. Element groups
+     * and bond groups are built once, in input order, DEF'd by the first
+     * atom or bond needing them and USE'd by the others, whatever their
+     * structure. Then the structures are rendered by fork-join tasks (unless
+     * {@link CTFile2X3DConfig#getParallelThreshold() parallel.threshold} is
+     * <code>0</code>), with exactly the same output.
+     * @param molecules the structures.
+     * @param display the type of display for chemical structures.
+     * @return an X3D representation of the structures, with an empty scene
+     *      if there are none.
+     */
+    public X3D toGallery(final List<AtomsAndBonds> molecules,
+            final Display display) {
+        final int size = molecules.size();
+        if (size == 0){
+            return x3dOf.createX3D().withScene(x3dOf.createScene());
+        }
+        final Map<String, X3DNode> defs = new HashMap<>();
+        final Atom[][] atoms = new Atom[size][];
+        final Bond[][] bonds = new Bond[size][];
+        final boolean[][] owners = new boolean[size][];
+        double cell = 0;
+        AtomsAndBonds biggest = null;
+        for (AtomsAndBonds aab : molecules) {
+            final double extent = Math.max(aab.getWidth(),
+                    aab.getMaxY() - aab.getMinY());
+            if (biggest == null || extent > cell){
+                biggest = aab;
+                cell = extent;
+            }
+        }
+        cell += conf.getMoleculeSpacing();
+        final String lodRange = getLodRange(biggest);
+        for (int m = 0; m < size; m++) {
+            final AtomsAndBonds aab = molecules.get(m);
+            atoms[m] = aab.getAtoms().values().toArray(new Atom[0]);
+            bonds[m] = aab.getBonds().values().toArray(new Bond[0]);
+            owners[m] = getSharedNodes(atoms[m], bonds[m], defs, display,
+                    lodRange);
+        }
+        final int columns = (int) Math.ceil(Math.sqrt(size));
+        final double cellSize = cell;
+        final Transform[] nodes = new Transform[size];
+        RecursiveAction gallery = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                render(0, size);
+            }
+
+            private void render(final int from, final int to) {
+                if (to - from > 1 && inForkJoinPool()){
+                    final int middle = (from + to) >>> 1;
+                    invokeAll(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            render(from, middle);
+                        }
+                    }, new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            render(middle, to);
+                        }
+                    });
+                    return;
+                }
+                for (int m = from; m < to; m++) {
+                    nodes[m] = getGalleryItem(m, molecules.get(m), atoms[m],
+                            bonds[m], owners[m], defs, display,
+                            new Point(cellSize * (m % columns),
+                                    -cellSize * (m / columns), 0));
+                }
+            }
+        };
+        if (conf.getParallelThreshold() > 0){
+            WorkerPool.get().invoke(gallery);
+        } else {
+            // computed by this thread, which is not in a pool, so not split:
+            gallery.invoke();
+        }
+        List<Serializable> ser = new ArrayList<>(size + 1);
+        ser.addAll(Arrays.asList(nodes));
+        final int rows = (size + columns - 1) / columns;
+        final double middleX = cell * (columns - 1) / 2;
+        final double middleY = -cell * (rows - 1) / 2;
+        ser.add(x3dOf.createViewpoint().withPosition(middleX + " " + middleY
+                + " " + (cell * Math.max(columns, rows) + 10)));
+        return x3dOf.createX3D().withScene(x3dOf.createScene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(ser));
+    }
+
+    /**
+     * Builds the Transform placing one structure of a gallery.
+     * @param m the index of the structure.
+     * @param aab the structure.
+     * @param atoms its atoms.
+     * @param bonds its bonds.
+     * @param owners which of its atoms and bonds own the DEF of a shared
+     *      node.
+     * @param defs the shared nodes, which will not be modified.
+     * @param display the type of display for chemical structures.
+     * @param center the center of its cell.
+     * @return a Transform with the atoms and bonds of the structure.
+     */
+    private Transform getGalleryItem(int m, AtomsAndBonds aab, Atom[] atoms,
+            Bond[] bonds, boolean[] owners, Map<String, X3DNode> defs,
+            Display display, Point center) {
+        final String prefix = MOL + (m + 1);
+        final Point middle = aab.getMiddle();
+        Transform tr = x3dOf.createTransform().withDEF(prefix)
+                .withTranslation(new Point(center.getX() - middle.getX(),
+                        center.getY() - middle.getY(),
+                        center.getZ() - middle.getZ()).toString());
+        for (int i = 0; i < owners.length; i++) {
+            Transform node = getSharedNode(i, atoms, bonds, owners, defs,
+                    display, aab);
+            node.setDEF(prefix + "_" + node.getDEF());
+            tr.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(node);
+        }
+        return tr;
+    }
+
+    /**
+     * Renders the root scene of a structure split into tiles: the outlines
+     * of the bounding boxes of the tiles, as a placeholder, and one
+     * <code>Inline</code> node per tile, with the same bounding box, loading
+     * the tile from the {@link CTFile2X3DConfig#getTileUrlPattern() tile URL
+     * pattern}. Its size only depends on the number of tiles.
+     * @param model the structure split into tiles.
+     * @param id the identifier of the structure in the tile URLs.
+     * @param display the type of display for chemical structures.
+     * @return the X3D of the root scene.
+     */
+    public X3D toTiledRoot(TiledModel model, String id, Display display) {
+        List<Serializable> ser = new ArrayList<>();
+        StringBuilder points = new StringBuilder();
+        StringBuilder coordIndex = new StringBuilder();
+        for (int tile = 0; tile < model.getTileCount(); tile++) {
+            final BoundingBox box = getTileBox(model, tile, display);
+            ser.add(x3dOf.createInline().withDEF(TILE + tile)
+                    .withUrl("\"" + MessageFormat.format(
+                            conf.getTileUrlPattern(), id,
+                            String.valueOf(tile), display.name()) + "\"")
+                    .withBboxCenter(box.getCentre().toString())
+                    .withBboxSize(box.getSize().toString()));
+            final Point c = box.getCentre();
+            final Vector s = box.getSize();
+            for (int corner = 0; corner < 8; corner++) {
+                // counterclockwise around the bottom face, then the top one:
+                final int x = (corner & 1) ^ ((corner >> 1) & 1);
+                final int y = (corner >> 1) & 1;
+                final int z = corner >> 2;
+                points.append(points.length() > 0? " " : "")
+                        .append(new Point(c.getX() + (x - 0.5) * s.getX(),
+                                c.getY() + (y - 0.5) * s.getY(),
+                                c.getZ() + (z - 0.5) * s.getZ()));
+            }
+            final int b = tile * 8;
+            coordIndex.append(coordIndex.length() > 0? " " : "")
+                    .append(toMF(new int[]{
+                        b, b + 1, b + 2, b + 3, b, -1,
+                        b + 4, b + 5, b + 6, b + 7, b + 4, -1,
+                        b, b + 4, -1, b + 1, b + 5, -1,
+                        b + 2, b + 6, -1, b + 3, b + 7, -1 }));
+        }
+        if (model.getTileCount() > 0){
+            ser.add(0, x3dOf.createShape().withRest(
+                    x3dOf.createAppearance().withAppearanceChildContentModel(
+                            x3dOf.createMaterial()
+                                .withClazz(CssClass.TileBox.name())
+                                .withEmissiveColor("0.5 0.5 0.5")),
+                    x3dOf.createIndexedLineSet()
+                        .withCoordIndex(coordIndex.toString())
+                        .withRest(x3dOf.createCoordinate()
+                                .withPoint(points.toString()))));
+        }
+        ser.add(getViewpoint(model.getAtomsAndBonds()));
+        return x3dOf.createX3D().withScene(x3dOf.createScene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(ser));
+    }
+
+    /**
+     * Renders one tile of a structure, loaded by the <code>Inline</code> node
+     * of the root scene (see {@link #toTiledRoot(TiledModel, String, Display)
+     * toTiledRoot}). Every tile has its own DEFs, as inlined scenes do not
+     * share them.
+     * @param model the structure split into tiles.
+     * @param tile the number of the tile, from <code>0</code>.
+     * @param display the type of display for chemical structures.
+     * @return the X3D of the tile.
+     */
+    public X3D toTile(TiledModel model, int tile, Display display) {
+        final AtomsAndBonds aab = model.getAtomsAndBonds();
+        final String lodRange = getLodRange(aab);
+        Map<String, X3DNode> defs = new HashMap<>();
+        List<Serializable> ser = new ArrayList<>();
+        for (Integer key : model.getAtoms(tile)) {
+            ser.add(getAtomNode(aab.getAtoms().get(key), defs, display, key,
+                    lodRange));
+        }
+        for (Bond bond : model.getBonds(tile)) {
+            ser.add(getBondNode(bond, defs, display, aab, false, lodRange));
+        }
+        return x3dOf.createX3D().withScene(x3dOf.createScene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(ser));
+    }
+
+    /**
+     * Calculates the bounding box of the rendering of a tile.
+     * @param model the structure split into tiles.
+     * @param tile the number of the tile.
+     * @param display the type of display for chemical structures.
+     * @return the box enclosing its atoms and bonds.
+     */
+    private BoundingBox getTileBox(TiledModel model, int tile,
+            Display display) {
+        final AtomsAndBonds aab = model.getAtomsAndBonds();
+        final double bondExtent =
+                conf.getBondDistance() + style.getBondRadius(display);
+        BoundingBox box = new BoundingBox();
+        for (Integer key : model.getAtoms(tile)) {
+            final Atom atom = aab.getAtoms().get(key);
+            box.add(atom.getCoordinates(), getAtomExtent(atom, display));
+        }
+        for (Bond bond : model.getBonds(tile)) {
+            box.add(getCoordinates(aab, bond.getFromAtom()), bondExtent)
+                    .add(getCoordinates(aab, bond.getToAtom()), bondExtent);
+        }
+        return box;
+    }
+
     /**
      * Builds a Group with the Cylinders forming the bond.
      * @param bond the bond.
      * @param defs a table of DEFs already defined. If the DEF key is not
      *      already there, it will be added.
-     * @param bondLength the length of the bond.
      * @param display the type of display for chemical structures.
-     * @return a Group with cylinders.
+     * @param fading whether the bond needs its own material.
+     * @param level the level of detail: <code>0</code> for X3D cylinders,
+     *      greater for tessellated cylinders with fewer segments.
+     * @return a Group with cylinders of unit height.
      */
     private Group getGroup(Bond bond, Map<String, X3DNode> defs,
-            double bondLength, Display display) {
+            Display display, boolean fading, int level) {
         Group group = x3dOf.createGroup();
-        switch (bond.getType()) {
-            case 1:
-                group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        getBondCylinderTransform("0 0 0", defs, bondLength,
-                                bond, display));
-                break;
-            case 2:
-                group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        getBondCylinderTransform("-" + conf.getBondDistance()
-                                + " 0 0", defs, bondLength, bond, display),
-                        getBondCylinderTransform(conf.getBondDistance()
-                                + " 0 0", defs, bondLength, bond, display));
-                break;
-            case 3:
-                group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        getBondCylinderTransform("-" + conf.getBondDistance()
-                                + " 0 0", defs, bondLength, bond, display),
-                        getBondCylinderTransform("0 0 0", defs, bondLength,
-                                bond, display),
-                        getBondCylinderTransform(conf.getBondDistance()
-                                + " 0 0", defs, bondLength, bond, display));
-                break;
-            case 4:
-                // aromatic
-                group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        getBondCylinderTransform("-" + conf.getBondDistance()
-                                + " 0 0", defs, bondLength, bond, display),
-                        getBondCylinderTransform(conf.getBondDistance()
-                                + " 0 0", defs, bondLength, bond, display));
-                break;
+        for (float offset : style.getBondOffsets(bond.getType())) {
+            group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    getBondCylinderTransform(offset == 0? "0 0 0"
+                            : offset + " 0 0", defs, bond, display, fading,
+                            level));
+        }
+        return group;
+    }
+
+    /**
+     * Builds a LOD node with decreasing details for one bond: its cylinders,
+     * then tessellated cylinders with fewer segments and finally a line.
+     * @param bond the bond.
+     * @param defs a table of DEFs already defined. If the DEF key is not
+     *      already there, it will be added.
+     * @param display the type of display for chemical structures.
+     * @param lodRange the <code>range</code> field of the LOD node.
+     * @return a Group containing the LOD node.
+     */
+    private Group getBondLod(Bond bond, Map<String, X3DNode> defs,
+            Display display, String lodRange) {
+        final int levels = lodRange.split(" ").length + 1;
+        LOD lod = x3dOf.createLOD().withRange(lodRange);
+        for (int level = 0; level < levels - 1; level++) {
+            lod.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    getGroup(bond, defs, display, false, level));
+        }
+        final String color = conf.getBondColor(bond.getType());
+        lod.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+            x3dOf.createShape().withRest(
+                x3dOf.createAppearance()
+                    .withAppearanceChildContentModel(
+                        x3dOf.createMaterial()
+                            .withClazz(CssClass.BondMaterial.name(),
+                                    CssClass.BondType.name() + bond.getType())
+                            .withDiffuseColor(color)
+                            .withEmissiveColor(color)),
+                x3dOf.createLineSet().withVertexCount("2")
+                    .withRest(x3dOf.createCoordinate()
+                            .withPoint("0 -0.5 0 0 0.5 0"))));
+        return x3dOf.createGroup()
+                .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                        lod);
+    }
+
+    /**
+     * Calculates the <code>range</code> field of the LOD nodes for a
+     * structure, scaling the {@link CTFile2X3DConfig#getLodRanges() configured
+     * factors} with the diagonal of its bounding box.
+     * @param aab the object encapsulating atoms and bonds.
+     * @return the range, or <code>null</code> if LOD is not configured.
+     */
+    String getLodRange(AtomsAndBonds aab) {
+        final String factors = conf.getLodRanges();
+        if (factors == null || factors.trim().isEmpty()){
+            return null;
         }
-        return group;
+        final double dx = aab.getMaxX() - aab.getMinX();
+        final double dy = aab.getMaxY() - aab.getMinY();
+        final double dz = aab.getMaxZ() - aab.getMinZ();
+        final double diagonal =
+                Math.max(Math.sqrt(dx * dx + dy * dy + dz * dz), 1);
+        StringBuilder range = new StringBuilder();
+        for (String factor : factors.trim().split("\\s+")) {
+            if (range.length() > 0) range.append(' ');
+            range.append((float) (Float.parseFloat(factor) * diagonal));
+        }
+        return range.toString();
+    }
+
+    /**
+     * Calculates the number of segments of tessellated spheres and cylinders
+     * for a level of detail.
+     * @param level the level of detail, greater than <code>0</code>.
+     * @return the {@link CTFile2X3DConfig#getMeshResolution() mesh
+     *      resolution} halved for every level, but never below 4.
+     */
+    private int getLodResolution(int level) {
+        return Math.max(conf.getMeshResolution() >> level, 4);
     }
 
     /*
@@ -292,20 +1595,25 @@ public class X3DGenerator {
      * Generates the ball and label for one atom.
      * @param atom the atom to render.
      * @param display the type of display for chemical structures.
-     * @return the rendered Group of ball and label.
+     * @return the rendered Group of ball and label, or <code>null</code> if
+     *      both of them have been left out as invisible.
      */
     private Group getGroup(Atom atom, Display display) {
-        Element elem;
-        try {
-            elem = Element.valueOf(atom.getSymbol());
-        } catch (Exception e) {
-            elem = Element.OTHER;
-        }
-        Group group = x3dOf.createGroup().withDEF(atom.getSymbol());
+        Element elem = Element.forSymbol(atom.getSymbol());
         Transform ball = getAtomBall(elem, display);
         Serializable label = getAtomLabel(elem, atom, display);
-        group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(ball,
-                label);
+        if (ball == null && label == null){
+            return null;
+        }
+        Group group = x3dOf.createGroup().withDEF(atom.getSymbol());
+        if (ball != null){
+            group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    ball);
+        }
+        if (label != null){
+            group.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    label);
+        }
         return group;
     }
 
@@ -317,44 +1625,149 @@ public class X3DGenerator {
      * @param display the type of display for chemical structures.
      * @param atomNum the atom number. Only used if the atom does not contain
      *      information about its mapping.
-     * @return a Transform representing an atom.
+     * @param lodRange the <code>range</code> of the <code>LOD</code> node
+     *      wrapping the atom group, or <code>null</code> for no LOD.
+     * @return a Transform representing an atom. It will be empty if the atom
+     *      is not visible with the given display.
      */
     private Transform getAtomTransform(Atom atom,
-            Map<String, X3DNode> defs, Display display, int atomNum) {
+            Map<String, X3DNode> defs, Display display, int atomNum,
+            String lodRange) {
         final X3DNode x3dAtom;
         if (defs.containsKey(atom.getSymbol())) {
             x3dAtom = x3dOf.createGroup().withUSE(defs.get(atom.getSymbol()));
         } else {
-            x3dAtom = getGroup(atom, display);
-            defs.put(atom.getSymbol(), x3dAtom);
+            x3dAtom = getAtomGroup(atom, display, lodRange);
+            if (x3dAtom != null){
+                defs.put(atom.getSymbol(), x3dAtom);
+            }
+        }
+        return getAtomTransform(atom, x3dAtom);
+    }
+
+    /**
+     * Builds the Group (ball and label) shared by every atom of the same
+     * element.
+     * @param atom the first atom of its element.
+     * @param display the type of display for chemical structures.
+     * @param lodRange the <code>range</code> of the <code>LOD</code> node
+     *      wrapping the group, or <code>null</code> for no LOD.
+     * @return the Group, DEF'd with the symbol of the element, or
+     *      <code>null</code> if the atom is not visible with the given
+     *      display. With {@link CTFile2X3DConfig#isAllDisplays() all
+     *      displays}, it contains a Switch with the groups for every display.
+     */
+    private Group getAtomGroup(Atom atom, Display display, String lodRange) {
+        if (!conf.isAllDisplays()){
+            return getSingleAtomGroup(atom, display, lodRange);
         }
+        Switch sw = getDisplaySwitch(display);
+        for (Display d : Display.values()) {
+            Group group = getSingleAtomGroup(atom, d, lodRange);
+            sw.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    group == null? x3dOf.createGroup() : group.withDEF(null));
+        }
+        return x3dOf.createGroup().withDEF(atom.getSymbol())
+                .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(sw);
+    }
+
+    private Group getSingleAtomGroup(Atom atom, Display display,
+            String lodRange) {
+        Group group = getGroup(atom, display);
+        if (group == null || lodRange == null){
+            return group;
+        }
+        return getAtomLod(atom, group, display, lodRange);
+    }
+
+    /**
+     * Builds a Transform around an atom group.
+     * @param atom the atom to render.
+     * @param x3dAtom the atom group to place, or a USE of it, or
+     *      <code>null</code> for an empty Transform.
+     * @return a Transform representing an atom.
+     */
+    private Transform getAtomTransform(Atom atom, X3DNode x3dAtom) {
         Transform tr = x3dOf.createTransform()
-                .withTranslation(atom.getCoordinates().toString())
-                .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        x3dAtom);
+                .withTranslation(atom.getCoordinates().toString());
+        if (x3dAtom != null){
+            tr.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    x3dAtom);
+        }
         return tr;
     }
 
+    /**
+     * Builds a LOD node with decreasing details for one atom: its ball and
+     * label, then tessellated balls with fewer segments and finally a point.
+     * @param atom the atom.
+     * @param group the Group with the ball and label of the atom. Its DEF is
+     *      moved to the returned Group.
+     * @param display the type of display for chemical structures.
+     * @param lodRange the <code>range</code> field of the LOD node.
+     * @return a Group containing the LOD node.
+     */
+    private Group getAtomLod(Atom atom, Group group, Display display,
+            String lodRange) {
+        final Element elem = Element.forSymbol(atom.getSymbol());
+        final int levels = lodRange.split(" ").length + 1;
+        final boolean ball = getAtomBall(elem, display) != null;
+        LOD lod = x3dOf.createLOD().withRange(lodRange)
+                .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                        group.withDEF(null));
+        for (int level = 1; level < levels - 1; level++) {
+            lod.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    !ball? x3dOf.createGroup() : getAtomBall(elem, display,
+                        getTriangleSet(Mesh.getSphere(
+                                elem.getAtomRadiusEmpirical(),
+                                getLodResolution(level)), false)));
+        }
+        final float transparency = style.getAtomTransparency(display);
+        lod.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+            !ball? x3dOf.createGroup() : x3dOf.createShape().withRest(
+                x3dOf.createAppearance()
+                    .withAppearanceChildContentModel(
+                        x3dOf.createMaterial()
+                            .withClazz(CssClass.AtomSphereMaterial.name())
+                            .withDiffuseColor(elem.getSphereColor())
+                            .withEmissiveColor(elem.getSphereColor())
+                            .withTransparency(transparency)),
+                x3dOf.createPointSet().withRest(
+                        x3dOf.createCoordinate().withPoint("0 0 0"))));
+        return x3dOf.createGroup().withDEF(atom.getSymbol())
+                .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                        lod);
+    }
+
     /**
      * Builds an X3D Sphere.
      * @param elem The element to render as a sphere.
      * @param display the type of display for chemical structures.
-     * @return a Transform containing a sphere.
+     * @return a Transform containing a sphere, or <code>null</code> if it
+     *      would be invisible for the given display and the display is not
+     *      {@link CTFile2X3DConfig#isDisplaySwitchable() switchable}.
      */
     private Transform getAtomBall(Element elem, Display display) {
-        float scale = 1.0F;
-        float transparency = 0.0F;
-        switch (display) {
-            case WIREFRAME:
-            case STICKS:
-                transparency = 1.0F;
-                break;
-            case BALLS_STICKS:
-                scale = 0.5F;
-                break;
-            case MIXED:
-                transparency = conf.getAtomTransparency();
-                break;
+        return getAtomBall(elem, display, x3dOf.createSphere()
+                .withRadius(elem.getAtomRadiusEmpirical()));
+    }
+
+    /**
+     * Builds the ball of an atom.
+     * @param elem The element to render as a ball.
+     * @param display the type of display for chemical structures.
+     * @param geometry the geometry of the ball, with the empirical radius
+     *      of the element.
+     * @return a Transform containing the ball, or <code>null</code> if it
+     *      would be invisible for the given display and the display is not
+     *      {@link CTFile2X3DConfig#isDisplaySwitchable() switchable}.
+     */
+    private Transform getAtomBall(Element elem, Display display,
+            Serializable geometry) {
+        final float scale = style.getAtomScale(display);
+        final float transparency = style.getAtomTransparency(display);
+        if (!style.isVisible(transparency) && !conf.isDisplaySwitchable()){
+            return null;
         }
         Transform tr = x3dOf.createTransform()
             .withClazz(CssClass.AtomSphereTransform.name())
@@ -367,8 +1780,7 @@ public class X3DGenerator {
                                 .withClazz(CssClass.AtomSphereMaterial.name())
                                 .withDiffuseColor(elem.getSphereColor())
                                 .withTransparency(transparency)),
-                    x3dOf.createSphere()
-                        .withRadius(elem.getAtomRadiusEmpirical())));
+                    geometry));
         return tr;
     }
 
@@ -376,24 +1788,22 @@ public class X3DGenerator {
      * Builds just one Cylinder to render a bond.
      * @param defs a table of DEFs already defined. If the DEF key is not
      *      already there, it will be added.
-     * @param bondLength the length of the bond.
      * @param bond the bond to render
      * @param display the type of display for chemical structures.
-     * @return a Shape with a Cylinder for the bond.
+     * @param fading whether the bond needs its own material. If not, the
+     *      appearance is shared by every bond of the same type.
+     * @param level the level of detail: <code>0</code> for an X3D cylinder,
+     *      greater for a tessellated cylinder with fewer segments.
+     * @return a Shape with a Cylinder of unit height for the bond.
      */
-    private Shape getBondCylinder(Map<String, X3DNode> defs,
-            double bondLength, Bond bond, Display display) {
-        float radius;
-        switch (display) {
-            case WIREFRAME:
-                radius = 0.02F;
-                break;
-            default:
-                radius = 0.05F;
-        }
+    private Shape getBondCylinder(Map<String, X3DNode> defs, Bond bond,
+            Display display, boolean fading, int level) {
+        final float radius = style.getBondRadius(display);
         String bondColor = conf.getBondColor(bond.getType());
-        final String appDef = APP_BOND + bond.getFullLabel();
-        final String matDef = MAT_BOND + bond.getFullLabel();
+        final String suffix = fading?
+                bond.getFullLabel() : String.valueOf(bond.getType());
+        final String appDef = APP_BOND + suffix;
+        final String matDef = MAT_BOND + suffix;
         X3DNode appearance;
         if (defs.containsKey(appDef)){
             appearance = x3dOf.createAppearance().withUSE(defs.get(appDef));
@@ -409,12 +1819,27 @@ public class X3DGenerator {
             defs.put(matDef, material);
             defs.put(appDef, appearance);
         }
-        return x3dOf.createShape().withRest(
-                appearance,
-                x3dOf.createCylinder()
-                        .withClazz(CssClass.BondCylinder.name())
-                        .withRadius(radius)
-                        .withHeight((float) (bondLength)));
+        final String cylDef = CYL_BOND + display.name()
+                + (level > 0? "_" + level : "");
+        X3DNode cylinder;
+        if (level > 0 && defs.containsKey(cylDef)){
+            cylinder = x3dOf.createIndexedTriangleSet()
+                    .withUSE(defs.get(cylDef));
+        } else if (level > 0){
+            cylinder = getTriangleSet(Mesh.getCylinder(radius, 1,
+                    getLodResolution(level)), false).withDEF(cylDef);
+            defs.put(cylDef, cylinder);
+        } else if (defs.containsKey(cylDef)){
+            cylinder = x3dOf.createCylinder().withUSE(defs.get(cylDef));
+        } else {
+            cylinder = x3dOf.createCylinder()
+                    .withDEF(cylDef)
+                    .withClazz(CssClass.BondCylinder.name())
+                    .withRadius(radius)
+                    .withHeight(1.0F);
+            defs.put(cylDef, cylinder);
+        }
+        return x3dOf.createShape().withRest(appearance, cylinder);
     }
 
     /**
@@ -422,32 +1847,32 @@ public class X3DGenerator {
      * @param translation the position of the centre of the bond.
      * @param defs a table of DEFs already defined. If the DEF key is not
      *      already there, it will be added.
-     * @param bondLength the length of the bond.
      * @param bond the bond to render.
      * @param display the type of display for chemical structures.
+     * @param fading whether the bond needs its own material.
+     * @param level the level of detail of the cylinder.
      * @return a Transform including the bond Cylinder.
      */
     private Transform getBondCylinderTransform(String translation,
-            Map<String, X3DNode> defs, double bondLength, Bond bond,
-            Display display) {
-        float scale = 1.0F;
-        switch (display) {
-            case WIREFRAME:
-            case MIXED:
-                scale = 0.5F;
-                break;
-        }
+            Map<String, X3DNode> defs, Bond bond, Display display,
+            boolean fading, int level) {
+        final float scale = style.getBondScale(display);
         return x3dOf.createTransform()
                 .withClazz(CssClass.BondCylinderTransform.name())
                 .withTranslation(translation)
                 .withScale(scale + " " + scale + " " + scale)
                 .withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
-                        getBondCylinder(defs, bondLength, bond, display));
+                        getBondCylinder(defs, bond, display, fading, level));
     }
 
     /**
      * Converts AtomsAndBonds objects representing a reaction into X3D objects
      * which can be added to an X3D Scene.
+     * <br>
+     * Only the reactants are rendered. The products are never turned into X3D
+     * nodes: the final positions and rotations of atoms and bonds are
+     * computed from their coordinates, and only the bonds fading in get
+     * nodes of their own.
      * @param aab the objects encapsulating atoms and bonds ([0] for reactants,
      *      [1] for products).
      * @param display the type of display for chemical structures.
@@ -458,15 +1883,16 @@ public class X3DGenerator {
         float start = (1 - conf.getRxnAnimationFraction()) / 2;
         float end = start + conf.getRxnAnimationFraction();
         final String key = "0 " + start + " " + end + " 1";
+        if (conf.getRxnAnimationMode() == AnimationMode.COORDINATES){
+            return getCoordinateAnimation(aab, display, key);
+        }
         // Render reactants:
         logger.log(Level.FINE, "getting X3D for reactants");
-        NodesAndDefs rNad = getNodesAndDefs(aab[0], display);
-        NodesAndDefs pNad = getNodesAndDefs(aab[1], display);
+        NodesAndDefs rNad = getNodesAndDefs(aab[0], display,
+                getFadingBonds(aab));
+        // the products are not rendered, their positions are computed below
         logger.log(Level.FINE, "getting TS");
-        final TimeSensor ts = x3dOf.createTimeSensor()
-                .withDEF(CssClass.TimeSensor.name())
-                .withClazz(CssClass.TimeSensor.name())
-                .withEnabled(true).withLoop(true).withCycleInterval("5"); // FIXME
+        final TimeSensor ts = getRxnTimeSensor();
         logger.log(Level.FINE, "adding TS");
         rNad.nodes.add(ts);
         // Process the products and compute the proper animation:
@@ -484,12 +1910,11 @@ public class X3DGenerator {
                     pAtom.getCoordinates().getZ()-rAtom.getCoordinates().getZ()
             );
             logger.log(Level.FINE, "distance p-r: {0}", v.getMagnitude());
-            if (v.getMagnitude() > 0.01){
+            if (v.getMagnitude() > MIN_MOVEMENT){
                 final X3DNode target = rNad.defs.get(AAM + aam.toString());
                 rNad.nodes.addAll(getAnimation(ts, key,
                         target, TRANSLATION,
-                        rAtom.getCoordinates().toString(),
-                        pAtom.getCoordinates().toString(),
+                        rAtom.getCoordinates(), pAtom.getCoordinates(),
                         rNad.defs,
                         INTERP + TRANSLATION + "_" + target.getDEF()
                 ));
@@ -514,22 +1939,18 @@ public class X3DGenerator {
                         .getCoordinates();
                 // move and rotate those broken bonds
                 final X3DNode theBond = rNad.defs.get(rBond.getFullLabel());
-                Transform tr = (Transform) theBond;
                 moveAndRotate(rNad, ts, key, theBond,
-                        tr.getTranslation(), Point.getMiddle(p1, p2).toString(),
-                        tr.getRotation(), getRotation(p1, p2));
+                        getMiddle(rBond, aab[0]), Point.getMiddle(p1, p2),
+                        getRotation(rBond, aab[0]), getRotation(p1, p2));
             } else {
                 // Kept bonds (same atoms):
-                final Transform rTransform = (Transform)
-                        rNad.defs.get(rBond.getFullLabel());
-                final Transform pTransform = (Transform)
-                        pNad.defs.get(pBond.getFullLabel());
+                final X3DNode rTransform = rNad.defs.get(rBond.getFullLabel());
                 // - translation
-                String fromTr = rTransform.getTranslation();
-                String toTr = pTransform.getTranslation();
+                Point fromTr = getMiddle(rBond, aab[0]);
+                Point toTr = getMiddle(pBond, aab[1]);
                 // - rotation
-                String fromRo = rTransform.getRotation();
-                String toRo = pTransform.getRotation();
+                Rotation fromRo = getRotation(rBond, aab[0]);
+                Rotation toRo = getRotation(pBond, aab[1]);
                 moveAndRotate(rNad, ts, key, rTransform,
                         fromTr, toTr, fromRo, toRo);
                 // - fade out/fade in for bonds changing type:
@@ -559,9 +1980,8 @@ public class X3DGenerator {
                 Point p2 = aab[0].getAtoms().get(pBond.getToAtom())
                         .getCoordinates();
                 moveAndRotate(rNad, ts, key, fib,
-                        Point.getMiddle(p1, p2).toString(),
-                        fib.getTranslation(),
-                        getRotation(p1, p2), fib.getRotation());
+                        Point.getMiddle(p1, p2), getMiddle(pBond, aab[1]),
+                        getRotation(p1, p2), getRotation(pBond, aab[1]));
             }
         }
         // - movement of the camera
@@ -569,6 +1989,566 @@ public class X3DGenerator {
         return rNad.nodes;
     }
 
+    /**
+     * Converts a trajectory (a sequence of frames with the same atoms and
+     * bonds, like conformers or molecular dynamics) into X3D objects which
+     * can be added to an X3D Scene.
+     * <br>
+     * The first frame is rendered like a reaction and the following ones are
+     * only read for their coordinates, as they are consumed from the
+     * iterator, so frames can be parsed on demand and only the current one is
+     * kept in memory. The animation is delta-encoded: an atom only gets a
+     * new key when it has moved more than {@link #MIN_MOVEMENT} since its
+     * last key (plus one to hold its position until then), a bond when any
+     * of its atoms does, and atoms and bonds which never move are not
+     * animated at all.
+     * @param frames the frames, in order.
+     * @param display the type of display for chemical structures.
+     * @return an X3D representation of the trajectory.
+     */
+    public List<Serializable> toX3D(Iterator<AtomsAndBonds> frames,
+            Display display) {
+        if (!frames.hasNext()){
+            return new ArrayList<>();
+        }
+        AtomsAndBonds aab = frames.next();
+        NodesAndDefs nad = getNodesAndDefs(aab, display,
+                Collections.<String>emptySet());
+        Map<Integer, Track> atomTracks = new HashMap<>();
+        for (Map.Entry<Integer, Atom> entry : aab.getAtoms().entrySet()) {
+            atomTracks.put(entry.getKey(), new Track(
+                    entry.getValue().getCoordinates(),
+                    entry.getValue().getCoordinates()));
+        }
+        final List<Bond> bonds = new ArrayList<>(aab.getBonds().values());
+        Map<String, Track> bondTracks = new HashMap<>();
+        for (Bond bond : bonds) {
+            bondTracks.put(bond.getFullLabel(), new Track(null,
+                    getMiddle(bond, aab), getRotation(bond, aab),
+                    getScale(bond, aab)));
+        }
+        int frame = 0;
+        while (frames.hasNext()){
+            aab = frames.next();
+            frame++;
+            for (Map.Entry<Integer, Track> entry : atomTracks.entrySet()) {
+                final Atom atom = aab.getAtoms().get(entry.getKey());
+                final Track track = entry.getValue();
+                if (atom != null && new Vector(track.ref,
+                        atom.getCoordinates()).getMagnitude() > MIN_MOVEMENT){
+                    track.add(frame, atom.getCoordinates(),
+                            atom.getCoordinates());
+                }
+            }
+            for (Bond bond : bonds) {
+                final Track from = atomTracks.get(bond.getFromAtom());
+                final Track to = atomTracks.get(bond.getToAtom());
+                if ((from.last == frame || to.last == frame)
+                        && aab.getAtoms().containsKey(bond.getFromAtom())
+                        && aab.getAtoms().containsKey(bond.getToAtom())){
+                    bondTracks.get(bond.getFullLabel()).add(frame, null,
+                            getMiddle(bond, aab), getRotation(bond, aab),
+                            getScale(bond, aab));
+                }
+            }
+        }
+        if (frame == 0){
+            return nad.nodes;
+        }
+        final TimeSensor ts = getRxnTimeSensor();
+        nad.nodes.add(ts);
+        for (Map.Entry<Integer, Track> entry : atomTracks.entrySet()) {
+            final Track track = entry.getValue();
+            if (track.isAnimated()){
+                final X3DNode target = nad.defs.get(AAM + entry.getKey());
+                nad.nodes.addAll(getAnimation(ts, track.getKey(frame),
+                        target, TRANSLATION, track.getKeyValue(frame, 0),
+                        nad.defs, INTERP + TRANSLATION + "_" + target.getDEF()));
+            }
+        }
+        for (Map.Entry<String, Track> entry : bondTracks.entrySet()) {
+            final Track track = entry.getValue();
+            if (track.isAnimated()){
+                final X3DNode target = nad.defs.get(entry.getKey());
+                final String key = track.getKey(frame);
+                nad.nodes.addAll(getAnimation(ts, key, target, TRANSLATION,
+                        track.getKeyValue(frame, 0), nad.defs,
+                        INTERP + TRANSLATION + "_" + target.getDEF()));
+                nad.nodes.addAll(getAnimation(ts, key, target, ROTATION,
+                        track.getKeyValue(frame, 1), nad.defs,
+                        INTERP + ROTATION + "_" + target.getDEF()));
+                nad.nodes.addAll(getAnimation(ts, key, target, SCALE,
+                        track.getKeyValue(frame, 2), nad.defs,
+                        INTERP + SCALE + "_" + target.getDEF()));
+            }
+        }
+        return nad.nodes;
+    }
+
+    /**
+     * Checks whether the X3D of a structure, as rendered by
+     * {@link #toX3D(AtomsAndBonds, Display)}, can be changed in place with
+     * {@link #toUpdate(AtomsAndBonds, AtomsAndBonds, Display, Map)
+     * toUpdate}:
+     * its atoms and bonds must be rendered with primitives, in Transforms
+     * DEF'd after their atom-atom mapping and label, and not grouped in a
+     * bounding volume hierarchy.
+     * @param aab the structure rendered.
+     * @return <code>true</code> if the X3D of the structure can be updated.
+     */
+    public boolean isUpdatable(AtomsAndBonds aab) {
+        return getGeometryMode(aab) == GeometryMode.PRIMITIVES
+                && conf.getBvhLeafSize() <= 0;
+    }
+
+    /**
+     * Calculates the changes turning the X3D of a structure into the X3D of
+     * an edited version of it, matching atoms by their key (atom-atom
+     * mapping or position) and bonds by their label, like reactions.
+     * <br>
+     * Atoms moved more than {@link #MIN_MOVEMENT} get a new
+     * <code>translation</code>, and the bonds attached to them a new
+     * <code>translation</code>, <code>rotation</code> and <code>scale</code>.
+     * Atoms and bonds which are missing or changed their element or type
+     * are removed, and the new ones are added.
+     * <br>
+     * The nodes shared by several atoms or bonds (element groups, bond
+     * groups and the nodes inside them) which were defined inside a removed
+     * atom or bond, or which are needed by the new ones for the first time,
+     * are defined in a <code>Switch</code> showing none of its children,
+     * DEF'd with the <code>SHARED_</code> prefix and added before the new
+     * atoms and bonds, which only USE them. As those Switches are never
+     * removed, the next updates can rely on their DEFs. Which node defines
+     * every shared node is kept in <code>owners</code>, which must be passed
+     * again to the next update of the same scene.
+     * <br>
+     * Both versions are usually centered independently, so
+     * <code>after</code> is first moved back by the median displacement of
+     * its atoms, and the atoms which are not moved keep the coordinates of
+     * <code>before</code>: afterwards, <code>after</code> has exactly the
+     * coordinates of the updated scene, and can be passed as
+     * <code>before</code> of the next update.
+     * <br>
+     * The scene must have been rendered with primitives and without
+     * bounding volume hierarchy, which is what this method assumes whatever
+     * the {@link CTFile2X3DConfig#getGeometryMode() geometry mode} (see
+     * {@link #isUpdatable(AtomsAndBonds) isUpdatable}).
+     * @param before the structure currently rendered.
+     * @param after the edited structure. It is moved in place.
+     * @param display the type of display of the scene.
+     * @param owners the DEF of the top-level node defining every shared
+     *      node of the scene, by DEF of the shared node, as left by the
+     *      previous update. Empty for a scene rendered by
+     *      {@link #toX3D(AtomsAndBonds, Display)}, whose owners are found by
+     *      rendering <code>before</code> again. It is updated with the
+     *      changes.
+     * @return the changes to apply to the scene.
+     */
+    public X3DUpdate toUpdate(AtomsAndBonds before, AtomsAndBonds after,
+            Display display, Map<String, String> owners) {
+        after.move(getDrift(before, after));
+        X3DUpdate update = new X3DUpdate();
+        final String lodRange = getLodRange(before);
+        if (owners.isEmpty()){
+            owners.putAll(getOwners(before, display, lodRange));
+        }
+        Set<String> removedDefs = new HashSet<>();
+        // removed and new atoms and bonds, whose shared nodes are needed:
+        List<Atom> atoms = new ArrayList<>();
+        List<Bond> bonds = new ArrayList<>();
+        Set<Integer> movedAtoms = new HashSet<>();
+        int atomNum = 0;
+        for (Map.Entry<Integer, Atom> entry : before.getAtoms().entrySet()) {
+            final Atom atom = entry.getValue();
+            final String def = getAtomDef(atom, ++atomNum);
+            final Atom edited = after.getAtoms().get(entry.getKey());
+            if (edited == null){
+                update.remove(def);
+                removedDefs.add(def);
+                atoms.add(atom);
+                continue;
+            }
+            final boolean replaced =
+                    !edited.getSymbol().equals(atom.getSymbol());
+            if (replaced){
+                update.remove(def);
+                removedDefs.add(def);
+                atoms.add(atom);
+            }
+            final Vector v = new Vector(atom.getCoordinates(),
+                    edited.getCoordinates());
+            if (v.getMagnitude() > MIN_MOVEMENT){
+                if (!replaced){
+                    update.set(def, TRANSLATION,
+                            edited.getCoordinates().toString());
+                }
+                movedAtoms.add(entry.getKey());
+            } else {
+                edited.getCoordinates().move(new Vector(
+                        -v.getX(), -v.getY(), -v.getZ()));
+            }
+        }
+        for (Map.Entry<String, Bond> entry : before.getBonds().entrySet()) {
+            final Bond bond = entry.getValue();
+            final String def = bond.getFullLabel();
+            final Bond edited = after.getBonds().get(entry.getKey());
+            if (edited == null || edited.getType() != bond.getType()){
+                update.remove(def);
+                removedDefs.add(def);
+                bonds.add(bond);
+            } else if (movedAtoms.contains(bond.getFromAtom())
+                    || movedAtoms.contains(bond.getToAtom())){
+                final Transform moved = getBondTransform(bond, null, after);
+                update.set(def, TRANSLATION, moved.getTranslation());
+                update.set(def, ROTATION, moved.getRotation());
+                update.set(def, SCALE, moved.getScale());
+            }
+        }
+        // new atoms by atom number, and new bonds:
+        Map<Integer, Atom> newAtoms = new LinkedHashMap<>();
+        List<Bond> newBonds = new ArrayList<>();
+        atomNum = 0;
+        for (Map.Entry<Integer, Atom> entry : after.getAtoms().entrySet()) {
+            final Atom atom = entry.getValue();
+            ++atomNum;
+            final Atom old = before.getAtoms().get(entry.getKey());
+            if (old == null || !old.getSymbol().equals(atom.getSymbol())){
+                newAtoms.put(atomNum, atom);
+            }
+        }
+        for (Map.Entry<String, Bond> entry : after.getBonds().entrySet()) {
+            final Bond bond = entry.getValue();
+            final Bond old = before.getBonds().get(entry.getKey());
+            if (old == null || old.getType() != bond.getType()){
+                newBonds.add(bond);
+            }
+        }
+        atoms.addAll(newAtoms.values());
+        bonds.addAll(newBonds);
+        // shared nodes defined inside removed nodes are lost:
+        owners.values().removeAll(removedDefs);
+        Map<String, X3DNode> defs = new HashMap<>();
+        for (String def : owners.keySet()) {
+            defs.put(def, x3dOf.createGroup().withDEF(def));
+        }
+        final Switch holder = getSharedHolder(atoms, bonds, defs, display,
+                lodRange);
+        if (holder != null){
+            for (String def : getNewDefs(defs, owners.keySet())) {
+                owners.put(def, holder.getDEF());
+            }
+            update.add(holder);
+        }
+        for (Map.Entry<Integer, Atom> entry : newAtoms.entrySet()) {
+            update.add(getAtomNode(entry.getValue(), defs, display,
+                    entry.getKey(), lodRange));
+        }
+        for (Bond bond : newBonds) {
+            update.add(getBondNode(bond, defs, display, after, false,
+                    lodRange));
+        }
+        return update;
+    }
+
+    /**
+     * Finds which atom or bond defines every shared node in the X3D of a
+     * structure as rendered by {@link #toX3D(AtomsAndBonds, Display)}.
+     * @param aab the structure rendered.
+     * @param display the type of display of the scene.
+     * @param lodRange the <code>range</code> of LOD nodes, or
+     *      <code>null</code> for no LOD.
+     * @return the DEF of the atom or bond defining every shared node, by
+     *      DEF of the shared node.
+     */
+    private Map<String, String> getOwners(AtomsAndBonds aab, Display display,
+            String lodRange) {
+        Map<String, String> owners = new HashMap<>();
+        Map<String, X3DNode> defs = new HashMap<>();
+        int atomNum = 0;
+        for (Atom atom : aab.getAtoms().values()) {
+            final Set<String> known = new HashSet<>(defs.keySet());
+            final Transform tr = getAtomNode(atom, defs, display, ++atomNum,
+                    lodRange);
+            addOwner(owners, getNewDefs(defs, known), tr);
+        }
+        for (Bond bond : aab.getBonds().values()) {
+            final Set<String> known = new HashSet<>(defs.keySet());
+            final Transform tr = getBondNode(bond, defs, display, aab, false,
+                    lodRange);
+            addOwner(owners, getNewDefs(defs, known), tr);
+        }
+        return owners;
+    }
+
+    private static void addOwner(Map<String, String> owners,
+            Set<String> newDefs, Transform owner) {
+        newDefs.remove(owner.getDEF());
+        for (String def : newDefs) {
+            owners.put(def, owner.getDEF());
+        }
+    }
+
+    /**
+     * Builds the Switch defining the shared nodes needed by some atoms and
+     * bonds which are not defined yet.
+     * @param atoms the atoms.
+     * @param bonds the bonds.
+     * @param defs a table of DEFs already defined. The DEFs of the new
+     *      shared nodes will be added.
+     * @param display the type of display for chemical structures.
+     * @param lodRange the <code>range</code> of LOD nodes, or
+     *      <code>null</code> for no LOD.
+     * @return a Switch showing none of the new shared nodes, DEF'd after the
+     *      first of them, or <code>null</code> if there are none.
+     */
+    private Switch getSharedHolder(List<Atom> atoms, List<Bond> bonds,
+            Map<String, X3DNode> defs, Display display, String lodRange) {
+        final Atom[] atomArray = atoms.toArray(new Atom[0]);
+        final Bond[] bondArray = bonds.toArray(new Bond[0]);
+        final boolean[] owners = getSharedNodes(atomArray, bondArray, defs,
+                display, lodRange);
+        Switch holder = null;
+        for (int i = 0; i < owners.length; i++) {
+            if (!owners[i]){
+                continue;
+            }
+            final X3DNode node = defs.get(i < atomArray.length?
+                    atomArray[i].getSymbol()
+                    : getBondGroupDef(bondArray[i - atomArray.length],
+                            display));
+            if (holder == null){
+                holder = x3dOf.createSwitch()
+                        .withDEF(SHARED + node.getDEF())
+                        .withWhichChoice(BigInteger.valueOf(-1));
+            }
+            holder.withBackgroundOrColorInterpolatorOrCoordinateInterpolator(
+                    node);
+        }
+        return holder;
+    }
+
+    private static Set<String> getNewDefs(Map<String, X3DNode> defs,
+            Set<String> known) {
+        Set<String> newDefs = new HashSet<>(defs.keySet());
+        newDefs.removeAll(known);
+        return newDefs;
+    }
+
+    /**
+     * Calculates how much an edited structure has been shifted by centering
+     * it: the median displacement of its atoms, axis by axis, so that a few
+     * atoms moved by the edition do not count.
+     * @param before the structure currently rendered.
+     * @param after the edited structure.
+     * @return the displacement moving <code>after</code> back.
+     */
+    private static Vector getDrift(AtomsAndBonds before,
+            AtomsAndBonds after) {
+        final int size = before.getAtoms().size();
+        double[] dx = new double[size];
+        double[] dy = new double[size];
+        double[] dz = new double[size];
+        int n = 0;
+        for (Map.Entry<Integer, Atom> entry : before.getAtoms().entrySet()) {
+            final Atom edited = after.getAtoms().get(entry.getKey());
+            if (edited != null){
+                final Vector v = new Vector(edited.getCoordinates(),
+                        entry.getValue().getCoordinates());
+                dx[n] = v.getX();
+                dy[n] = v.getY();
+                dz[n] = v.getZ();
+                n++;
+            }
+        }
+        if (n == 0){
+            return new Vector(0, 0, 0);
+        }
+        return new Vector(getMedian(dx, n), getMedian(dy, n),
+                getMedian(dz, n));
+    }
+
+    private static double getMedian(double[] values, int n) {
+        Arrays.sort(values, 0, n);
+        return n % 2 == 1? values[n / 2]
+                : (values[n / 2 - 1] + values[n / 2]) / 2;
+    }
+
+    /**
+     * Builds the TimeSensor triggering the animation of a reaction.
+     * @return a looping TimeSensor.
+     */
+    private TimeSensor getRxnTimeSensor() {
+        return x3dOf.createTimeSensor()
+                .withDEF(CssClass.TimeSensor.name())
+                .withClazz(CssClass.TimeSensor.name())
+                .withEnabled(true).withLoop(true).withCycleInterval("5"); // FIXME
+    }
+
+    /**
+     * Renders a reaction as in {@link AnimationMode#COORDINATES}: the atoms
+     * are the points of one <code>Coordinate</code> node, rendered as a
+     * <code>PointSet</code>, and the bonds are lines between them, in one
+     * <code>IndexedLineSet</code> for kept bonds, one for fading out bonds
+     * and one for fading in bonds. A single
+     * <code>CoordinateInterpolator</code> moves every atom and bond end, so
+     * the animation needs at most three interpolators, whatever the size of
+     * the reaction.
+     * @param aab the objects encapsulating atoms and bonds ([0] for reactants,
+     *      [1] for products).
+     * @param display the type of display for chemical structures.
+     * @param key the four fractions of time defining the animation.
+     * @return an X3D representation of the reaction.
+     */
+    private List<Serializable> getCoordinateAnimation(AtomsAndBonds[] aab,
+            Display display, String key) {
+        NodesAndDefs nad = new NodesAndDefs(new ArrayList<Serializable>(),
+                new HashMap<String, X3DNode>());
+        // one point per reactant atom, in the same order for both sides:
+        Map<Integer, Integer> points = new HashMap<>();
+        StringBuilder from = new StringBuilder();
+        StringBuilder to = new StringBuilder();
+        StringBuilder colors = new StringBuilder();
+        for (Map.Entry<Integer, Atom> entry : aab[0].getAtoms().entrySet()) {
+            final String sep = points.isEmpty()? "" : " ";
+            final Atom rAtom = entry.getValue();
+            final Atom pAtom = aab[1].getAtoms().get(entry.getKey());
+            points.put(entry.getKey(), points.size());
+            from.append(sep).append(rAtom.getCoordinates());
+            to.append(sep).append(
+                    (pAtom == null? rAtom : pAtom).getCoordinates());
+            colors.append(sep).append(
+                    Element.forSymbol(rAtom.getSymbol()).getSphereColor());
+        }
+        final float atomTransparency = style.getAtomTransparency(display);
+        if (!points.isEmpty() && (style.isVisible(atomTransparency)
+                || conf.isDisplaySwitchable())){
+            nad.nodes.add(x3dOf.createShape().withRest(
+                    x3dOf.createAppearance()
+                        .withAppearanceChildContentModel(
+                            x3dOf.createMaterial()
+                                .withClazz(CssClass.AtomSphereMaterial.name())
+                                .withTransparency(atomTransparency)),
+                    x3dOf.createPointSet().withRest(
+                            x3dOf.createColor().withColor(colors.toString()),
+                            getRxnCoordinate(nad, from.toString()))));
+        }
+        // kept, fading out and fading in bonds:
+        final String[] lines = { null, FADE_OUT, FADE_IN };
+        StringBuilder[] coordIndex = new StringBuilder[lines.length];
+        StringBuilder[] lineColors = new StringBuilder[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            coordIndex[i] = new StringBuilder();
+            lineColors[i] = new StringBuilder();
+        }
+        for (Bond rBond : aab[0].getBonds().values()) {
+            final Bond pBond = aab[1].getBonds().get(rBond.getLabel());
+            final boolean kept =
+                    pBond != null && pBond.getType() == rBond.getType();
+            addLine(rBond, points, coordIndex[kept? 0 : 1],
+                    lineColors[kept? 0 : 1]);
+        }
+        for (Bond pBond : aab[1].getBonds().values()) {
+            final Bond rBond = aab[0].getBonds().get(pBond.getLabel());
+            if (rBond == null || rBond.getType() != pBond.getType()){
+                addLine(pBond, points, coordIndex[2], lineColors[2]);
+            }
+        }
+        final TimeSensor ts = getRxnTimeSensor();
+        List<Serializable> anim = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (coordIndex[i].length() == 0){
+                continue;
+            }
+            final Material material = x3dOf.createMaterial()
+                    .withClazz(CssClass.BondMaterial.name());
+            if (lines[i] != null){
+                material.setDEF(MAT_BOND + lines[i]);
+                material.setTransparency(lines[i].equals(FADE_IN)? 1.0F : 0F);
+                anim.addAll(getAnimation(ts, key, material, TRANSPARENCY,
+                        lines[i].equals(FADE_IN)? "1.0" : "0",
+                        lines[i].equals(FADE_IN)? "0.0" : "1",
+                        nad.defs, INTERP + lines[i]));
+            }
+            nad.nodes.add(x3dOf.createShape().withRest(
+                    x3dOf.createAppearance()
+                        .withAppearanceChildContentModel(material),
+                    x3dOf.createIndexedLineSet()
+                        .withColorPerVertex(false)
+                        .withCoordIndex(coordIndex[i].toString())
+                        .withRest(
+                            x3dOf.createColor()
+                                .withColor(lineColors[i].toString()),
+                            getRxnCoordinate(nad, from.toString()))));
+        }
+        nad.nodes.add(ts);
+        if (nad.defs.containsKey(RXN_COORDS)){
+            nad.nodes.addAll(getAnimation(ts, key, nad.defs.get(RXN_COORDS),
+                    POINT, from, to, nad.defs, INTERP + POINT));
+        }
+        nad.nodes.addAll(anim);
+        nad.nodes.add(getViewpoint(aab[0]));
+        return nad.nodes;
+    }
+
+    /**
+     * Gets the <code>Coordinate</code> node shared by atoms and bonds when a
+     * reaction is animated as in {@link AnimationMode#COORDINATES}.
+     * @param nad the nodes and DEFs of the reaction.
+     * @param points the points of the coordinate, if not created yet.
+     * @return the coordinate with its DEF the first time, a USE of it the
+     *      following ones.
+     */
+    private Coordinate getRxnCoordinate(NodesAndDefs nad, String points) {
+        if (nad.defs.containsKey(RXN_COORDS)){
+            return x3dOf.createCoordinate().withUSE(nad.defs.get(RXN_COORDS));
+        }
+        final Coordinate coord = x3dOf.createCoordinate()
+                .withDEF(RXN_COORDS).withPoint(points);
+        nad.defs.put(RXN_COORDS, coord);
+        return coord;
+    }
+
+    /**
+     * Adds one bond to the lines of an <code>IndexedLineSet</code>.
+     * @param bond the bond.
+     * @param points the index of every atom (atom-atom mapping) among the
+     *      points of the coordinate.
+     * @param coordIndex the indices of the lines.
+     * @param colors the colors of the lines.
+     */
+    private void addLine(Bond bond, Map<Integer, Integer> points,
+            StringBuilder coordIndex, StringBuilder colors) {
+        final Integer p1 = points.get(bond.getFromAtom());
+        final Integer p2 = points.get(bond.getToAtom());
+        if (p1 == null || p2 == null){
+            return;
+        }
+        if (colors.length() > 0){
+            coordIndex.append(' ');
+            colors.append(' ');
+        }
+        coordIndex.append(p1).append(' ').append(p2).append(" -1");
+        colors.append(conf.getBondColor(bond.getType()));
+    }
+
+    /**
+     * Finds the reactant bonds which fade out during the animation of a
+     * reaction, either because they are broken or because they change type.
+     * @param aab the objects encapsulating atoms and bonds ([0] for reactants,
+     *      [1] for products).
+     * @return the full labels of the fading reactant bonds.
+     */
+    private Set<String> getFadingBonds(AtomsAndBonds[] aab) {
+        Set<String> fading = new HashSet<>();
+        for (Bond rBond : aab[0].getBonds().values()) {
+            Bond pBond = aab[1].getBonds().get(rBond.getLabel());
+            if (pBond == null || rBond.getType() != pBond.getType()){
+                fading.add(rBond.getFullLabel());
+            }
+        }
+        return fading;
+    }
+
     /**
      * Translates and rotates an X3D node.
      * @param rNad object to add the animations to.
@@ -581,8 +2561,8 @@ public class X3DGenerator {
      * @param toRo final rotation.
      */
     private void moveAndRotate(NodesAndDefs rNad, final TimeSensor ts,
-            final String key, final X3DNode target, String fromTr, String toTr,
-            String fromRo, String toRo) {
+            final String key, final X3DNode target, Point fromTr, Point toTr,
+            Rotation fromRo, Rotation toRo) {
         rNad.nodes.addAll(getAnimation(ts, key, target,
                 TRANSLATION, fromTr, toTr, rNad.defs,
                 INTERP + TRANSLATION + "_" + target.getDEF()));
@@ -606,7 +2586,8 @@ public class X3DGenerator {
             final String key) {
         Bond pBond = aab[1].getBonds().get(bl);
         Transform tr =
-                getBondTransform(pBond, rNad.defs, display, aab[1]);
+                getBondTransform(pBond, rNad.defs, display, aab[1], true,
+                        null);
         final String trDef = pBond.getFullLabel();
         tr.setDEF(trDef);
         rNad.nodes.add(tr);
@@ -626,7 +2607,8 @@ public class X3DGenerator {
      * @param target the object being animated.
      * @param field the field which changes during the animation.
      * @param fromValue the initial value of the <code>field</code> at the
-     *      beginning of the animation.
+     *      beginning of the animation: a {@link Point}, a {@link Rotation}, a
+     *      scalar or a list of points.
      * @param toValue the final value of the <code>field</code> at the end of
      *      the animation.
      * @param defs map of DEFs already created, to reuse any existing
@@ -636,7 +2618,40 @@ public class X3DGenerator {
      *      Interpolator already exists among the <code>defs</code>).
      */
     private Collection<Serializable> getAnimation(TimeSensor ts, String key,
-            X3DNode target, String field, String fromValue, String toValue,
+            X3DNode target, String field, Object fromValue, Object toValue,
+            Map<String, X3DNode> defs, String interpDef){
+        String keyValue = null;
+        if (!defs.containsKey(interpDef)){
+            // formatted once, both values twice (see key):
+            final String from = fromValue.toString();
+            final String to = toValue.toString();
+            keyValue = new StringBuilder(
+                    2 * (from.length() + to.length()) + 3)
+                    .append(from).append(' ').append(from).append(' ')
+                    .append(to).append(' ').append(to).toString();
+        }
+        return getAnimation(ts, key, target, field, keyValue, defs,
+                interpDef);
+    }
+
+    /**
+     * Builds one Interpolator and two ROUTEs to animate an object through
+     * any number of values.
+     * @param ts the TimeSensor triggering the animation.
+     * @param key the fractions of time defining the animation.
+     * @param target the object being animated.
+     * @param field the field which changes during the animation.
+     * @param keyValue the values of the <code>field</code> for every
+     *      fraction of the <code>key</code>. Ignored if the Interpolator
+     *      already exists.
+     * @param defs map of DEFs already created, to reuse any existing
+     *      Interpolator.
+     * @param interpDef DEF for the interpolator to use.
+     * @return The Interpolator and two ROUTEs (or just the second ROUTE if the
+     *      Interpolator already exists among the <code>defs</code>).
+     */
+    private Collection<Serializable> getAnimation(TimeSensor ts, String key,
+            X3DNode target, String field, String keyValue,
             Map<String, X3DNode> defs, String interpDef){
         Collection<Serializable> anim = new ArrayList<>();
         X3DInterpolatorNode interp = null;
@@ -647,19 +2662,21 @@ public class X3DGenerator {
         } else {
             switch (field) {
                 case TRANSLATION:
+                case SCALE:
                     interp = x3dOf.createPositionInterpolator()
-                            .withKeyValue(fromValue + " " + fromValue + " "
-                                    + toValue + " " + toValue);
+                            .withKeyValue(keyValue);
                     break;
                 case ROTATION:
                     interp = x3dOf.createOrientationInterpolator()
-                            .withKeyValue(fromValue + " " + fromValue + " "
-                                    + toValue + " " + toValue);
+                            .withKeyValue(keyValue);
                     break;
                 case TRANSPARENCY:
                     interp = x3dOf.createScalarInterpolator()
-                            .withKeyValue(fromValue + " " + fromValue + " "
-                                    + toValue + " " + toValue);
+                            .withKeyValue(keyValue);
+                    break;
+                case POINT:
+                    interp = x3dOf.createCoordinateInterpolator()
+                            .withKeyValue(keyValue);
                     break;
             }
             interp.setDEF(interpDef);
@@ -683,6 +2700,97 @@ public class X3DGenerator {
         return anim;
     }
 
+    /**
+     * The keys of an atom or bond along a trajectory. Only the frames where
+     * it moves are kept, each with one value per animated field.
+     */
+    private static class Track {
+
+        private final List<Integer> frames = new ArrayList<>();
+        private final List<Object[]> values = new ArrayList<>();
+        /**
+         * Position of the atom at its last key.
+         */
+        private Point ref;
+        /**
+         * Last frame with a key.
+         */
+        private int last;
+
+        /**
+         * Builds a track with its first key.
+         * @param ref the position of the atom, or <code>null</code> for a
+         *      bond.
+         * @param values the values of every field in the first frame.
+         */
+        Track(Point ref, Object... values) {
+            this.ref = ref;
+            this.frames.add(0);
+            this.values.add(values);
+        }
+
+        /**
+         * Adds a key. If the previous key is not the previous frame, its
+         * values are repeated in the previous frame, so that the object
+         * stays still until then.
+         * @param frame the frame.
+         * @param ref the new position of the atom, or <code>null</code> for a
+         *      bond.
+         * @param values the values of every field in the frame.
+         */
+        void add(int frame, Point ref, Object... values){
+            if (frame > last + 1){
+                frames.add(frame - 1);
+                this.values.add(this.values.get(this.values.size() - 1));
+            }
+            frames.add(frame);
+            this.values.add(values);
+            this.ref = ref;
+            last = frame;
+        }
+
+        boolean isAnimated(){
+            return frames.size() > 1;
+        }
+
+        /**
+         * Builds the key of the interpolators.
+         * @param lastFrame the last frame of the trajectory.
+         * @return the fractions of time of every key.
+         */
+        String getKey(int lastFrame){
+            StringBuilder key = new StringBuilder();
+            for (int frame : frames) {
+                key.append(frame == 0? "" : " ")
+                        .append((float) frame / lastFrame);
+            }
+            if (last < lastFrame){
+                key.append(" 1.0");
+            }
+            return key.toString();
+        }
+
+        /**
+         * Builds the key values of one field.
+         * @param lastFrame the last frame of the trajectory.
+         * @param field the index of the field.
+         * @return the values of the field for every fraction of the key.
+         */
+        String getKeyValue(int lastFrame, int field){
+            StringBuilder keyValue = new StringBuilder();
+            for (Object[] v : values) {
+                keyValue.append(keyValue.length() == 0? "" : " ")
+                        .append(v[field]);
+            }
+            if (last < lastFrame){
+                keyValue.append(' ')
+                        .append(values.get(values.size() - 1)[field]);
+            }
+            return keyValue.toString();
+        }
+
+    }
+
     /**
      * Inner class to encapsulate both the X3D nodes to be added to a scene and
      * the DEFs among them.
@@ -705,14 +2813,32 @@ public class X3DGenerator {
      *      <td><code>Transform</code> for one concrete bond.</td>
      *  </tr>
      *  <tr>
-     *      <td><code>APP_BOND4 | APP_BOND</code></td>
-     *      <td><code>Appearance</code> for bonds (aromatic | any other type).
-     *          </td>
+     *      <td>Bond type and display, with the <code>BOND_</code> prefix (ex.
+     *          <code>BOND_2_MIXED</code>, or <code>BOND_2_ALL</code> with
+     *          all displays).</td>
+     *      <td><code>Group</code> of unit-height cylinders shared by every
+     *          bond of that type.</td>
      *  </tr>
      *  <tr>
-     *      <td><code>MAT_BOND4 | MAT_BOND</code></td>
-     *      <td><code>Material</code> for bonds (aromatic | any other type).
-     *          </td>
+     *      <td>Display, with the <code>CYL_BOND_</code> prefix (ex.
+     *          <code>CYL_BOND_WIREFRAME</code>).</td>
+     *      <td><code>Cylinder</code> of unit height shared by every bond.</td>
+     *  </tr>
+     *  <tr>
+     *      <td>Display and level of detail, with the <code>CYL_BOND_</code>
+     *          prefix (ex. <code>CYL_BOND_MIXED_1</code>).</td>
+     *      <td>Tessellated cylinder of unit height shared by every bond at
+     *          that level of a <code>LOD</code>.</td>
+     *  </tr>
+     *  <tr>
+     *      <td><code>APP_BOND_</code> + bond type | bond full label</td>
+     *      <td><code>Appearance</code> for bonds (shared by type | own for a
+     *          fading bond).</td>
+     *  </tr>
+     *  <tr>
+     *      <td><code>MAT_BOND_</code> + bond type | bond full label</td>
+     *      <td><code>Material</code> for bonds (shared by type | own for a
+     *          fading bond).</td>
      *  </tr>
      * </table>
      */
@@ -736,4 +2862,28 @@ public class X3DGenerator {
 
     }
     
+    /**
+     * An atom or bond placed along a Morton curve.
+     */
+    private static class SpatialItem implements Comparable<SpatialItem> {
+
+        private final Object source;
+        private final int atomNum;
+        private final long code;
+        private final BoundingBox box = new BoundingBox();
+        private Serializable node;
+
+        SpatialItem(Object source, int atomNum, long code) {
+            this.source = source;
+            this.atomNum = atomNum;
+            this.code = code;
+        }
+
+        @Override
+        public int compareTo(SpatialItem o) {
+            return Long.compare(code, o.code);
+        }
+
+    }
+
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes to apply in place to an X3D scene rendered by
+ * {@link X3DGenerator} so that it shows a new version of the same structure
+ * (see {@link X3DGenerator#toUpdate(ctfile2x3d.ctfile.AtomsAndBonds,
+ * ctfile2x3d.ctfile.AtomsAndBonds, ctfile2x3d.Display, java.util.Map)
+ * toUpdate}).
+ * <br>
+ * The changes are applied in this order: first the nodes with the
+ * {@link #getRemoved() removed} DEFs are taken out of the scene, then the
+ * {@link #getFields() fields} of existing nodes are set and finally the
+ * {@link #getAdded() added} nodes are appended to the scene.
+ * {@link FastMarshaller#marshal(X3DUpdate, java.io.Writer)} writes it as
+ * an XML document, which the function <code>applyUpdate</code> of
+ * <code>ctfile2x3d.js</code> applies to an X3DOM scene.
+ * @author rafa
+ */
+public class X3DUpdate {
+
+    /**
+     * The content type of the XML document.
+     */
+    public static final String CONTENT_TYPE = "application/xml";
+
+    private final List<String> removed = new ArrayList<>();
+    private final Map<String, Map<String, String>> fields =
+            new LinkedHashMap<>();
+    private final List<Serializable> added = new ArrayList<>();
+
+    /**
+     * Removes a node from the scene.
+     * @param def the DEF of the node.
+     */
+    void remove(String def){
+        removed.add(def);
+    }
+
+    /**
+     * Sets a field of a node.
+     * @param def the DEF of the node.
+     * @param field the name of the field.
+     * @param value the new value of the field.
+     */
+    void set(String def, String field, String value){
+        Map<String, String> values = fields.get(def);
+        if (values == null){
+            values = new LinkedHashMap<>();
+            fields.put(def, values);
+        }
+        values.put(field, value);
+    }
+
+    /**
+     * Adds a node to the scene.
+     * @param node the top-level node to add.
+     */
+    void add(Serializable node){
+        added.add(node);
+    }
+
+    /**
+     * Gets the DEFs of the nodes to remove.
+     * @return the DEFs, in order.
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Gets the fields to set.
+     * @return the new values of the fields, by field name, by DEF of their
+     *      node.
+     */
+    public Map<String, Map<String, String>> getFields() {
+        return fields;
+    }
+
+    /**
+     * Gets the nodes to add.
+     * @return the top-level nodes, in order. Their USEs only refer to DEFs
+     *      in nodes which are kept or added before them.
+     */
+    public List<Serializable> getAdded() {
+        return added;
+    }
+
+    /**
+     * Checks whether the update changes anything at all.
+     * @return <code>true</code> if there is nothing to remove, set or add.
+     */
+    public boolean isEmpty(){
+        return removed.isEmpty() && fields.isEmpty() && added.isEmpty();
+    }
+
+}
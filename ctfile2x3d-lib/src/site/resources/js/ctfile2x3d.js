@@ -107,7 +107,21 @@ function showMixed(){
     setScale('BondCylinderTransform', 0.5);
 }
 
+var DISPLAYS = ['WIREFRAME', 'STICKS', 'BALLS_STICKS', 'SPACEFILL', 'MIXED'];
+
+function chooseDisplay(display){
+    var nodes = document.getElementsByClassName('DisplaySwitch');
+    var choice = DISPLAYS.indexOf(display);
+    for (var i = 0; i < nodes.length; i++){
+        nodes[i].setAttribute('whichChoice', choice);
+    }
+    return nodes.length > 0;
+}
+
 function setDisplay(display){
+    if (chooseDisplay(display)){
+        return;
+    }
     switch (display){
         case 'WIREFRAME':
             showWireframe();
@@ -126,3 +140,49 @@ function setDisplay(display){
             break;
     }
 }
+
+/**
+ * Finds the element of a scene with a DEF.
+ * @param {type} scene the Scene element.
+ * @param {type} def the DEF.
+ * @returns {Element} the element, or null if there is none.
+ */
+function findDef(scene, def){
+    return scene.querySelector('[DEF="' + def + '"]');
+}
+
+/**
+ * Applies an update document, as written by the servlet for an edited
+ * structure, to the scene rendering its previous version: removes nodes,
+ * sets fields and adds nodes, in that order.
+ * @param {type} scene the Scene element.
+ * @param {type} update the update document (an XML Document).
+ * @returns {undefined}
+ */
+function applyUpdate(scene, update){
+    var changes = update.documentElement.children;
+    for (var i = 0; i < changes.length; i++){
+        var change = changes[i];
+        if (change.localName === 'add'){
+            while (change.firstElementChild){
+                scene.appendChild(document.importNode(
+                        change.removeChild(change.firstElementChild), true));
+            }
+            continue;
+        }
+        var node = findDef(scene, change.getAttribute('DEF'));
+        if (!node){
+            continue;
+        }
+        if (change.localName === 'remove'){
+            node.parentNode.removeChild(node);
+        } else if (change.localName === 'set'){
+            for (var j = 0; j < change.attributes.length; j++){
+                var field = change.attributes[j];
+                if (field.name !== 'DEF'){
+                    node.setAttribute(field.name, field.value);
+                }
+            }
+        }
+    }
+}
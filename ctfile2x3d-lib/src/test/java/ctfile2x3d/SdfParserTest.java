@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import org.junit.Test;
+import org.web3d.x3d.PositionInterpolator;
+import org.web3d.x3d.X3D;
+
+/**
+ *
+ * @author rafa
+ */
+public class SdfParserTest {
+
+    private static String atomLine(double x, double y, String symbol){
+        return String.format(java.util.Locale.ROOT, "%10.4f%10.4f%10.4f %-3s"
+                + " 0  0  0  0  0  0  0  0  0  0  0  0\n", x, y, 0.0, symbol);
+    }
+
+    private static String record(double x3){
+        return "frame\n  test\n\n"
+                + "  3  2  0  0  0  0  0  0  0  0999 V2000\n"
+                + atomLine(0, 0, "C") + atomLine(0, 1, "C")
+                + atomLine(x3, 1, "O")
+                + "  1  2  1  0  0  0  0\n"
+                + "  2  3  2  0  0  0  0\n"
+                + "M  END\n> <energy>\n-1.0\n\n$$$$\n";
+    }
+
+    static PositionInterpolator getInterpolator(X3D x3d, String def){
+        for (Serializable node : x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat()) {
+            if (node instanceof PositionInterpolator
+                    && def.equals(((PositionInterpolator) node).getDEF())){
+                return (PositionInterpolator) node;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        System.out.println("parse");
+        InputStream is = new ByteArrayInputStream(
+                (record(1) + record(1) + record(2)).getBytes("UTF-8"));
+        X3D x3d = new SdfParser(new CTFile2X3DConfig())
+                .parse(is, Display.MIXED);
+        PositionInterpolator pi =
+                getInterpolator(x3d, "INTERP_translation_AAM3");
+        assertNotNull(pi);
+        assertEquals("0.0 0.5 1.0", pi.getKey());
+        // every frame centered like the first one:
+        assertEquals("0.5 0.5 0.0 0.5 0.5 0.0 1.5 0.5 0.0", pi.getKeyValue());
+        assertNotNull(getInterpolator(x3d, "INTERP_translation_2-3_2"));
+    }
+
+}
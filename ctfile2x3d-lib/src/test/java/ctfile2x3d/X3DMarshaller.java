@@ -17,6 +17,7 @@
 
 package ctfile2x3d;
 
+import ctfile2x3d.x3d.BinaryGeometry;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -30,7 +31,7 @@ public class X3DMarshaller {
 
     public static void marshallToSystemOut(Object jaxbObj)
     throws JAXBException, PropertyException {
-        JAXBContext jc = JAXBContext.newInstance("org.web3d.x3d");
+        JAXBContext jc = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
         Marshaller m = jc.createMarshaller();
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
         m.marshal(jaxbObj, System.out);
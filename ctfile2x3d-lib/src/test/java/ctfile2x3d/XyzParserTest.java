@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+import org.web3d.x3d.PositionInterpolator;
+import org.web3d.x3d.X3D;
+
+/**
+ *
+ * @author rafa
+ */
+public class XyzParserTest {
+
+    private final XyzParser instance = new XyzParser(new CTFile2X3DConfig());
+
+    @Test
+    public void testParse() throws IOException {
+        System.out.println("parse");
+        InputStream is = new ByteArrayInputStream(("2\nwater?\n"
+                + "O 0.0 0.0 0.0\nH\t0.0 1.0 0.0\n"
+                + "2\n\n O 0.0 0.0 0.0\n H 0.0 1.5 0.0\n\n").getBytes("UTF-8"));
+        X3D x3d = instance.parse(is, Display.MIXED);
+        assertNull(SdfParserTest.getInterpolator(x3d,
+                "INTERP_translation_AAM1"));
+        PositionInterpolator pi = SdfParserTest.getInterpolator(x3d,
+                "INTERP_translation_AAM2");
+        assertEquals("0.0 1.0", pi.getKey());
+        assertEquals("0.0 0.5 0.0 0.0 1.0 0.0", pi.getKeyValue());
+    }
+
+    @Test(expected = IOException.class)
+    public void testParse_wrongLine() throws IOException {
+        System.out.println("parse - wrong line");
+        instance.parse(new ByteArrayInputStream("2\n\nO 0 0 0\nH 0 1\n"
+                .getBytes("UTF-8")), Display.MIXED);
+    }
+
+}
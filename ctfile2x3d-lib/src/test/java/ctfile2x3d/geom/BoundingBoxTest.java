@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class BoundingBoxTest {
+
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        BoundingBox box = new BoundingBox();
+        assertTrue(box.isEmpty());
+        box.add(new Point(0, 0, 0), 1);
+        box.add(new BoundingBox().add(new Point(4, 2, 0), 0));
+        assertFalse(box.isEmpty());
+        assertEquals(new Point(1.5, 0.5, 0), box.getCentre());
+        assertEquals(new Vector(5, 3, 2), box.getSize());
+    }
+
+    @Test
+    public void testGetMortonCode() {
+        System.out.println("getMortonCode");
+        BoundingBox box = new BoundingBox()
+                .add(new Point(0, 0, 0), 0).add(new Point(1, 1, 1), 0);
+        assertEquals(0L, box.getMortonCode(new Point(0, 0, 0)));
+        assertEquals((1L << 63) - 1, box.getMortonCode(new Point(1, 1, 1)));
+        // the highest bit of each axis:
+        assertEquals(1L << 60, box.getMortonCode(new Point(0.5, 0, 0)));
+        assertEquals(1L << 61, box.getMortonCode(new Point(0, 0.5, 0)));
+        assertEquals(1L << 62, box.getMortonCode(new Point(0, 0, 0.5)));
+        // neighbours stay closer along the curve than distant points:
+        final long a = box.getMortonCode(new Point(0.1, 0.1, 0.1));
+        final long b = box.getMortonCode(new Point(0.11, 0.1, 0.1));
+        final long c = box.getMortonCode(new Point(0.9, 0.1, 0.1));
+        assertTrue(Math.abs(a - b) < Math.abs(a - c));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.geom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class MeshTest {
+
+    @Test
+    public void testGetSphere() {
+        System.out.println("getSphere");
+        Mesh sphere = Mesh.getSphere(2, 8);
+        // 5 rings of 9 vertices (seam duplicated):
+        assertEquals(45, sphere.getVertexCount());
+        // 8 triangles at each pole, 16 in each of the 2 middle stacks:
+        assertEquals(48, sphere.getTriangleCount());
+        float[] c = sphere.getCoordinates();
+        float[] n = sphere.getNormals();
+        for (int i = 0; i < c.length; i += 3) {
+            assertEquals(2, Math.sqrt(c[i]*c[i] + c[i+1]*c[i+1] + c[i+2]*c[i+2]),
+                    1e-5);
+            assertEquals(c[i] / 2, n[i], 1e-5);
+        }
+        assertOutwards(sphere);
+    }
+
+    @Test
+    public void testGetCylinder() {
+        System.out.println("getCylinder");
+        Mesh cylinder = Mesh.getCylinder(0.5f, 1, 6);
+        assertEquals(2 * 7 + 2 * 8, cylinder.getVertexCount());
+        assertEquals(2 * 6 + 2 * 6, cylinder.getTriangleCount());
+        assertOutwards(cylinder);
+    }
+
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        Mesh cylinder = Mesh.getCylinder(0.5f, 1, 6);
+        Mesh mesh = new Mesh();
+        mesh.add(cylinder, new Point(1, 0, 0));
+        // rotated to lie along the X axis and stretched:
+        mesh.add(cylinder, new Vector(1, 4, 1), new Vector(0, 0, -1),
+                Math.PI / 2, new Point(0, 0, 0));
+        assertEquals(2 * cylinder.getVertexCount(), mesh.getVertexCount());
+        assertEquals(2 * cylinder.getTriangleCount(), mesh.getTriangleCount());
+        float[] c = mesh.getCoordinates();
+        // first vertex of the first copy: top of the side
+        assertEquals(1.5, c[0], 1e-5);
+        assertEquals(0.5, c[1], 1e-5);
+        // first vertex of the second copy: (0.5, 2, 0) rotated
+        final int i = 3 * cylinder.getVertexCount();
+        assertEquals(2, c[i], 1e-5);
+        assertEquals(-0.5, c[i+1], 1e-5);
+        assertEquals(0, c[i+2], 1e-5);
+        int[] idx = mesh.getIndices();
+        assertEquals(cylinder.getVertexCount(),
+                idx[3 * cylinder.getTriangleCount()]);
+        assertOutwards(mesh);
+    }
+
+    /**
+     * Checks that the triangles of a convex mesh, or of a set of them, are
+     * counter-clockwise when seen from the outside.
+     * @param mesh the mesh.
+     */
+    private void assertOutwards(Mesh mesh) {
+        float[] c = mesh.getCoordinates();
+        float[] n = mesh.getNormals();
+        int[] idx = mesh.getIndices();
+        for (int t = 0; t < idx.length; t += 3) {
+            Point p1 = new Point(c[3*idx[t]], c[3*idx[t]+1], c[3*idx[t]+2]);
+            Point p2 = new Point(c[3*idx[t+1]], c[3*idx[t+1]+1], c[3*idx[t+1]+2]);
+            Point p3 = new Point(c[3*idx[t+2]], c[3*idx[t+2]+1], c[3*idx[t+2]+2]);
+            Vector face = Vector.getNormal(p1, p2, p3);
+            Vector vertex = new Vector(
+                    n[3*idx[t]], n[3*idx[t]+1], n[3*idx[t]+2]);
+            assertTrue(Vector.getDotProduct(face, vertex) >= 0);
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.geom;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class RotationTest {
+
+    @Test
+    public void testGetRotation() {
+        System.out.println("getRotation");
+        Rotation result = Rotation.getRotation(
+                new Vector(0, 1, 0), new Vector(0, 0, 1));
+        assertEquals(new Vector(1, 0, 0), result.getAxis());
+        assertEquals(Math.PI / 2, result.getAngle(), 1e-12);
+        assertEquals("1.0 0.0 0.0 " + Math.PI / 2, result.toString());
+    }
+
+    @Test
+    public void testGetVerticalRotation() {
+        System.out.println("getVerticalRotation");
+        Rotation result = Rotation.getVerticalRotation(new Vector(0, 0, 2));
+        assertEquals(new Vector(2, 0, 0), result.getAxis());
+        assertEquals(Math.PI / 2, result.getAngle(), 1e-12);
+        // upside down, around any horizontal axis:
+        result = Rotation.getVerticalRotation(new Vector(0, -1, 0));
+        assertEquals(new Vector(1, 0, 0), result.getAxis());
+        assertEquals(Math.PI, result.getAngle(), 1e-12);
+        // no direction at all:
+        result = Rotation.getVerticalRotation(new Vector(0, 0, 0));
+        assertEquals(0, result.getAngle(), 0);
+        assertEquals(new Vector(1, 0, 0),
+                result.rotate(new Vector(1, 0, 0)));
+    }
+
+}
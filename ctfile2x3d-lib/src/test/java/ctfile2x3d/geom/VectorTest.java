@@ -85,5 +85,20 @@ public class VectorTest {
         result = Vector.getNormal(v1, v2);
         assertEquals(expResult, result);
     }
+
+    @Test
+    public void testRotate() {
+        System.out.println("rotate");
+        Vector result = Vector.rotate(new Vector(1, 0, 0),
+                new Vector(0, 0, 2), Math.PI / 2);
+        assertEquals(0, result.getX(), 1e-9);
+        assertEquals(1, result.getY(), 1e-9);
+        assertEquals(0, result.getZ(), 1e-9);
+        result = Vector.rotate(new Vector(0, 1, 0),
+                new Vector(1, 0, 0), Math.PI);
+        assertEquals(0, result.getX(), 1e-9);
+        assertEquals(-1, result.getY(), 1e-9);
+        assertEquals(0, result.getZ(), 1e-9);
+    }
     
 }
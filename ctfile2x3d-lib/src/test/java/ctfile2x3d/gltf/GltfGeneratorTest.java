@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.gltf;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.MolParser;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import ctfile2x3d.x3d.DisplayStyle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class GltfGeneratorTest {
+
+    private final GltfGenerator instance =
+            new GltfGenerator(new CTFile2X3DConfig());
+
+    private static int count(String json, String regex){
+        Matcher m = Pattern.compile(regex).matcher(json);
+        int n = 0;
+        while (m.find()){
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Checks the structure of a GLB file.
+     * @param glb the GLB file.
+     * @return the JSON chunk.
+     */
+    private static String checkGlb(byte[] glb){
+        ByteBuffer bb = ByteBuffer.wrap(glb).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x46546C67, bb.getInt());
+        assertEquals(2, bb.getInt());
+        assertEquals(glb.length, bb.getInt());
+        final int jsonLength = bb.getInt();
+        assertEquals(0, jsonLength % 4);
+        assertEquals(0x4E4F534A, bb.getInt());
+        final String json = new String(glb, bb.position(), jsonLength,
+                StandardCharsets.UTF_8).trim();
+        bb.position(bb.position() + jsonLength);
+        assertTrue(json.startsWith("{\"asset\":{\"version\":\"2.0\""));
+        assertTrue(json.endsWith("}"));
+        if (bb.hasRemaining()){
+            final int binLength = bb.getInt();
+            assertEquals(0x004E4942, bb.getInt());
+            assertEquals(bb.remaining(), binLength);
+            Matcher m = Pattern.compile("\"buffers\":\\[\\{\"byteLength\":(\\d+)")
+                    .matcher(json);
+            assertTrue(m.find());
+            final int byteLength = Integer.parseInt(m.group(1));
+            assertTrue(byteLength <= binLength && binLength < byteLength + 4);
+        } else {
+            assertFalse(json.contains("\"buffers\""));
+        }
+        return json;
+    }
+
+    @Test
+    public void testToGlb() {
+        System.out.println("toGlb");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.setName("test \"name\"");
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(1.0, 1.0, 0.0, "O", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        aab.addBond(new Bond(2, 3, 1));
+        String json = checkGlb(instance.toGlb(aab, Display.BALLS_STICKS));
+        assertTrue(json.contains("\"name\":\"test \\\"name\\\"\""));
+        // two geometries, three accessors each:
+        assertEquals(6, count(json, "\"target\":"));
+        assertEquals(6, count(json, "\"bufferView\":"));
+        // C, O, bond1 and bond2:
+        assertEquals(4, count(json, "\"primitives\""));
+        assertEquals(4, count(json, "\"baseColorFactor\""));
+        // 3 atoms, 3 cylinders and the root:
+        assertEquals(7, count(json, "\\{\"mesh\":|\\{\"name\":\"test"));
+        // only the horizontal bond is rotated:
+        assertEquals(1, count(json, "\"rotation\""));
+        assertFalse(json.contains("BLEND"));
+    }
+
+    @Test
+    public void testToGlb_display() {
+        System.out.println("toGlb - display");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 0.0, 1.0, "N", 0));
+        aab.addBond(new Bond(1, 2, 3));
+        String json = checkGlb(instance.toGlb(aab, Display.STICKS));
+        assertEquals(3, count(json, "\"target\":"));
+        assertEquals(3, count(json, "\\{\"mesh\":"));
+        json = checkGlb(instance.toGlb(aab, Display.MIXED));
+        assertEquals(2, count(json, "\"alphaMode\":\"BLEND\""));
+        json = checkGlb(instance.toGlb(new AtomsAndBonds(), Display.MIXED));
+        assertFalse(json.contains("\"meshes\""));
+    }
+
+    @Test
+    public void testToGlb_mol() throws IOException {
+        System.out.println("toGlb - molecule");
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("ChEBI_28413.mol")) {
+            AtomsAndBonds aab = new MolParser(new CTFile2X3DConfig())
+                    .parseAtomsAndBonds(is);
+            String json = checkGlb(instance.toGlb(aab, Display.MIXED));
+            int cylinders = 0;
+            DisplayStyle style = new DisplayStyle(new CTFile2X3DConfig());
+            for (Bond bond : aab.getBonds().values()) {
+                cylinders += style.getBondOffsets(bond.getType()).length;
+            }
+            assertEquals(aab.getAtoms().size() + cylinders,
+                    count(json, "\\{\"mesh\":"));
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.image;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.MolParser;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class ThumbnailRendererTest {
+
+    private final ThumbnailRenderer instance =
+            new ThumbnailRenderer(new CTFile2X3DConfig());
+
+    private static int alpha(int argb){
+        return argb >>> 24;
+    }
+
+    private static int red(int argb){
+        return argb >> 16 & 0xFF;
+    }
+
+    private static int green(int argb){
+        return argb >> 8 & 0xFF;
+    }
+
+    private static AtomsAndBonds getCO(double ox, double oz){
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(-ox, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(ox, 0.0, oz, "O", 0));
+        aab.addBond(new Bond(1, 2, 1));
+        return aab;
+    }
+
+    @Test
+    public void testRender() {
+        System.out.println("render");
+        BufferedImage image = instance.render(getCO(1.0, 0.0),
+                Display.SPACEFILL, 64);
+        assertEquals(64, image.getWidth());
+        assertEquals(64, image.getHeight());
+        assertEquals(0, alpha(image.getRGB(0, 0)));
+        assertEquals(0, alpha(image.getRGB(32, 0)));
+        // oxygen on the right is red, carbon on the left is not:
+        final int o = image.getRGB(48, 32);
+        assertEquals(255, alpha(o));
+        assertTrue(red(o) > 2 * green(o));
+        final int c = image.getRGB(16, 32);
+        assertEquals(255, alpha(c));
+        assertTrue(red(c) < 2 * green(c));
+        // lit from the top left:
+        assertTrue(red(image.getRGB(44, 28)) > red(image.getRGB(52, 36)));
+    }
+
+    @Test
+    public void testRender_depth() {
+        System.out.println("render - depth");
+        // the oxygen in front hides the middle of the bond and the carbon:
+        BufferedImage image = instance.render(getCO(0.1, 2.0),
+                Display.SPACEFILL, 64);
+        final int o = image.getRGB(32, 32);
+        assertTrue(red(o) > 2 * green(o));
+    }
+
+    @Test
+    public void testRender_sticks() {
+        System.out.println("render - sticks");
+        BufferedImage image = instance.render(getCO(1.0, 0.0),
+                Display.STICKS, 64);
+        // one horizontal stick, with rounded ends:
+        assertEquals(255, alpha(image.getRGB(32, 32)));
+        assertEquals(255, alpha(image.getRGB(4, 32)));
+        assertEquals(255, alpha(image.getRGB(59, 32)));
+        assertEquals(0, alpha(image.getRGB(32, 20)));
+        assertEquals(0, alpha(image.getRGB(1, 29)));
+        // also seen along its axis:
+        image = instance.render(getCO(0.0, 2.0), Display.STICKS, 64);
+        assertEquals(255, alpha(image.getRGB(32, 32)));
+    }
+
+    @Test
+    public void testRender_transparent() {
+        System.out.println("render - transparent atoms");
+        BufferedImage image = instance.render(getCO(1.0, 0.0),
+                Display.MIXED, 64);
+        // transparent atoms blended over the background:
+        assertEquals(Math.round(255 * (1 - new CTFile2X3DConfig()
+                .getAtomTransparency())), alpha(image.getRGB(16, 24)));
+    }
+
+    @Test
+    public void testToPng() throws IOException {
+        System.out.println("toPng");
+        AtomsAndBonds aab;
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("ChEBI_28413.mol")) {
+            aab = new MolParser(new CTFile2X3DConfig())
+                    .parseAtomsAndBonds(is);
+        }
+        for (Display display : Display.values()) {
+            final long start = System.nanoTime();
+            byte[] png = instance.toPng(aab, display);
+            System.out.println(display + ": " + aab.getAtoms().size()
+                    + " atoms in " + (System.nanoTime() - start) / 1000000
+                    + " ms");
+            BufferedImage image =
+                    ImageIO.read(new ByteArrayInputStream(png));
+            assertEquals(128, image.getWidth());
+            assertEquals(128, image.getHeight());
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+                instance.toPng(new AtomsAndBonds(), Display.MIXED)));
+        assertEquals(0, alpha(image.getRGB(64, 64)));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.MolParser;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class DictionaryCodecTest {
+
+    private byte[] x3d;
+
+    @Before
+    public void setUp() throws IOException, JAXBException {
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("ChEBI_28413.mol")) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH)
+                    .createMarshaller().marshal(
+                            new MolParser(new CTFile2X3DConfig())
+                                    .parse(is, Display.MIXED), baos);
+            x3d = baos.toByteArray();
+        }
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        System.out.println("deflate");
+        final byte[] deflated = DictionaryCodec.deflate(x3d);
+        assertArrayEquals(x3d, DictionaryCodec.inflate(deflated));
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(gzip)) {
+            gzos.write(x3d);
+        }
+        System.out.println("XML: " + x3d.length + " bytes, gzipped: "
+                + gzip.size() + " bytes, with dictionary: "
+                + deflated.length + " bytes");
+        assertTrue(deflated.length < gzip.size() * 4 / 5);
+    }
+
+    @Test(expected = ZipException.class)
+    public void testInflate_otherDictionary() throws IOException {
+        System.out.println("inflate - other dictionary");
+        Deflater deflater = new Deflater();
+        deflater.setDictionary("<X3D>".getBytes("UTF-8"));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflaterOutputStream dos =
+                new DeflaterOutputStream(baos, deflater)) {
+            dos.write(x3d);
+        }
+        deflater.end();
+        DictionaryCodec.inflate(baos.toByteArray());
+    }
+
+    @Test
+    public void testTrain() throws IOException, JAXBException {
+        System.out.println("train");
+        X3DGenerator x3dGen = new X3DGenerator(new CTFile2X3DConfig());
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            AtomsAndBonds aab = new AtomsAndBonds();
+            aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+            aab.addAtom(new Atom(1.5 + i, 0.0, 0.0, "O", 0));
+            aab.addBond(new Bond(1, 2, 2));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH)
+                    .createMarshaller()
+                    .marshal(x3dGen.toX3D(aab, Display.MIXED), baos);
+            samples.add(baos.toByteArray());
+        }
+        final byte[] dictionary = DictionaryCodec.train(samples, 4096);
+        assertTrue(dictionary.length <= 4096);
+        final String s = new String(dictionary, "UTF-8");
+        assertTrue(s.contains(" class=\"AtomSphereTransform\">"));
+        // specific to each sample:
+        assertFalse(s.contains("translation=\"1.5"));
+        assertFalse(s.contains("translation=\"2.5"));
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3d.x3d.X3D;
+
+/**
+ *
+ * @author rafa
+ */
+public class ExiMarshallerTest {
+
+    private static JAXBContext jc;
+    private X3D x3d;
+
+    @Before
+    public void setUp() {
+        x3d = new X3DGenerator(new CTFile2X3DConfig())
+                .toX3D(RandomChain.build(500, 20), Display.MIXED);
+    }
+
+    @Test
+    public void testMarshal() throws JAXBException, IOException {
+        System.out.println("marshal");
+        ExiMarshaller instance = new ExiMarshaller(false);
+        ByteArrayOutputStream exi = new ByteArrayOutputStream();
+        instance.marshal(x3d, exi);
+        X3D result = instance.unmarshal(
+                new ByteArrayInputStream(exi.toByteArray()));
+        assertEquals(toXml(x3d), toXml(result));
+    }
+
+    /**
+     * Compares size and encoding time of plain XML, gzipped XML and EXI.
+     */
+    @Test
+    public void testMarshal_size() throws JAXBException, IOException {
+        System.out.println("marshal - size");
+        ExiMarshaller bitPacked = new ExiMarshaller(false);
+        ExiMarshaller compressed = new ExiMarshaller(true);
+        // warm up, building the JAXB context and the EXI grammars:
+        toXml(x3d);
+        bitPacked.marshal(x3d, new ByteArrayOutputStream());
+        compressed.marshal(x3d, new ByteArrayOutputStream());
+        long start = System.nanoTime();
+        final byte[] xml = toXml(x3d).getBytes("UTF-8");
+        final long xmlTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(gzip)) {
+            gzos.write(toXml(x3d).getBytes("UTF-8"));
+        }
+        final long gzipTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        ByteArrayOutputStream exi = new ByteArrayOutputStream();
+        bitPacked.marshal(x3d, exi);
+        final long exiTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        ByteArrayOutputStream exiCompressed = new ByteArrayOutputStream();
+        compressed.marshal(x3d, exiCompressed);
+        final long exiCompressedTime = System.nanoTime() - start;
+        System.out.println("XML: " + xml.length + " bytes, "
+                + xmlTime / 1000000 + " ms");
+        System.out.println("gzipped XML: " + gzip.size() + " bytes, "
+                + gzipTime / 1000000 + " ms");
+        System.out.println("EXI: " + exi.size() + " bytes, "
+                + exiTime / 1000000 + " ms");
+        System.out.println("compressed EXI: " + exiCompressed.size()
+                + " bytes, " + exiCompressedTime / 1000000 + " ms");
+        assertTrue(exi.size() < xml.length);
+        assertTrue(exiCompressed.size() < gzip.size());
+    }
+
+    private static String toXml(X3D x3d) throws JAXBException {
+        if (jc == null){
+            jc = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
+        }
+        Marshaller m = jc.createMarshaller();
+        StringWriter sw = new StringWriter();
+        m.marshal(x3d, sw);
+        return sw.toString();
+    }
+
+}
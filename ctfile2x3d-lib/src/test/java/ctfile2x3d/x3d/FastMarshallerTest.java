@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.AnimationMode;
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import ctfile2x3d.GeometryMode;
+import ctfile2x3d.MolParser;
+import ctfile2x3d.RxnParser;
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.HashMap;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3d.x3d.X3D;
+
+/**
+ *
+ * @author rafa
+ */
+public class FastMarshallerTest {
+
+    private JAXBContext jc;
+    private FastMarshaller instance;
+
+    @Before
+    public void setUp() throws JAXBException {
+        jc = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
+        instance = new FastMarshaller();
+    }
+
+    private void assertSameXml(X3D x3d) throws JAXBException, IOException {
+        Marshaller m = jc.createMarshaller();
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+        StringWriter expected = new StringWriter();
+        m.marshal(x3d, expected);
+        StringWriter result = new StringWriter();
+        instance.marshal(x3d, result);
+        assertEquals(expected.toString(), result.toString());
+    }
+
+    @Test
+    public void testMarshal_mol() throws JAXBException, IOException {
+        System.out.println("marshal - molecule");
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("ChEBI_28413.mol")) {
+            assertSameXml(new MolParser(new CTFile2X3DConfig())
+                    .parse(is, Display.MIXED));
+        }
+    }
+
+    @Test
+    public void testMarshal_rxn() throws Exception {
+        System.out.println("marshal - reaction");
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("21881_ordered.rxn")) {
+            assertSameXml(new RxnParser(new CTFile2X3DConfig())
+                    .parse(is, Display.MIXED));
+        }
+        CTFile2X3DConfig conf = new CTFile2X3DConfig();
+        conf.setRxnAnimationMode(AnimationMode.COORDINATES);
+        try (InputStream is = getClass().getClassLoader()
+                .getResourceAsStream("21881_ordered.rxn")) {
+            assertSameXml(new RxnParser(conf).parse(is, Display.MIXED));
+        }
+    }
+
+    @Test
+    public void testMarshal_modes() throws JAXBException, IOException {
+        System.out.println("marshal - generator modes");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(1.0, 1.0, 0.0, "O & <Xx>", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        aab.addBond(new Bond(2, 3, 1));
+        for (GeometryMode mode : GeometryMode.values()) {
+            CTFile2X3DConfig conf = new CTFile2X3DConfig();
+            conf.setGeometryMode(mode);
+            conf.setBinaryUrlPattern("buffer?name={0}");
+            conf.setProtoUrlPattern("protos?d={0}&v={1}");
+            for (Display display : Display.values()) {
+                assertSameXml(new X3DGenerator(conf).toX3D(aab, display));
+            }
+        }
+        CTFile2X3DConfig conf = new CTFile2X3DConfig();
+        conf.setLodRanges("2 6");
+        conf.setAllDisplays(true);
+        conf.setDisplaySwitchable(true);
+        assertSameXml(new X3DGenerator(conf).toX3D(aab, Display.MIXED));
+        assertSameXml(new X3DGenerator(conf).toTiledRoot(
+                new TiledModel(aab, 2), "tiled", Display.MIXED));
+        conf.setLabelAtlas(true);
+        assertSameXml(new X3DGenerator(conf).toX3D(aab, Display.MIXED));
+    }
+
+    @Test
+    public void testMarshal_update() throws JAXBException, IOException {
+        System.out.println("marshal - update");
+        AtomsAndBonds before = new AtomsAndBonds();
+        before.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        before.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        before.addAtom(new Atom(1.0, 0.0, 0.0, "C", 0));
+        before.addBond(new Bond(1, 2, 1));
+        AtomsAndBonds after = new AtomsAndBonds();
+        after.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        after.addAtom(new Atom(0.0, 2.0, 0.0, "O", 0));
+        after.addAtom(new Atom(1.0, 0.0, 0.0, "C", 0));
+        after.addAtom(new Atom(1.0, 1.0, 0.0, "C", 0));
+        after.addBond(new Bond(1, 2, 1));
+        X3DUpdate update = new X3DGenerator(new CTFile2X3DConfig())
+                .toUpdate(before, after, Display.MIXED,
+                        new HashMap<String, String>());
+        StringWriter sw = new StringWriter();
+        instance.marshal(update, sw);
+        final String xml = sw.toString();
+        assertTrue(xml, xml.startsWith("<?xml version=\"1.0\" "
+                + "encoding=\"UTF-8\" standalone=\"yes\"?><update>"
+                + "<remove DEF=\"AAM2\"/><set DEF=\"1-2_1\" translation="
+                + "\"0.0 1.0 0.0\" rotation=\"0.0 0.0 0.0 0.0\" scale="
+                + "\"1 2.0 1\"/><add><Switch whichChoice=\"-1\" "
+                + "DEF=\"SHARED_O\"><Group DEF=\"O\">"));
+        assertTrue(xml, xml.contains("DEF=\"AAM2\"><Group USE=\"O\"/>"));
+        assertTrue(xml, xml.contains("DEF=\"AAM4\"><Group USE=\"C\"/>"));
+        assertTrue(xml, xml.endsWith("</add></update>"));
+    }
+
+    @Test
+    public void testMarshal_fallback() throws JAXBException, IOException {
+        System.out.println("marshal - fallback");
+        CTFile2X3DConfig conf = new CTFile2X3DConfig();
+        conf.setGeometryMode(GeometryMode.BINARY);
+        conf.setBinaryUrlPattern("buffer?name={0}");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        X3D x3d = new X3DGenerator(conf).toX3D(aab, Display.MIXED);
+        StringWriter sw = new StringWriter();
+        instance.marshal(x3d, sw);
+        assertTrue(sw.toString().contains("<BinaryGeometry "));
+        assertSameXml(x3d);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class ParallelGzipOutputStreamTest {
+
+    private static byte[] getData(int size) {
+        Random random = new Random(size);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append("<Transform DEF=\"AAM").append(sb.length())
+                    .append("\" translation=\"").append(random.nextFloat())
+                    .append(" 0.0 ").append(random.nextInt(100))
+                    .append("\"><Group USE=\"C\"/></Transform>");
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] gunzip(byte[] gz) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is =
+                new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                baos.write(buf, 0, n);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data, int blockSize)
+    throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream os = new ParallelGzipOutputStream(
+                baos, blockSize, Deflater.DEFAULT_COMPRESSION)) {
+            os.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Test of write method, with many blocks.
+     */
+    @Test
+    public void testWrite() throws IOException {
+        System.out.println("write");
+        byte[] data = getData(1000000);
+        byte[] result = gzip(data, 4096);
+        assertArrayEquals(data, gunzip(result));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream os = new GZIPOutputStream(baos)) {
+            os.write(data);
+        }
+        assertTrue(result.length + " " + baos.size(),
+                result.length < baos.size() * 1.05);
+    }
+
+    /**
+     * Test of write method, with blocks of different sizes.
+     */
+    @Test
+    public void testWrite_blockSizes() throws IOException {
+        System.out.println("write - block sizes");
+        byte[] data = getData(100000);
+        for (int blockSize : new int[]{ 7, 100, 99999, 100000, 100001,
+                ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE }) {
+            assertArrayEquals(data, gunzip(gzip(data, blockSize)));
+        }
+    }
+
+    /**
+     * Test of write method, byte by byte and in pieces crossing blocks.
+     */
+    @Test
+    public void testWrite_pieces() throws IOException {
+        System.out.println("write - pieces");
+        byte[] data = getData(50000);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream os = new ParallelGzipOutputStream(
+                baos, 1000, Deflater.BEST_SPEED)) {
+            for (int i = 0; i < 10000; i++) {
+                os.write(data[i]);
+            }
+            os.write(data, 10000, 777);
+            os.flush();
+            os.write(data, 10777, data.length - 10777);
+        }
+        assertArrayEquals(data, gunzip(baos.toByteArray()));
+    }
+
+    /**
+     * Test of finish method, without data.
+     */
+    @Test
+    public void testFinish_empty() throws IOException {
+        System.out.println("finish - empty");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ParallelGzipOutputStream os = new ParallelGzipOutputStream(baos);
+        os.finish();
+        os.finish();
+        assertArrayEquals(new byte[0], gunzip(baos.toByteArray()));
+    }
+
+}
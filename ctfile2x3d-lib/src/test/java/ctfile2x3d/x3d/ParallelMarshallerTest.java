@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.Display;
+import java.io.IOException;
+import java.io.StringWriter;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3d.x3d.Group;
+import org.web3d.x3d.ProfileNames;
+import org.web3d.x3d.Scene;
+import org.web3d.x3d.X3D;
+
+/**
+ *
+ * @author rafa
+ */
+public class ParallelMarshallerTest {
+
+    private JAXBContext jc;
+
+    @Before
+    public void setUp() throws JAXBException {
+        jc = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
+    }
+
+    @Test
+    public void testMarshal() throws JAXBException, IOException {
+        System.out.println("marshal");
+        X3D x3d = new X3DGenerator(new CTFile2X3DConfig())
+                .toX3D(RandomChain.build(1000, 50), Display.MIXED);
+        Marshaller m = jc.createMarshaller();
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+        StringWriter expected = new StringWriter();
+        m.marshal(x3d, expected);
+        StringWriter result = new StringWriter();
+        new ParallelMarshaller(jc, 100).marshal(x3d, result);
+        assertEquals(expected.toString(), result.toString());
+        result = new StringWriter();
+        new ParallelMarshaller(new FastMarshaller(jc), 100)
+                .marshal(x3d, result);
+        assertEquals(expected.toString(), result.toString());
+    }
+
+    @Test(expected = JAXBException.class)
+    public void testMarshal_useBeforeDef() throws JAXBException, IOException {
+        System.out.println("marshal - USE before DEF");
+        Group def = new Group().withDEF("G");
+        X3D x3d = new X3D().withProfile(ProfileNames.IMMERSIVE)
+                .withVersion("3.3").withScene(new Scene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(
+                        new Group().withUSE(def), def));
+        new ParallelMarshaller(jc, 1).marshal(x3d, new StringWriter());
+    }
+
+    @Test(expected = JAXBException.class)
+    public void testMarshal_useBeforeDefFast()
+    throws JAXBException, IOException {
+        System.out.println("marshal - USE before DEF, generated writers");
+        Group def = new Group().withDEF("G");
+        X3D x3d = new X3D().withProfile(ProfileNames.IMMERSIVE)
+                .withVersion("3.3").withScene(new Scene()
+                .withMetadataBooleanOrMetadataDoubleOrMetadataFloat(
+                        new Group().withUSE(def), def));
+        new ParallelMarshaller(new FastMarshaller(jc), 1)
+                .marshal(x3d, new StringWriter());
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.ctfile.Atom;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import java.util.Random;
+
+/**
+ * Builds the same pseudo-random chain of atoms for every test which needs a
+ * big structure.
+ * @author rafa
+ */
+final class RandomChain {
+
+    private static final String[] SYMBOLS = { "C", "C", "O", "N", "H" };
+
+    private RandomChain() {
+    }
+
+    /**
+     * Builds a chain of atoms of a few common elements, scattered in a cube,
+     * each bonded to the next one by a bond of a random type.
+     * @param size the number of atoms.
+     * @param extent the size of the cube.
+     * @return the atoms and bonds, always the same for the same arguments.
+     */
+    static AtomsAndBonds build(int size, double extent) {
+        AtomsAndBonds aab = new AtomsAndBonds();
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            aab.addAtom(new Atom(random.nextDouble() * extent,
+                    random.nextDouble() * extent, random.nextDouble() * extent,
+                    SYMBOLS[random.nextInt(SYMBOLS.length)], 0));
+            if (i > 0){
+                aab.addBond(new Bond(i, i + 1, 1 + random.nextInt(4)));
+            }
+        }
+        return aab;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ctfile2x3d.x3d;
+
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author rafa
+ */
+public class TiledModelTest {
+
+    @Test
+    public void testTiles() {
+        System.out.println("tiles");
+        AtomsAndBonds aab = RandomChain.build(1000, 20);
+        TiledModel instance = new TiledModel(aab, 300);
+        assertEquals(4, instance.getTileCount());
+        Set<Integer> atoms = new HashSet<>();
+        int bonds = 0;
+        for (int tile = 0; tile < instance.getTileCount(); tile++) {
+            assertTrue(instance.getAtoms(tile).size() <= 300);
+            atoms.addAll(instance.getAtoms(tile));
+            for (Bond bond : instance.getBonds(tile)) {
+                assertTrue(instance.getAtoms(tile)
+                        .contains(bond.getFromAtom()));
+                bonds++;
+            }
+        }
+        assertEquals(aab.getAtoms().keySet(), atoms);
+        assertEquals(aab.getBonds().size(), bonds);
+        assertEquals(0, new TiledModel(new AtomsAndBonds(), 300)
+                .getTileCount());
+    }
+
+}
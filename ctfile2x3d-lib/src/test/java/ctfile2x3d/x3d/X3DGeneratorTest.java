@@ -17,16 +17,68 @@
 
 package ctfile2x3d.x3d;
 
+import ctfile2x3d.AnimationMode;
 import ctfile2x3d.CTFile2X3DConfig;
 import ctfile2x3d.Display;
+import ctfile2x3d.GeometryMode;
 import ctfile2x3d.X3DMarshaller;
 import ctfile2x3d.ctfile.Atom;
 import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.ctfile.Bond;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.web3d.x3d.Appearance;
+import org.web3d.x3d.Billboard;
+import org.web3d.x3d.Color;
+import org.web3d.x3d.Coordinate;
+import org.web3d.x3d.CoordinateInterpolator;
+import org.web3d.x3d.ExternProtoDeclare;
+import org.web3d.x3d.Group;
+import org.web3d.x3d.ImageTexture;
+import org.web3d.x3d.IndexedLineSet;
+import org.web3d.x3d.IndexedTriangleSet;
+import org.web3d.x3d.Inline;
+import org.web3d.x3d.LOD;
+import org.web3d.x3d.Material;
+import org.web3d.x3d.OrientationInterpolator;
+import org.web3d.x3d.PointSet;
+import org.web3d.x3d.PositionInterpolator;
+import org.web3d.x3d.ProtoInstance;
+import org.web3d.x3d.Shape;
+import org.web3d.x3d.Switch;
+import org.web3d.x3d.Text;
+import org.web3d.x3d.TextureCoordinate;
+import org.web3d.x3d.Transform;
 import org.web3d.x3d.X3D;
+import org.web3d.x3d.X3DInterpolatorNode;
+import org.web3d.x3d.X3DNode;
 
 /**
  *
@@ -54,5 +106,823 @@ public class X3DGeneratorTest {
         X3D x3d = instance.toX3D(aab, Display.MIXED);
         X3DMarshaller.marshallToSystemOut(x3d);
     }
-    
+
+    @Test
+    public void testToX3D_sharedBonds() {
+        System.out.println("toX3D - shared bonds");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 2.0, "C", 0));
+        aab.addBond(new Bond(1, 2, 1));
+        aab.addBond(new Bond(2, 3, 1));
+        X3D x3d = instance.toX3D(aab, Display.MIXED);
+        Transform b1 = getTransform(x3d, "1-2_1");
+        Transform b2 = getTransform(x3d, "2-3_1");
+        assertEquals("1 1.0 1", b1.getScale());
+        assertEquals("1 2.0 1", b2.getScale());
+        Group g1 = (Group)
+                b1.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        Group g2 = (Group)
+                b2.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("BOND_1_MIXED", g1.getDEF());
+        assertSame(g1, g2.getUSE());
+        assertNull(g2.getDEF());
+    }
+
+    @Test
+    public void testToX3D_invisibleAtoms() {
+        System.out.println("toX3D - invisible atoms");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "O", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        Transform atom = getTransform(
+                instance.toX3D(aab, Display.WIREFRAME), "AAM1");
+        Group group = (Group)
+                atom.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        // only the label:
+        assertEquals(1, group
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .size());
+        atom = getTransform(instance.toX3D(aab, Display.STICKS), "AAM1");
+        assertTrue(atom.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .isEmpty());
+        
+        instance.conf.setDisplaySwitchable(true);
+        atom = getTransform(instance.toX3D(aab, Display.STICKS), "AAM1");
+        group = (Group)
+                atom.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        // both sphere and label:
+        assertEquals(2, group
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .size());
+    }
+
+    @Test
+    public void testToX3D_labelAtlas() throws IOException {
+        System.out.println("toX3D - label atlas");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "Cl", 0));
+        aab.addAtom(new Atom(1.0, 0.0, 0.0, "Xx", 0));
+        instance.conf.setLabelAtlas(true);
+        instance.conf.setAtlasUrlPattern("labels?v={0}");
+        X3D x3d = instance.toX3D(aab, Display.WIREFRAME);
+        final LabelAtlas atlas = instance.getLabelAtlas();
+        Shape label = getLabelShape(x3d, "AAM2");
+        ImageTexture texture = (ImageTexture) ((Appearance) label.getRest()
+                .get(0)).getAppearanceChildContentModel().get(1);
+        assertEquals(Arrays.asList("\"labels?v=" + atlas.getVersion()
+                + "\""), texture.getUrl());
+        IndexedTriangleSet quad = (IndexedTriangleSet) label.getRest().get(1);
+        assertEquals(atlas.getTexCoords("Cl"),
+                ((TextureCoordinate) quad.getComposedGeometryContentModel()
+                        .get(1)).getPoint());
+        assertFalse(atlas.getTexCoords("C").equals(atlas.getTexCoords("Cl")));
+        // the same texture for every label:
+        texture = (ImageTexture) ((Appearance) getLabelShape(x3d, "AAM1")
+                .getRest().get(0)).getAppearanceChildContentModel().get(1);
+        assertEquals(Arrays.asList("\"labels?v=" + atlas.getVersion()
+                + "\""), texture.getUrl());
+        // unsupported elements as text:
+        assertTrue(getLabelShape(x3d, "AAM3").getRest().get(1)
+                instanceof Text);
+        BufferedImage image = ImageIO.read(
+                new ByteArrayInputStream(atlas.getImage()));
+        assertEquals(8 * LabelAtlas.CELL_WIDTH, image.getWidth());
+        assertEquals(128, image.getHeight());
+        // the texture coordinates of Cl (the 10th element) in the atlas:
+        final String[] uv = atlas.getTexCoords("Cl").split(" ");
+        assertEquals(1 * 64F / 512, Float.parseFloat(uv[0]), 1e-6);
+        assertEquals(1 - 2 * 32F / 128, Float.parseFloat(uv[1]), 1e-6);
+        assertEquals(1 - 32F / 128, Float.parseFloat(uv[5]), 1e-6);
+        // something drawn in the region of Cl, nothing in an empty cell:
+        boolean drawn = false;
+        for (int x = 64; x < 128; x++) {
+            for (int y = 32; y < 64; y++) {
+                drawn |= image.getRGB(x, y) >>> 24 != 0;
+            }
+        }
+        assertTrue(drawn);
+        for (int x = 448; x < 512; x++) {
+            for (int y = 64; y < 128; y++) {
+                assertEquals(0, image.getRGB(x, y) >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Gets the shape of the label of an atom.
+     * @param x3d the X3D.
+     * @param def the DEF of the atom.
+     * @return the Shape inside the Billboard of the label.
+     */
+    private Shape getLabelShape(X3D x3d, String def) {
+        Group group = (Group) getTransform(x3d, def)
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        Billboard bb = (Billboard)
+                group.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        return (Shape) ((Transform)
+                bb.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0))
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+    }
+
+    @Test
+    public void testToX3D_merged() {
+        System.out.println("toX3D - merged");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(1.0, 1.0, 0.0, "O", 0));
+        aab.addBond(new Bond(1, 2, 1));
+        aab.addBond(new Bond(2, 3, 2));
+        instance.conf.setGeometryMode(GeometryMode.MERGED);
+        X3D x3d = instance.toX3D(aab, Display.SPACEFILL);
+        int shapes = 0;
+        for (Serializable node : x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat()) {
+            assertFalse(node instanceof Transform);
+            if (node instanceof Shape) shapes++;
+        }
+        // C and O spheres, single and double bonds:
+        assertEquals(4, shapes);
+    }
+
+    @Test
+    public void testToX3D_lines() {
+        System.out.println("toX3D - lines");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "O", 0));
+        aab.addAtom(new Atom(1.0, 0.0, 0.0, "N", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        aab.addBond(new Bond(1, 3, 1));
+        instance.conf.setGeometryMode(GeometryMode.LINES);
+        List<Serializable> nodes = instance.toX3D(aab, Display.WIREFRAME)
+                .getScene().getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        // only the lines, and a viewpoint:
+        assertEquals(2, nodes.size());
+        IndexedLineSet lines = (IndexedLineSet) ((Shape) nodes.get(0))
+                .getRest().get(1);
+        assertEquals("0 1 -1 0 2 -1", lines.getCoordIndex());
+        assertTrue(lines.isColorPerVertex());
+        Color color = (Color) lines.getRest().get(0);
+        assertEquals("0.2 0.2 0.2 1 0 0 0 0 1", color.getColor());
+        Coordinate coord = (Coordinate) lines.getRest().get(1);
+        assertEquals("0.0 0.0 0.0 0.0 1.0 0.0 1.0 0.0 0.0", coord.getPoint());
+        // visible atoms as points sharing the coordinates and colors:
+        nodes = instance.toX3D(aab, Display.BALLS_STICKS).getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        assertEquals(3, nodes.size());
+        PointSet points = (PointSet) ((Shape) nodes.get(1)).getRest().get(1);
+        assertNotNull(((Color) points.getRest().get(0)).getUSE());
+        assertNotNull(((Coordinate) points.getRest().get(1)).getUSE());
+    }
+
+    @Test
+    public void testToX3D_points() {
+        System.out.println("toX3D - points");
+        AtomsAndBonds aab = RandomChain.build(100, 20);
+        instance.conf.setPointThreshold(101);
+        assertEquals(GeometryMode.PRIMITIVES, instance.getGeometryMode(aab));
+        instance.conf.setPointThreshold(100);
+        assertEquals(GeometryMode.POINTS, instance.getGeometryMode(aab));
+        // only the points, visible with any display, and a viewpoint:
+        List<Serializable> nodes = instance.toX3D(aab, Display.STICKS)
+                .getScene().getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        assertEquals(2, nodes.size());
+        Shape shape = (Shape) nodes.get(0);
+        PointSet points = (PointSet) shape.getRest().get(1);
+        assertEquals(100 * 3, ((Coordinate) points.getRest().get(1))
+                .getPoint().split(" ").length);
+        assertEquals(0F, ((Material) ((Appearance) shape.getRest().get(0))
+                .getAppearanceChildContentModel().get(0)).getTransparency(),
+                0F);
+    }
+
+    @Test
+    public void testToX3D_binary() throws JAXBException {
+        System.out.println("toX3D - binary");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "O", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        instance.conf.setGeometryMode(GeometryMode.BINARY);
+        instance.conf.setBinaryUrlPattern("buffer?name={0}");
+        X3D x3d = instance.toX3D(aab, Display.SPACEFILL);
+        int geometries = 0;
+        for (Serializable node : x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat()) {
+            if (!(node instanceof Shape)) continue;
+            for (Serializable child : ((Shape) node).getRest()) {
+                if (!(child instanceof BinaryGeometry)) continue;
+                geometries++;
+                BinaryGeometry bg = (BinaryGeometry) child;
+                assertTrue(bg.getCoord().startsWith("buffer?name="));
+                byte[] coord = instance.getBufferStore().get(
+                        bg.getCoord().substring("buffer?name=".length()));
+                byte[] normal = instance.getBufferStore().get(
+                        bg.getNormal().substring("buffer?name=".length()));
+                byte[] index = instance.getBufferStore().get(
+                        bg.getIndex().substring("buffer?name=".length()));
+                assertEquals(coord.length, normal.length);
+                assertEquals("Uint16", bg.getIndexType());
+                assertEquals(Integer.parseInt(bg.getVertexCount()) * 2,
+                        index.length);
+            }
+        }
+        // C and O spheres, double bond:
+        assertEquals(3, geometries);
+        StringWriter sw = new StringWriter();
+        JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH)
+                .createMarshaller().marshal(x3d, sw);
+        assertTrue(sw.toString().contains("<BinaryGeometry "));
+    }
+
+    @Test
+    public void testToX3D_lod() {
+        System.out.println("toX3D - LOD");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 3.0, 4.0, "C", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        instance.conf.setLodRanges("2 6");
+        assertEquals("10.0 30.0", instance.getLodRange(aab));
+        X3D x3d = instance.toX3D(aab, Display.MIXED);
+        Group atom = (Group) getTransform(x3d, "AAM1")
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("C", atom.getDEF());
+        LOD lod = (LOD)
+                atom.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("10.0 30.0", lod.getRange());
+        // ball and label, low-poly ball, point:
+        assertEquals(3, lod
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .size());
+        Group bond = (Group) getTransform(x3d, "1-2_2")
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("BOND_2_MIXED", bond.getDEF());
+        lod = (LOD)
+                bond.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        // cylinders, low-poly cylinders, line:
+        assertEquals(3, lod
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .size());
+
+        instance.conf.setLodRanges("");
+        assertNull(instance.getLodRange(aab));
+    }
+
+    @Test
+    public void testToX3D_allDisplays() {
+        System.out.println("toX3D - all displays");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        instance.conf.setAllDisplays(true);
+        X3D x3d = instance.toX3D(aab, Display.SPACEFILL);
+        Group atom = (Group) getTransform(x3d, "AAM1")
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("C", atom.getDEF());
+        Switch sw = (Switch)
+                atom.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertTrue(sw.getClazz().contains(CssClass.DisplaySwitch.name()));
+        assertEquals(Display.SPACEFILL.ordinal(),
+                sw.getWhichChoice().intValue());
+        List<Serializable> choices =
+                sw.getBackgroundOrColorInterpolatorOrCoordinateInterpolator();
+        assertEquals(Display.values().length, choices.size());
+        for (Serializable choice : choices) {
+            assertNull(((Group) choice).getDEF());
+        }
+        Group atom2 = (Group) getTransform(x3d, "AAM2")
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertSame(atom, atom2.getUSE());
+        Group bond = (Group) getTransform(x3d, "1-2_2")
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("BOND_2_ALL", bond.getDEF());
+        sw = (Switch)
+                bond.getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals(Display.values().length, sw
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .size());
+    }
+
+    @Test
+    public void testToX3D_bvh() {
+        System.out.println("toX3D - bounding volume hierarchy");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(10.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(10.0, 1.0, 0.0, "O", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "O", 0));
+        aab.addBond(new Bond(1, 3, 2));
+        aab.addBond(new Bond(2, 4, 2));
+        instance.conf.setBvhLeafSize(2);
+        X3D x3d = instance.toX3D(aab, Display.MIXED);
+        Group root = (Group) x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat().get(0);
+        assertEquals(2, root
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .size());
+        assertEquals(5.0, Double.parseDouble(
+                root.getBboxCenter().split(" ")[0]), 1e-9);
+        List<Transform> leaves = new ArrayList<>();
+        addLeaves(root, leaves);
+        assertEquals(6, leaves.size());
+        // atoms and bonds close to each other are grouped together:
+        assertEquals("AAM2", leaves.get(0).getDEF());
+        // DEFs still come before their USEs in the document:
+        Set<Object> defined = new HashSet<>();
+        for (Transform tr : leaves) {
+            X3DNode child = (X3DNode) tr
+                    .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                    .get(0);
+            if (child.getUSE() == null){
+                defined.add(child);
+            } else {
+                assertTrue(defined.contains(child.getUSE()));
+            }
+        }
+    }
+
+    @Test
+    public void testToX3D_parallel() throws JAXBException {
+        System.out.println("toX3D - parallel");
+        AtomsAndBonds aab = RandomChain.build(2000, 50);
+        instance.conf.setLodRanges("2 6");
+        Marshaller m = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH)
+                .createMarshaller();
+        instance.conf.setParallelThreshold(0);
+        StringWriter sequential = new StringWriter();
+        m.marshal(instance.toX3D(aab, Display.MIXED), sequential);
+        instance.conf.setParallelThreshold(1);
+        StringWriter parallel = new StringWriter();
+        m.marshal(instance.toX3D(aab, Display.MIXED), parallel);
+        assertEquals(sequential.toString(), parallel.toString());
+    }
+
+    @Test
+    public void testToGallery() throws JAXBException {
+        System.out.println("toGallery");
+        List<AtomsAndBonds> molecules = new ArrayList<>();
+        for (int m = 0; m < 5; m++) {
+            AtomsAndBonds aab = new AtomsAndBonds();
+            aab.addAtom(new Atom(0.0, 0.0, 0.0, m == 2? "N" : "C", 0));
+            aab.addAtom(new Atom(0.0, 1.0 + m, 0.0, "O", 0));
+            aab.addBond(new Bond(1, 2, 1 + m % 2));
+            molecules.add(aab);
+        }
+        instance.conf.setParallelThreshold(0);
+        X3D x3d = instance.toGallery(molecules, Display.MIXED);
+        List<Serializable> nodes = x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        assertEquals(6, nodes.size());
+        Transform mol = (Transform) nodes.get(4);
+        assertEquals("MOL5", mol.getDEF());
+        // 3 columns of cells 5 + 2 wide, the molecule is 5 tall:
+        assertEquals("7.0 -9.5 0.0", mol.getTranslation());
+        Transform atom = (Transform) mol
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0);
+        assertEquals("MOL5_AAM1", atom.getDEF());
+        // element and bond groups defined once, by the first one needing it:
+        List<String> defined = new ArrayList<>();
+        for (Serializable node : nodes.subList(0, 5)) {
+            for (Serializable child : ((Transform) node)
+                    .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()) {
+                final Group group = (Group) ((Transform) child)
+                        .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                        .get(0);
+                if (group.getDEF() != null){
+                    defined.add(group.getDEF());
+                }
+            }
+        }
+        assertEquals(Arrays.asList("C", "O", "BOND_1_MIXED", "BOND_2_MIXED",
+                "N"), defined);
+        // same output in parallel:
+        Marshaller m = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH)
+                .createMarshaller();
+        StringWriter sequential = new StringWriter();
+        m.marshal(x3d, sequential);
+        instance.conf.setParallelThreshold(1);
+        StringWriter parallel = new StringWriter();
+        m.marshal(instance.toGallery(molecules, Display.MIXED), parallel);
+        assertEquals(sequential.toString(), parallel.toString());
+        // nothing to lay out:
+        assertTrue(instance.toGallery(new ArrayList<AtomsAndBonds>(),
+                Display.MIXED).getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat().isEmpty());
+    }
+
+    @Test
+    public void testToTiledRoot() {
+        System.out.println("toTiledRoot");
+        final AtomsAndBonds aab = RandomChain.build(100, 20);
+        TiledModel model = new TiledModel(aab, 30);
+        instance.conf.setTileUrlPattern("tiles?id={0}&tile={1}&d={2}");
+        List<Serializable> nodes = instance.toTiledRoot(model, "big",
+                Display.STICKS).getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        // the outlines of the boxes, the tiles and a viewpoint:
+        assertEquals(6, nodes.size());
+        Inline inline = (Inline) nodes.get(4);
+        assertEquals(Arrays.asList("\"tiles?id=big&tile=3&d=STICKS\""),
+                inline.getUrl());
+        assertTrue(inline.getBboxSize() != null);
+        IndexedLineSet outlines = (IndexedLineSet) ((Shape) nodes.get(0))
+                .getRest().get(1);
+        assertEquals(4 * 8 * 3, ((Coordinate) outlines.getRest().get(0))
+                .getPoint().split(" ").length);
+        // every atom rendered in one tile:
+        Set<String> defs = new HashSet<>();
+        int count = 0;
+        for (int tile = 0; tile < model.getTileCount(); tile++) {
+            for (Serializable node : instance.toTile(model, tile,
+                    Display.STICKS).getScene()
+                    .getMetadataBooleanOrMetadataDoubleOrMetadataFloat()) {
+                defs.add(((Transform) node).getDEF());
+                count++;
+            }
+        }
+        assertEquals(100 + 99, count);
+        assertEquals(count, defs.size());
+        assertTrue(defs.contains("AAM100"));
+        assertTrue(defs.contains(
+                aab.getBonds().get("99-100").getFullLabel()));
+    }
+
+    @Test
+    public void testToX3D_protos() throws JAXBException, IOException {
+        System.out.println("toX3D - prototypes");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(1.0, 1.0, 0.0, "Xx", 0));
+        aab.addBond(new Bond(1, 2, 2));
+        aab.addBond(new Bond(2, 3, 1));
+        instance.conf.setGeometryMode(GeometryMode.PROTOS);
+        instance.conf.setProtoUrlPattern("protos?d={0}&v={1}");
+        List<Serializable> nodes = instance.toX3D(aab, Display.MIXED)
+                .getScene().getMetadataBooleanOrMetadataDoubleOrMetadataFloat();
+        final String url = "\"protos?d=MIXED&v="
+                + instance.getProtoLibrary().getVersion(Display.MIXED);
+        // declarations for C, double and single bonds:
+        for (int i = 0; i < 3; i++) {
+            assertTrue(nodes.get(i) instanceof ExternProtoDeclare);
+        }
+        ExternProtoDeclare epd = (ExternProtoDeclare) nodes.get(1);
+        assertEquals("Bond_2", epd.getName());
+        assertEquals(url + "#Bond_2\"", epd.getUrl().get(0));
+        ProtoInstance pi = (ProtoInstance) nodes.get(3);
+        assertEquals("Atom_C", pi.getName());
+        assertEquals("AAM1", pi.getDEF());
+        assertEquals("0.0 1.0 0.0",
+                ((ProtoInstance) nodes.get(4)).getFieldValue().get(0)
+                        .getValue());
+        // unsupported element:
+        assertTrue(nodes.get(5) instanceof Transform);
+        pi = (ProtoInstance) nodes.get(6);
+        assertEquals("Bond_2", pi.getName());
+        assertEquals(3, pi.getFieldValue().size());
+
+        String library = new String(instance.getProtoLibrary()
+                .getLibrary(Display.MIXED), "UTF-8");
+        assertTrue(library.contains("<ProtoDeclare name=\"Atom_C\">"));
+        assertTrue(library.contains("<ProtoDeclare name=\"Bond_4\">"));
+    }
+
+    @Test
+    public void testToX3D_reaction() {
+        System.out.println("toX3D - reaction");
+        AtomsAndBonds[] aab = { new AtomsAndBonds(), new AtomsAndBonds() };
+        aab[0].addAtom(new Atom(0.0, 0.0, 0.0, "C", 1));
+        aab[0].addAtom(new Atom(0.0, 1.0, 0.0, "C", 2));
+        aab[0].addAtom(new Atom(1.0, 1.0, 0.0, "O", 3));
+        aab[0].addBond(new Bond(1, 2, 1));
+        aab[0].addBond(new Bond(2, 3, 2));
+        aab[1].addAtom(new Atom(0.0, 0.0, 0.0, "C", 1));
+        aab[1].addAtom(new Atom(0.0, 2.0, 0.0, "C", 2));
+        aab[1].addAtom(new Atom(1.0, 1.0, 0.0, "O", 3));
+        aab[1].addBond(new Bond(1, 2, 1));
+        aab[1].addBond(new Bond(2, 3, 1));
+        aab[1].addBond(new Bond(1, 3, 1));
+        List<Serializable> nodes = instance.toX3D(aab, Display.MIXED);
+        Set<String> transforms = new HashSet<>();
+        Map<String, X3DInterpolatorNode> interps = new HashMap<>();
+        for (Serializable node : nodes) {
+            if (node instanceof Transform){
+                transforms.add(((Transform) node).getDEF());
+            } else if (node instanceof X3DInterpolatorNode){
+                interps.put(((X3DInterpolatorNode) node).getDEF(),
+                        (X3DInterpolatorNode) node);
+            }
+        }
+        // reactants plus the bonds fading in, nothing from the products:
+        assertEquals(new HashSet<>(Arrays.asList("AAM1", "AAM2", "AAM3",
+                "1-2_1", "2-3_2", "2-3_1", "1-3_1")), transforms);
+        // product placement computed from the atoms:
+        assertEquals("0.5 1.0 0.0 0.5 1.0 0.0 0.5 1.5 0.0 0.5 1.5 0.0",
+                ((PositionInterpolator) interps.get(
+                        "INTERP_translation_2-3_2")).getKeyValue());
+        assertEquals("0.0 0.0 -1.0 1.5707963267948966 "
+                + "0.0 0.0 -1.0 1.5707963267948966 "
+                + "0.0 0.0 -1.0 2.356194490192345 "
+                + "0.0 0.0 -1.0 2.356194490192345",
+                ((OrientationInterpolator) interps.get(
+                        "INTERP_rotation_2-3_2")).getKeyValue());
+    }
+
+    @Test
+    public void testToX3D_coordinateAnimation() {
+        System.out.println("toX3D - reaction with coordinate animation");
+        AtomsAndBonds[] aab = { new AtomsAndBonds(), new AtomsAndBonds() };
+        aab[0].addAtom(new Atom(0.0, 0.0, 0.0, "C", 1));
+        aab[0].addAtom(new Atom(0.0, 1.0, 0.0, "C", 2));
+        aab[0].addAtom(new Atom(1.0, 1.0, 0.0, "O", 3));
+        aab[0].addBond(new Bond(1, 2, 1));
+        aab[0].addBond(new Bond(2, 3, 2));
+        aab[1].addAtom(new Atom(0.0, 0.0, 0.0, "C", 1));
+        aab[1].addAtom(new Atom(0.0, 2.0, 0.0, "C", 2));
+        aab[1].addAtom(new Atom(1.0, 1.0, 0.0, "O", 3));
+        aab[1].addBond(new Bond(1, 2, 1));
+        aab[1].addBond(new Bond(2, 3, 1));
+        aab[1].addBond(new Bond(1, 3, 1));
+        instance.conf.setRxnAnimationMode(AnimationMode.COORDINATES);
+        List<Serializable> nodes = instance.toX3D(aab, Display.MIXED);
+        int interpolators = 0;
+        List<IndexedLineSet> lines = new ArrayList<>();
+        for (Serializable node : nodes) {
+            if (node instanceof X3DInterpolatorNode){
+                interpolators++;
+            } else if (node instanceof Shape){
+                Serializable geom = ((Shape) node).getRest().get(1);
+                if (geom instanceof IndexedLineSet){
+                    lines.add((IndexedLineSet) geom);
+                }
+            }
+        }
+        // one for coordinates, one for fading out, one for fading in:
+        assertEquals(3, interpolators);
+        CoordinateInterpolator ci = null;
+        for (Serializable node : nodes) {
+            if (node instanceof CoordinateInterpolator){
+                ci = (CoordinateInterpolator) node;
+            }
+        }
+        assertEquals("0.0 0.0 0.0 0.0 1.0 0.0 1.0 1.0 0.0"
+                + " 0.0 0.0 0.0 0.0 1.0 0.0 1.0 1.0 0.0"
+                + " 0.0 0.0 0.0 0.0 2.0 0.0 1.0 1.0 0.0"
+                + " 0.0 0.0 0.0 0.0 2.0 0.0 1.0 1.0 0.0", ci.getKeyValue());
+        // kept, fading out and fading in bonds:
+        assertEquals(3, lines.size());
+        assertEquals("0 1 -1", lines.get(0).getCoordIndex());
+        assertEquals("1 2 -1", lines.get(1).getCoordIndex());
+        assertEquals("1 2 -1 0 2 -1", lines.get(2).getCoordIndex());
+        Coordinate coord = (Coordinate) lines.get(0).getRest().get(1);
+        assertEquals("RXN_COORDS", ((X3DNode) coord.getUSE()).getDEF());
+    }
+
+    @Test
+    public void testToX3D_trajectory() {
+        System.out.println("toX3D - trajectory");
+        List<AtomsAndBonds> frames = new ArrayList<>();
+        final double[] x3 = { 1.0, 1.0, 1.005, 2.0 };
+        for (double x : x3) {
+            AtomsAndBonds aab = new AtomsAndBonds();
+            aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+            aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+            aab.addAtom(new Atom(x, 1.0, 0.0, "O", 0));
+            aab.addBond(new Bond(1, 2, 1));
+            aab.addBond(new Bond(2, 3, 2));
+            frames.add(aab);
+        }
+        List<Serializable> nodes =
+                instance.toX3D(frames.iterator(), Display.MIXED);
+        List<X3DInterpolatorNode> interps = new ArrayList<>();
+        for (Serializable node : nodes) {
+            if (node instanceof X3DInterpolatorNode){
+                interps.add((X3DInterpolatorNode) node);
+            }
+        }
+        // only atom 3 and bond 2-3 move:
+        assertEquals(4, interps.size());
+        PositionInterpolator pi = (PositionInterpolator) interps.get(0);
+        assertEquals("INTERP_translation_AAM3", pi.getDEF());
+        // held until the frame before it moves:
+        assertEquals("0.0 0.6666667 1.0", pi.getKey());
+        assertEquals("1.0 1.0 0.0 1.0 1.0 0.0 2.0 1.0 0.0", pi.getKeyValue());
+        pi = (PositionInterpolator) interps.get(1);
+        assertEquals("INTERP_translation_2-3_2", pi.getDEF());
+        assertEquals("0.0 0.6666667 1.0", pi.getKey());
+        assertEquals("0.5 1.0 0.0 0.5 1.0 0.0 1.0 1.0 0.0", pi.getKeyValue());
+        // bond 2-3 doubles its length:
+        pi = (PositionInterpolator) interps.get(3);
+        assertEquals("INTERP_scale_2-3_2", pi.getDEF());
+        assertEquals("0.0 0.6666667 1.0", pi.getKey());
+        assertEquals("1 1.0 1 1 1.0 1 1 2.0 1", pi.getKeyValue());
+        // a single frame is not animated:
+        nodes = instance.toX3D(frames.subList(0, 1).iterator(), Display.MIXED);
+        for (Serializable node : nodes) {
+            assertFalse(node instanceof X3DInterpolatorNode);
+        }
+    }
+
+    @Test
+    public void testToUpdate() {
+        System.out.println("toUpdate");
+        AtomsAndBonds before = new AtomsAndBonds();
+        before.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        before.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        before.addAtom(new Atom(1.0, 1.0, 0.0, "O", 0));
+        before.addBond(new Bond(1, 2, 1));
+        before.addBond(new Bond(2, 3, 2));
+        // edited and centered again, which shifts it by 0.5:
+        AtomsAndBonds after = new AtomsAndBonds();
+        after.addAtom(new Atom(0.5, 0.0, 0.0, "N", 0));
+        after.addAtom(new Atom(0.5, 1.0, 0.0, "C", 0));
+        after.addAtom(new Atom(2.5, 1.0, 0.0, "O", 0));
+        after.addAtom(new Atom(3.5, 1.0, 0.0, "C", 0));
+        after.addBond(new Bond(1, 2, 2));
+        after.addBond(new Bond(2, 3, 2));
+        after.addBond(new Bond(3, 4, 1));
+        Map<String, String> owners = new HashMap<>();
+        X3DUpdate update = instance.toUpdate(before, after, Display.MIXED,
+                owners);
+        assertEquals(Arrays.asList("AAM1", "1-2_1"), update.getRemoved());
+        assertEquals(Arrays.asList("AAM3", "2-3_2"),
+                new ArrayList<>(update.getFields().keySet()));
+        assertEquals("2.0 1.0 0.0",
+                update.getFields().get("AAM3").get("translation"));
+        assertEquals("1.0 1.0 0.0",
+                update.getFields().get("2-3_2").get("translation"));
+        assertEquals("1 2.0 1", update.getFields().get("2-3_2").get("scale"));
+        // the atom which did not move is back where it was:
+        assertEquals("0.0 1.0 0.0",
+                after.getAtoms().get(2).getCoordinates().toString());
+        List<String> added = new ArrayList<>();
+        for (Serializable node : update.getAdded()) {
+            added.add(((X3DNode) node).getDEF());
+        }
+        assertEquals(Arrays.asList("SHARED_C", "AAM1", "AAM4", "1-2_2",
+                "3-4_1"), added);
+        // the groups inside the removed nodes are defined again, along with
+        // the new ones, out of the nodes which can be removed:
+        final Switch holder = (Switch) update.getAdded().get(0);
+        List<String> shared = new ArrayList<>();
+        for (Serializable node : holder
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()) {
+            shared.add(((X3DNode) node).getDEF());
+        }
+        assertEquals(Arrays.asList("C", "N", "BOND_1_MIXED"), shared);
+        assertEquals("SHARED_C", owners.get("C"));
+        assertEquals("SHARED_C", owners.get("CYL_BOND_MIXED"));
+        assertEquals("AAM3", owners.get("O"));
+        assertEquals("2-3_2", owners.get("BOND_2_MIXED"));
+        Transform carbon = (Transform) update.getAdded().get(2);
+        assertSame(holder
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0), ((Group) carbon
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()
+                .get(0)).getUSE());
+        // nothing else to do:
+        assertTrue(instance.toUpdate(after, after, Display.MIXED, owners)
+                .isEmpty());
+    }
+
+    @Test
+    public void testToUpdate_owners() throws JAXBException, IOException {
+        System.out.println("toUpdate - owners");
+        AtomsAndBonds before = getCarbonChain(1, 2, 3);
+        // the client scene, as the XML of every top-level node by DEF:
+        Map<String, String> scene = new LinkedHashMap<>();
+        addToScene(scene, instance.toX3D(before, Display.MIXED).getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat());
+        Map<String, String> owners = new HashMap<>();
+        // the atom and bond removed first define the shared groups, then
+        // the atom and bond removed next would do it if they were rendered
+        // again:
+        final int[][] chains = { { 2, 3, 4 }, { 2, 3, 5 }, { 2, 3, 6 } };
+        for (int[] chain : chains) {
+            final AtomsAndBonds after = getCarbonChain(chain);
+            X3DUpdate update = instance.toUpdate(before, after,
+                    Display.MIXED, owners);
+            if (chain != chains[0]){
+                // nothing to define again:
+                for (Serializable node : update.getAdded()) {
+                    assertTrue(node instanceof Transform);
+                }
+            }
+            scene.keySet().removeAll(update.getRemoved());
+            addToScene(scene, update.getAdded());
+            assertEquals("SHARED_C", owners.get("C"));
+            assertEquals("SHARED_C", owners.get("BOND_1_MIXED"));
+            // every USE refers to a DEF still in the scene:
+            Set<String> defs = new HashSet<>();
+            Set<String> uses = new HashSet<>();
+            for (String xml : scene.values()) {
+                Matcher m = Pattern.compile("(DEF|USE)=\"([^\"]*)\"")
+                        .matcher(xml);
+                while (m.find()){
+                    (m.group(1).equals("DEF")? defs : uses).add(m.group(2));
+                }
+            }
+            assertTrue(uses.toString(), defs.containsAll(uses));
+            before = after;
+        }
+    }
+
+    /**
+     * Builds a chain of carbon atoms along the X axis.
+     * @param aams the atom-atom mapping of every atom, which is also its X.
+     * @return the atoms, with single bonds between consecutive ones.
+     */
+    private static AtomsAndBonds getCarbonChain(int... aams) {
+        AtomsAndBonds aab = new AtomsAndBonds();
+        for (int i = 0; i < aams.length; i++) {
+            aab.addAtom(new Atom(aams[i], 0.0, 0.0, "C", aams[i]));
+            if (i > 0){
+                aab.addBond(new Bond(aams[i - 1], aams[i], 1));
+            }
+        }
+        return aab;
+    }
+
+    private static void addToScene(Map<String, String> scene,
+            List<? extends Serializable> nodes)
+    throws JAXBException, IOException {
+        for (Serializable node : nodes) {
+            StringWriter sw = new StringWriter();
+            new FastMarshaller().marshalSceneChildren(
+                    Collections.singletonList(node), sw);
+            final String def = node instanceof X3DNode?
+                    ((X3DNode) node).getDEF() : null;
+            scene.put(def != null? def : "#" + scene.size(), sw.toString());
+        }
+    }
+
+    @Test
+    public void testIsUpdatable() {
+        System.out.println("isUpdatable");
+        AtomsAndBonds aab = new AtomsAndBonds();
+        aab.addAtom(new Atom(0.0, 0.0, 0.0, "C", 0));
+        aab.addAtom(new Atom(0.0, 1.0, 0.0, "C", 0));
+        aab.addBond(new Bond(1, 2, 1));
+        assertTrue(instance.isUpdatable(aab));
+        instance.conf.setBvhLeafSize(4);
+        assertFalse(instance.isUpdatable(aab));
+        instance.conf.setBvhLeafSize(0);
+        instance.conf.setPointThreshold(2);
+        assertFalse(instance.isUpdatable(aab));
+        instance.conf.setPointThreshold(0);
+        for (GeometryMode mode : GeometryMode.values()) {
+            instance.conf.setGeometryMode(mode);
+            assertEquals(mode == GeometryMode.PRIMITIVES,
+                    instance.isUpdatable(aab));
+        }
+    }
+
+    private void addLeaves(Group group, List<Transform> leaves) {
+        for (Serializable node : group
+                .getBackgroundOrColorInterpolatorOrCoordinateInterpolator()) {
+            if (node instanceof Group){
+                assertTrue(((Group) node).getBboxSize() != null);
+                addLeaves((Group) node, leaves);
+            } else {
+                leaves.add((Transform) node);
+            }
+        }
+    }
+
+    private Transform getTransform(X3D x3d, String def) {
+        for (Serializable node : x3d.getScene()
+                .getMetadataBooleanOrMetadataDoubleOrMetadataFloat()) {
+            if (node instanceof Transform
+                    && def.equals(((Transform) node).getDEF())) {
+                return (Transform) node;
+            }
+        }
+        return null;
+    }
+
 }
@@ -6,7 +6,9 @@
 
 package ctfile2x3d.servlet;
 
+import ctfile2x3d.AnimationMode;
 import ctfile2x3d.CTFile2X3DConfig;
+import ctfile2x3d.x3d.WorkerPool;
 import java.lang.management.ManagementFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,6 +45,82 @@ public class CTFile2X3DListener implements ServletContextListener {
                 .getInitParameter(CTFile2X3DConfig.MOL_URL_PATTERN));
         conf.setRxnUrlPattern(sce.getServletContext()
                 .getInitParameter(CTFile2X3DConfig.RXN_URL_PATTERN));
+        conf.setSdfUrlPattern(sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.SDF_URL_PATTERN));
+        conf.setXyzUrlPattern(sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.XYZ_URL_PATTERN));
+        String binaryUrlPattern = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.BINARY_URL_PATTERN);
+        if (binaryUrlPattern != null){
+            conf.setBinaryUrlPattern(binaryUrlPattern.trim());
+        }
+        String protoUrlPattern = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.PROTO_URL_PATTERN);
+        if (protoUrlPattern != null){
+            conf.setProtoUrlPattern(protoUrlPattern.trim());
+        }
+        String tileUrlPattern = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.TILE_URL_PATTERN);
+        if (tileUrlPattern != null){
+            conf.setTileUrlPattern(tileUrlPattern.trim());
+        }
+        String atlasUrlPattern = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.ATLAS_URL_PATTERN);
+        if (atlasUrlPattern != null){
+            conf.setAtlasUrlPattern(atlasUrlPattern.trim());
+        }
+        String labelAtlas = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.LABEL_ATLAS);
+        if (labelAtlas != null){
+            conf.setLabelAtlas(Boolean.parseBoolean(labelAtlas.trim()));
+        }
+        String tileSize = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.TILE_SIZE);
+        if (tileSize != null){
+            conf.setTileSize(Integer.parseInt(tileSize.trim()));
+        }
+        String pointThreshold = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.POINT_THRESHOLD);
+        if (pointThreshold != null){
+            conf.setPointThreshold(Integer.parseInt(pointThreshold.trim()));
+        }
+        String gzipBlockSize = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.GZIP_BLOCK_SIZE);
+        if (gzipBlockSize != null){
+            conf.setGzipBlockSize(Integer.parseInt(gzipBlockSize.trim()));
+        }
+        String galleryMaxSize = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.GALLERY_MAX_SIZE);
+        if (galleryMaxSize != null){
+            conf.setGalleryMaxSize(Integer.parseInt(galleryMaxSize.trim()));
+        }
+        String switchable = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.DISPLAY_SWITCHABLE);
+        if (switchable != null){
+            conf.setDisplaySwitchable(Boolean.parseBoolean(switchable.trim()));
+        }
+        String allDisplays = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.DISPLAY_ALL);
+        if (allDisplays != null){
+            conf.setAllDisplays(Boolean.parseBoolean(allDisplays.trim()));
+        }
+        String exiCompression = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.EXI_COMPRESSION);
+        if (exiCompression != null){
+            conf.setExiCompression(
+                    Boolean.parseBoolean(exiCompression.trim()));
+        }
+        String marshalFast = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.MARSHAL_FAST);
+        if (marshalFast != null){
+            conf.setMarshalFast(Boolean.parseBoolean(marshalFast.trim()));
+        }
+        String rxnAnimationMode = sce.getServletContext()
+                .getInitParameter(CTFile2X3DConfig.RXN_ANIMATION_MODE);
+        if (rxnAnimationMode != null){
+            conf.setRxnAnimationMode(AnimationMode.valueOf(
+                    rxnAnimationMode.trim().toUpperCase()));
+        }
         try { // Register MBean in Platform MBeanServer
             ManagementFactory.getPlatformMBeanServer()
                     .registerMBean(conf, new ObjectName(getConfigMBeanName()));
@@ -56,11 +134,13 @@ public class CTFile2X3DListener implements ServletContextListener {
     }
 
     /**
-     * Unregisters the MBean for the configuration.
+     * Unregisters the MBean for the configuration, and shuts down the pool
+     * of threads of the library.
      * @param sce 
      */
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        WorkerPool.shutdown();
         try {
             ManagementFactory.getPlatformMBeanServer()
                     .unregisterMBean(new ObjectName(getConfigMBeanName()));
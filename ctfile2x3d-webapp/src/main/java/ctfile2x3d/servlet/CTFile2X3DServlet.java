@@ -20,21 +20,47 @@ package ctfile2x3d.servlet;
 import ctfile2x3d.CTFile2X3DConfig;
 import ctfile2x3d.CTFileParser;
 import ctfile2x3d.Display;
+import ctfile2x3d.GeometryMode;
 import ctfile2x3d.MolParser;
 import ctfile2x3d.RxnParser;
+import ctfile2x3d.SdfParser;
+import ctfile2x3d.XyzParser;
+import ctfile2x3d.ctfile.AtomsAndBonds;
+import ctfile2x3d.gltf.GltfGenerator;
+import ctfile2x3d.image.ThumbnailRenderer;
+import ctfile2x3d.x3d.BinaryGeometry;
+import ctfile2x3d.x3d.BufferStore;
+import ctfile2x3d.x3d.DictionaryCodec;
+import ctfile2x3d.x3d.ExiMarshaller;
+import ctfile2x3d.x3d.FastMarshaller;
+import ctfile2x3d.x3d.LabelAtlas;
+import ctfile2x3d.x3d.ParallelGzipOutputStream;
+import ctfile2x3d.x3d.ParallelMarshaller;
+import ctfile2x3d.x3d.ProtoLibrary;
+import ctfile2x3d.x3d.TiledModel;
+import ctfile2x3d.x3d.X3DGenerator;
+import ctfile2x3d.x3d.X3DUpdate;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import org.web3d.x3d.X3D;
 
 /**
@@ -47,21 +73,58 @@ public class CTFile2X3DServlet extends HttpServlet {
     private JAXBContext jc;
     private MolParser molParser;
     private RxnParser rxnParser;
+    private SdfParser sdfParser;
+    private XyzParser xyzParser;
+    private BufferStore bufferStore;
+    private ProtoLibrary protoLibrary;
+    private ExiMarshaller exiMarshaller;
+    private GltfGenerator gltfGenerator;
+    private ThumbnailRenderer thumbnailRenderer;
+    private X3DGenerator x3dGenerator;
+    private Map<String, TiledModel> tiledModels;
+    private Map<String, EditedModel> editedModels;
     
     /**
      * The CTFile formats supported by this servlet.
      */
-    private static enum Format { MOL, RXN }
+    private static enum Format { MOL, RXN, SDF, XYZ, GALLERY }
     
+    /**
+     * Creates the store of binary buffers, and the parsers and generator
+     * which share it, and the cache of edited molecules, before any request
+     * can use them.
+     * @throws ServletException 
+     */
     @Override
     public void init() throws ServletException {
         super.init();
-        try {
-            jc = JAXBContext.newInstance("org.web3d.x3d");
-        } catch (JAXBException ex) {
-            Logger.getLogger(CTFile2X3DServlet.class.getName())
-                    .log(Level.SEVERE, "Unable to get JAXB context", ex);
+        bufferStore = new BufferStore(getConf().getBinaryCacheSize());
+        molParser = new MolParser(getConf(), bufferStore);
+        rxnParser = new RxnParser(getConf());
+        x3dGenerator = new X3DGenerator(getConf(), bufferStore);
+        final int capacity = getConf().getEditCacheSize();
+        editedModels = Collections.synchronizedMap(
+                new LinkedHashMap<String, EditedModel>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, EditedModel> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+    
+    /**
+     * Gets the JAXB context, only created when the X3D is not marshalled with
+     * the generated writers (see {@link FastMarshaller}).
+     * @return the JAXB context.
+     * @throws JAXBException if the context cannot be created.
+     */
+    private synchronized JAXBContext getJAXBContext()
+    throws JAXBException {
+        if (jc == null){
+            jc = JAXBContext.newInstance(BinaryGeometry.CONTEXT_PATH);
         }
+        return jc;
     }
 
     private CTFile2X3DConfig getConf() {
@@ -69,18 +132,94 @@ public class CTFile2X3DServlet extends HttpServlet {
                 .getAttribute(CTFile2X3DListener.getConfigMBeanName());
     }
     
-    private MolParser getMolParser(){
-        if (molParser == null){
-            molParser = new MolParser(getConf());
+    private synchronized ProtoLibrary getProtoLibrary(){
+        if (protoLibrary == null){
+            protoLibrary = new X3DGenerator(getConf()).getProtoLibrary();
         }
-        return molParser;
+        return protoLibrary;
     }
     
-    private RxnParser getRxnParser(){
-        if (rxnParser == null){
-            rxnParser = new RxnParser(getConf());
+    private synchronized ExiMarshaller getExiMarshaller()
+    throws JAXBException {
+        if (exiMarshaller == null){
+            exiMarshaller = new ExiMarshaller(getConf().isExiCompression());
         }
-        return rxnParser;
+        return exiMarshaller;
+    }
+    
+    private synchronized GltfGenerator getGltfGenerator(){
+        if (gltfGenerator == null){
+            gltfGenerator = new GltfGenerator(getConf());
+        }
+        return gltfGenerator;
+    }
+    
+    private synchronized ThumbnailRenderer getThumbnailRenderer(){
+        if (thumbnailRenderer == null){
+            thumbnailRenderer = new ThumbnailRenderer(getConf());
+        }
+        return thumbnailRenderer;
+    }
+
+    private ParallelMarshaller getParallelMarshaller() throws JAXBException {
+        return getConf().isMarshalFast()?
+                new ParallelMarshaller(new FastMarshaller(),
+                        getConf().getMarshalChunkSize())
+                : new ParallelMarshaller(getJAXBContext(),
+                        getConf().getMarshalChunkSize());
+    }
+    
+    /**
+     * Gets the structure split into tiles for a molecule, from the cache of
+     * the last ones split.
+     * @param id the identifier of the molecule.
+     * @param aab the molecule, or <code>null</code> to read it again if it
+     *      is not in the cache.
+     * @return the molecule split into tiles.
+     * @throws IOException if the molecule cannot be read.
+     */
+    private TiledModel getTiledModel(String id, AtomsAndBonds aab)
+    throws IOException {
+        synchronized (this){
+            if (tiledModels == null){
+                final int capacity = getConf().getTileCacheSize();
+                tiledModels = Collections.synchronizedMap(
+                        new LinkedHashMap<String, TiledModel>(16, 0.75f, true){
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<String, TiledModel> eldest) {
+                        return size() > capacity;
+                    }
+                });
+            }
+        }
+        TiledModel model = tiledModels.get(id);
+        if (model == null){
+            if (aab == null){
+                final URL url = new URL(MessageFormat.format(
+                        getConf().getMolUrlPattern(), id));
+                try (InputStream is = url.openStream()) {
+                    aab = molParser.parseAtomsAndBonds(is);
+                }
+            }
+            model = new TiledModel(aab, getConf().getTileSize());
+            tiledModels.put(id, model);
+        }
+        return model;
+    }
+    
+    private synchronized SdfParser getSdfParser(){
+        if (sdfParser == null){
+            sdfParser = new SdfParser(getConf());
+        }
+        return sdfParser;
+    }
+    
+    private synchronized XyzParser getXyzParser(){
+        if (xyzParser == null){
+            xyzParser = new XyzParser(getConf());
+        }
+        return xyzParser;
     }
 
     /**
@@ -88,8 +227,49 @@ public class CTFile2X3DServlet extends HttpServlet {
      * <ul>
      *  <li><code>id</code>: the identifier of the CTFile.</li>
      *  <li><code>format</code>: the {@link Format format} of the
-     *      CTFile.</li>
+     *      CTFile. Multi-model SDF and XYZ files are animated trajectories,
+     *      one frame per model. A <code>gallery</code> lays out several MOL
+     *      files, whose identifiers are separated by commas, in one scene
+     *      (see {@link X3DGenerator#toGallery(List, Display)
+     *      toGallery}). More than
+     *      {@link CTFile2X3DConfig#getGalleryMaxSize() gallery.max.size}
+     *      identifiers are rejected with a <code>400</code> status.</li>
      * </ul>
+     * The X3D is encoded with EXI (see {@link ExiMarshaller}) if the
+     * <code>encoding</code> parameter is <code>exi</code> or the
+     * <code>Accept</code> header includes {@link ExiMarshaller#CONTENT_TYPE},
+     * otherwise it is plain XML. If the <code>encoding</code> parameter is
+     * <code>dictionary</code>, the XML is compressed with the preset
+     * dictionary of {@link DictionaryCodec} (for clients using its decoder:
+     * browsers cannot inflate it). Otherwise, if the
+     * <code>Accept-Encoding</code> header includes <code>gzip</code> and the
+     * {@link CTFile2X3DConfig#getGzipBlockSize() gzip block size} is not
+     * <code>0</code>, the XML is compressed with gzip in parallel (see
+     * {@link ParallelGzipOutputStream}).
+     * Molecules (not reactions) are returned as binary glTF instead of X3D
+     * (see {@link GltfGenerator}) if the <code>output</code> parameter is
+     * <code>glb</code> or the <code>Accept</code> header includes
+     * {@link GltfGenerator#CONTENT_TYPE}, and as a PNG thumbnail (see
+     * {@link ThumbnailRenderer}) if the <code>output</code> parameter is
+     * <code>png</code>.
+     * Alternatively, a <code>buffer</code> parameter requests one of the
+     * binary buffers referenced by the <code>BinaryGeometry</code> nodes of
+     * an X3D previously returned (see {@link #serviceBuffer(String,
+     * HttpServletResponse) serviceBuffer}), and a <code>protos</code>
+     * parameter (a {@link Display}) requests a prototype library (see
+     * {@link #serviceProtos(String, HttpServletResponse) serviceProtos}),
+     * and an <code>atlas</code> parameter requests the texture atlas of atom
+     * labels (see {@link #serviceAtlas(HttpServletResponse) serviceAtlas}).
+     * Molecules with more atoms than the
+     * {@link CTFile2X3DConfig#getTileSize() tile size}, unless rendered as a
+     * {@link GeometryMode#POINTS point cloud}, are returned as a
+     * root scene loading their tiles with <code>Inline</code> nodes, each one
+     * requested with a <code>tile</code> parameter (see
+     * {@link #serviceTile(HttpServletRequest, HttpServletResponse)
+     * serviceTile}).
+     * A <code>POST</code> request sends an edited version of a molecule
+     * already rendered (see {@link #serviceEdit(HttpServletRequest,
+     * HttpServletResponse) serviceEdit}).
      * @param req
      * @param resp
      * @throws ServletException
@@ -98,35 +278,119 @@ public class CTFile2X3DServlet extends HttpServlet {
     @Override
     protected void service(HttpServletRequest req, HttpServletResponse resp) 
     throws ServletException, IOException {
+        if ("POST".equals(req.getMethod())){
+            serviceEdit(req, resp);
+            return;
+        }
+        if (req.getParameter("buffer") != null){
+            serviceBuffer(req.getParameter("buffer"), resp);
+            return;
+        }
+        if (req.getParameter("protos") != null){
+            serviceProtos(req.getParameter("protos"), resp);
+            return;
+        }
+        if (req.getParameter("atlas") != null){
+            serviceAtlas(resp);
+            return;
+        }
+        if (req.getParameter("tile") != null){
+            serviceTile(req, resp);
+            return;
+        }
         String id = req.getParameter("id");
         String format = req.getParameter("format");
         Display display = Display.MIXED;
         try {
             display = Display.valueOf(req.getParameter("display"));
         } catch (Exception e){}
+        final boolean gallery = Format.GALLERY.name().equalsIgnoreCase(format);
+        if (gallery && (id == null || getConf().getGalleryMaxSize() > 0
+                && id.split(",").length > getConf().getGalleryMaxSize())){
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Missing or too many MOL files for a gallery");
+            return;
+        }
         CTFileParser parser = null;
-        resp.setContentType("model/x3d+xml");
+        final boolean png = "mol".equalsIgnoreCase(format)
+                && "png".equalsIgnoreCase(req.getParameter("output"));
+        final boolean glb = !png && "mol".equalsIgnoreCase(format)
+                && isGlb(req);
+        final boolean exi = !png && !glb && isExi(req);
+        final boolean dictionary = !png && !glb
+                && "dictionary".equalsIgnoreCase(req.getParameter("encoding"));
+        final boolean gzip = !png && !glb && !exi && !dictionary
+                && isGzip(req);
+        resp.setContentType(png? ThumbnailRenderer.CONTENT_TYPE
+                : glb? GltfGenerator.CONTENT_TYPE
+                : exi? ExiMarshaller.CONTENT_TYPE : "model/x3d+xml");
+        resp.setHeader("Vary", "Accept, Accept-Encoding");
+        if (dictionary){
+            resp.setHeader("Content-Encoding",
+                    DictionaryCodec.CONTENT_ENCODING);
+        } else if (gzip){
+            resp.setHeader("Content-Encoding", "gzip");
+        }
         URL url = null;
         try {
+            if (gallery){
+                write(getGallery(id, display), exi, dictionary, gzip, resp);
+                return;
+            }
             switch (Format.valueOf(format.toUpperCase())){
                 case MOL:
-                    parser = getMolParser();
+                    parser = molParser;
                     url = new URL(MessageFormat.format(
                             getConf().getMolUrlPattern(), id));
                     break;
                 case RXN:
-                    parser = getRxnParser();
+                    parser = rxnParser;
                     url = new URL(MessageFormat.format(
                             getConf().getRxnUrlPattern(), id));
                     break;
+                case SDF:
+                    parser = getSdfParser();
+                    url = new URL(MessageFormat.format(
+                            getConf().getSdfUrlPattern(), id));
+                    break;
+                case XYZ:
+                    parser = getXyzParser();
+                    url = new URL(MessageFormat.format(
+                            getConf().getXyzUrlPattern(), id));
+                    break;
             }
             req.setAttribute("ctfileURL", url);
             try (InputStream is = url.openStream()) {
-                X3D x3d = parser.parse(is, display);
-                Marshaller m = jc.createMarshaller();
-                m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
-                m.marshal(x3d, resp.getWriter());
-                resp.flushBuffer();
+                if (png){
+                    byte[] data = getThumbnailRenderer().toPng(
+                            molParser.parseAtomsAndBonds(is), display);
+                    resp.setContentLength(data.length);
+                    resp.getOutputStream().write(data);
+                    resp.flushBuffer();
+                    return;
+                }
+                if (glb){
+                    byte[] data = getGltfGenerator().toGlb(
+                            molParser.parseAtomsAndBonds(is), display);
+                    resp.setContentLength(data.length);
+                    resp.getOutputStream().write(data);
+                    resp.flushBuffer();
+                    return;
+                }
+                if (parser == molParser && getConf().getTileSize() > 0){
+                    final AtomsAndBonds aab =
+                            molParser.parseAtomsAndBonds(is);
+                    write(aab.getAtoms().size() > getConf().getTileSize()
+                            && x3dGenerator.getGeometryMode(aab)
+                                    != GeometryMode.POINTS?
+                            x3dGenerator.toTiledRoot(
+                                    getTiledModel(id, aab), id, display)
+                            : x3dGenerator.toX3D(aab, display),
+                            exi, dictionary, gzip, resp);
+                    return;
+                }
+                write(parser.parse(is, display),
+                        exi, dictionary, gzip, resp);
             }
         } catch (IOException ex) {
             Logger.getLogger(CTFile2X3DServlet.class.getName())
@@ -140,5 +404,319 @@ public class CTFile2X3DServlet extends HttpServlet {
             throw new ServletException(ex);
         }
     }
+
+    /**
+     * Writes X3D in the encoding requested.
+     * @param x3d the X3D to write.
+     * @param exi whether it is encoded with EXI.
+     * @param dictionary whether it is compressed with the preset dictionary.
+     * @param gzip whether it is compressed with gzip.
+     * @param resp
+     * @throws JAXBException
+     * @throws IOException 
+     */
+    private void write(X3D x3d, boolean exi, boolean dictionary, boolean gzip,
+            HttpServletResponse resp) throws JAXBException, IOException {
+        if (exi){
+            getExiMarshaller().marshal(x3d, resp.getOutputStream());
+        } else if (dictionary){
+            try (Writer writer = new OutputStreamWriter(
+                    DictionaryCodec.deflate(resp.getOutputStream()),
+                    "UTF-8")) {
+                getParallelMarshaller().marshal(x3d, writer);
+            }
+        } else if (gzip){
+            try (Writer writer = new OutputStreamWriter(
+                    new ParallelGzipOutputStream(resp.getOutputStream(),
+                            getConf().getGzipBlockSize(),
+                            Deflater.DEFAULT_COMPRESSION), "UTF-8")) {
+                getParallelMarshaller().marshal(x3d, writer);
+            }
+        } else {
+            getParallelMarshaller().marshal(x3d, resp.getWriter());
+        }
+        resp.flushBuffer();
+    }
+
+    /**
+     * Renders several MOL files in one scene.
+     * @param ids the identifiers of the MOL files, separated by commas.
+     * @param display the type of display for chemical structures.
+     * @return the X3D of the gallery.
+     * @throws IOException if a MOL file cannot be read.
+     */
+    private X3D getGallery(String ids, Display display) throws IOException {
+        List<AtomsAndBonds> molecules = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            final URL url = new URL(MessageFormat.format(
+                    getConf().getMolUrlPattern(), id.trim()));
+            try (InputStream is = url.openStream()) {
+                molecules.add(molParser.parseAtomsAndBonds(is));
+            }
+        }
+        return x3dGenerator.toGallery(molecules, display);
+    }
+
+    /**
+     * Checks whether the X3D requested should be encoded with EXI.
+     * @param req
+     * @return <code>true</code> for EXI, <code>false</code> for XML.
+     */
+    private boolean isExi(HttpServletRequest req){
+        if (req.getParameter("encoding") != null){
+            return "exi".equalsIgnoreCase(req.getParameter("encoding"));
+        }
+        final String accept = req.getHeader("Accept");
+        return accept != null && accept.contains(ExiMarshaller.CONTENT_TYPE);
+    }
+
+    /**
+     * Checks whether the X3D requested should be compressed with gzip.
+     * @param req
+     * @return <code>true</code> if gzip is enabled and accepted by the
+     *      client: listed in the <code>Accept-Encoding</code> header (or
+     *      matched by <code>*</code>) with a quality value above
+     *      <code>0</code>.
+     */
+    private boolean isGzip(HttpServletRequest req){
+        final String accept = req.getHeader("Accept-Encoding");
+        if (getConf().getGzipBlockSize() <= 0 || accept == null){
+            return false;
+        }
+        Boolean gzip = null, any = null;
+        for (String coding : accept.split(",")) {
+            final String[] params = coding.split(";");
+            final String name = params[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < params.length; i++) {
+                final String[] param = params[i].split("=", 2);
+                if (param.length == 2
+                        && "q".equalsIgnoreCase(param[0].trim())){
+                    try {
+                        accepted = Float.parseFloat(param[1].trim()) > 0;
+                    } catch (NumberFormatException e){
+                        accepted = false;
+                    }
+                }
+            }
+            if ("gzip".equals(name) || "x-gzip".equals(name)){
+                gzip = accepted;
+            } else if ("*".equals(name)){
+                any = accepted;
+            }
+        }
+        return gzip != null? gzip : any != null && any;
+    }
+
+    /**
+     * Checks whether the structure requested should be returned as binary
+     * glTF.
+     * @param req
+     * @return <code>true</code> for binary glTF, <code>false</code> for X3D.
+     */
+    private boolean isGlb(HttpServletRequest req){
+        if (req.getParameter("output") != null){
+            return "glb".equalsIgnoreCase(req.getParameter("output"));
+        }
+        final String accept = req.getHeader("Accept");
+        return accept != null && accept.contains(GltfGenerator.CONTENT_TYPE);
+    }
+
+    /**
+     * Sends one tile of a molecule rendered in tiles, generated from its
+     * cached model. The request parameters are the <code>id</code> of the
+     * molecule, the number of the <code>tile</code> and the
+     * <code>display</code>.
+     * @param req
+     * @param resp
+     * @throws ServletException
+     * @throws IOException 
+     */
+    private void serviceTile(HttpServletRequest req, HttpServletResponse resp)
+    throws ServletException, IOException {
+        final String id = req.getParameter("id");
+        Display display = Display.MIXED;
+        try {
+            display = Display.valueOf(req.getParameter("display"));
+        } catch (Exception e){}
+        try {
+            final TiledModel model = getTiledModel(id, null);
+            final int tile;
+            try {
+                tile = Integer.parseInt(req.getParameter("tile"));
+            } catch (NumberFormatException e){
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            if (tile < 0 || tile >= model.getTileCount()){
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            resp.setContentType("model/x3d+xml");
+            getParallelMarshaller().marshal(
+                    x3dGenerator.toTile(model, tile, display),
+                    resp.getWriter());
+            resp.flushBuffer();
+        } catch (IOException ex) {
+            Logger.getLogger(CTFile2X3DServlet.class.getName())
+                    .log(Level.SEVERE, "Unable to marshall tile: " + id, ex);
+            req.setAttribute("error", ex.getMessage());
+            throw ex;
+        } catch (JAXBException ex) {
+            Logger.getLogger(CTFile2X3DServlet.class.getName())
+                    .log(Level.SEVERE, "Unable to marshall tile: " + id, ex);
+            req.setAttribute("error", ex.getMessage());
+            throw new ServletException(ex);
+        }
+    }
+
+    /**
+     * Receives an edited version of a molecule and sends the changes to
+     * apply to its X3D (see {@link X3DGenerator#toUpdate(AtomsAndBonds,
+     * AtomsAndBonds, Display, Map) toUpdate}), to be applied in place by the
+     * function <code>applyUpdate</code> of <code>ctfile2x3d.js</code>.
+     * <br>
+     * The request body is the edited MOL file, and the <code>id</code> and
+     * <code>display</code> parameters are those of the X3D rendered. The last
+     * version of the molecules edited is kept in memory for each session, up
+     * to {@link CTFile2X3DConfig#getEditCacheSize() edit.cache.size} of them;
+     * the first edition (or the next one, once evicted) is compared to the
+     * molecule served for that <code>id</code>.
+     * <br>
+     * Molecules whose X3D cannot be updated in place (see
+     * {@link X3DGenerator#isUpdatable(AtomsAndBonds) isUpdatable}), or which
+     * were served as a root scene of tiles, are rejected with a
+     * <code>409</code> status: the client must request the whole X3D
+     * again.
+     * @param req
+     * @param resp
+     * @throws ServletException
+     * @throws IOException 
+     */
+    private void serviceEdit(HttpServletRequest req, HttpServletResponse resp)
+    throws ServletException, IOException {
+        final String id = req.getParameter("id");
+        if (id == null){
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        Display display = Display.MIXED;
+        try {
+            display = Display.valueOf(req.getParameter("display"));
+        } catch (Exception e){}
+        final String key = req.getSession().getId() + " " + id;
+        EditedModel edited = editedModels.get(key);
+        try {
+            if (edited == null){
+                final URL url = new URL(MessageFormat.format(
+                        getConf().getMolUrlPattern(), id));
+                try (InputStream is = url.openStream()) {
+                    edited = new EditedModel(
+                            molParser.parseAtomsAndBonds(is));
+                }
+            }
+            final AtomsAndBonds before = edited.aab;
+            if (!x3dGenerator.isUpdatable(before)
+                    || (getConf().getTileSize() > 0 && before.getAtoms()
+                            .size() > getConf().getTileSize())){
+                resp.sendError(HttpServletResponse.SC_CONFLICT,
+                        "X3D not updatable with the current configuration");
+                return;
+            }
+            final AtomsAndBonds after =
+                    molParser.parseAtomsAndBonds(req.getInputStream());
+            final X3DUpdate update = x3dGenerator.toUpdate(before, after,
+                    display, edited.owners);
+            edited.aab = after;
+            editedModels.put(key, edited);
+            resp.setContentType(X3DUpdate.CONTENT_TYPE);
+            new FastMarshaller().marshal(update, resp.getWriter());
+            resp.flushBuffer();
+        } catch (IOException ex) {
+            Logger.getLogger(CTFile2X3DServlet.class.getName())
+                    .log(Level.SEVERE, "Unable to update X3D: " + id, ex);
+            req.setAttribute("error", ex.getMessage());
+            throw ex;
+        } catch (JAXBException ex) {
+            Logger.getLogger(CTFile2X3DServlet.class.getName())
+                    .log(Level.SEVERE, "Unable to update X3D: " + id, ex);
+            req.setAttribute("error", ex.getMessage());
+            throw new ServletException(ex);
+        }
+    }
+
+    /**
+     * Sends a binary buffer. As buffers are named after their content, they
+     * can be cached by the browser for ever.
+     * @param name the name of the buffer.
+     * @param resp
+     * @throws IOException 
+     */
+    private void serviceBuffer(String name, HttpServletResponse resp)
+    throws IOException {
+        byte[] data = bufferStore.get(name);
+        if (data == null){
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        resp.setContentType("application/octet-stream");
+        resp.setContentLength(data.length);
+        resp.setHeader("Cache-Control", "public, max-age=31536000");
+        resp.getOutputStream().write(data);
+        resp.flushBuffer();
+    }
+
+    /**
+     * Sends the texture atlas of atom labels. As its URL includes its
+     * version, it can be cached by the browser for ever.
+     * @param resp
+     * @throws IOException 
+     */
+    private void serviceAtlas(HttpServletResponse resp) throws IOException {
+        final byte[] atlas = x3dGenerator.getLabelAtlas().getImage();
+        resp.setContentType(LabelAtlas.CONTENT_TYPE);
+        resp.setContentLength(atlas.length);
+        resp.setHeader("Cache-Control", "public, max-age=31536000");
+        resp.getOutputStream().write(atlas);
+        resp.flushBuffer();
+    }
+
+    /**
+     * Sends a prototype library. As the URL of every library includes its
+     * version, it can be cached by the browser for ever.
+     * @param display the type of display of the library.
+     * @param resp
+     * @throws IOException 
+     */
+    private void serviceProtos(String display, HttpServletResponse resp)
+    throws IOException {
+        final byte[] library;
+        try {
+            library = getProtoLibrary().getLibrary(Display.valueOf(display));
+        } catch (IllegalArgumentException e){
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        resp.setContentType("model/x3d+xml");
+        resp.setContentLength(library.length);
+        resp.setHeader("Cache-Control", "public, max-age=31536000");
+        resp.getOutputStream().write(library);
+        resp.flushBuffer();
+    }
+
+    /**
+     * The last version of a molecule edited in a session, along with the
+     * nodes defining the shared nodes of its X3D.
+     */
+    private static class EditedModel {
+
+        private AtomsAndBonds aab;
+        private final Map<String, String> owners = new HashMap<>();
+
+        EditedModel(AtomsAndBonds aab) {
+            this.aab = aab;
+        }
+
+    }
     
 }
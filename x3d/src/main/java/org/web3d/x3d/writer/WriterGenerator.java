@@ -0,0 +1,738 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.web3d.x3d.writer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.xml.bind.annotation.XmlAnyAttribute;
+import javax.xml.bind.annotation.XmlAnyElement;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementRef;
+import javax.xml.bind.annotation.XmlElementRefs;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlElements;
+import javax.xml.bind.annotation.XmlID;
+import javax.xml.bind.annotation.XmlIDREF;
+import javax.xml.bind.annotation.XmlMixed;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.bind.annotation.XmlValue;
+import javax.xml.bind.annotation.adapters.CollapsedStringAdapter;
+import javax.xml.bind.annotation.adapters.NormalizedStringAdapter;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+/**
+ * Generates <code>org.web3d.x3d.X3DWriter</code>, which writes X3D nodes as
+ * XML without reflection.
+ * <br>
+ * It runs at build time, after the JAXB classes have been compiled, and
+ * inspects their JAXB annotations to write, for each of the requested node
+ * classes, a method which writes their attributes and child elements in the
+ * same order as the JAXB reference implementation. The generated class is in
+ * the same package as the nodes, so it reads their fields directly instead
+ * of their getters (which would return the defaults of missing attributes).
+ * <br>
+ * Classes with features not handled here (mixed content, wildcards,
+ * adapters...) are skipped with a warning; the generated writer passes
+ * their instances to {@link XmlOutput#writeOther(String, Class, Object)}.
+ * Usage:
+ * <pre>WriterGenerator &lt;output directory&gt; &lt;class&gt;...</pre>
+ * where classes are simple names in the <code>org.web3d.x3d</code> package.
+ * @author rafa
+ */
+public class WriterGenerator {
+
+    private static final Logger LOGGER =
+            Logger.getLogger(WriterGenerator.class.getName());
+    private static final String PACKAGE = "org.web3d.x3d";
+    private static final String CLASS_NAME = "X3DWriter";
+    private static final String DEFAULT = "##default";
+    /**
+     * The class whose children can be written on their own.
+     */
+    private static final String SCENE = "Scene";
+
+    /**
+     * The node classes with a generated writer.
+     */
+    private final Set<Class<?>> supported = new LinkedHashSet<>();
+    /**
+     * The classes declaring an <code>XmlID</code>, deepest first.
+     */
+    private final List<Class<?>> idClasses = new ArrayList<>();
+    private final StringBuilder sb = new StringBuilder();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2){
+            throw new IllegalArgumentException(
+                    "Usage: WriterGenerator <output directory> <class>...");
+        }
+        List<Class<?>> classes = new ArrayList<>();
+        for (String name : Arrays.asList(args).subList(1, args.length)) {
+            classes.add(Class.forName(PACKAGE + '.' + name));
+        }
+        File dir = new File(args[0], PACKAGE.replace('.', File.separatorChar));
+        if (!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Unable to create " + dir);
+        }
+        final String code = new WriterGenerator(classes).generate();
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(
+                new File(dir, CLASS_NAME + ".java")), "UTF-8")) {
+            w.write(code);
+        }
+    }
+
+    /**
+     * Builds a generator.
+     * @param classes the node classes to generate writers for.
+     * @throws ClassNotFoundException if the <code>ObjectFactory</code> of the
+     *      nodes cannot be found.
+     */
+    public WriterGenerator(List<Class<?>> classes)
+    throws ClassNotFoundException {
+        for (Class<?> c : classes) {
+            final String problem = getProblem(c);
+            if (problem == null){
+                supported.add(c);
+            } else {
+                LOGGER.warning("No writer for " + c.getSimpleName() + ": "
+                        + problem);
+            }
+        }
+        // every node class is created by the ObjectFactory:
+        Set<Class<?>> idSet = new LinkedHashSet<>();
+        for (Method m : Class.forName(PACKAGE + ".ObjectFactory")
+                .getMethods()) {
+            for (Class<?> c = m.getReturnType();
+                    c != null && c.getPackage() != null
+                    && PACKAGE.equals(c.getPackage().getName());
+                    c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (f.isAnnotationPresent(XmlID.class)){
+                        idSet.add(c);
+                    }
+                }
+            }
+        }
+        idClasses.addAll(idSet);
+        sortDeepestFirst(idClasses);
+    }
+
+    /**
+     * Checks if a writer can be generated for a class.
+     * @param c the class.
+     * @return a description of the problem, or <code>null</code> if there is
+     *      none.
+     */
+    private static String getProblem(Class<?> c) {
+        if (!c.isAnnotationPresent(XmlRootElement.class)){
+            return "not a root element";
+        }
+        for (Class<?> level : getHierarchy(c)) {
+            for (Field f : getFields(level)) {
+                final String problem = getProblem(f);
+                if (problem != null){
+                    return f.getName() + ": " + problem;
+                }
+            }
+            for (String name : getPropOrder(level)) {
+                if (getField(level, name) == null){
+                    return "unknown property " + name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getProblem(Field f) {
+        if (f.isAnnotationPresent(XmlValue.class)
+                || f.isAnnotationPresent(XmlMixed.class)
+                || f.isAnnotationPresent(XmlAnyElement.class)
+                || f.isAnnotationPresent(XmlAnyAttribute.class)
+                || f.isAnnotationPresent(XmlElementWrapper.class)){
+            return "unsupported mapping";
+        }
+        final XmlJavaTypeAdapter adapter =
+                f.getAnnotation(XmlJavaTypeAdapter.class);
+        if (adapter != null && adapter.value() != CollapsedStringAdapter.class
+                && adapter.value() != NormalizedStringAdapter.class){
+            // those two are identities when marshalling
+            return "adapter " + adapter.value().getName();
+        }
+        if (f.isAnnotationPresent(XmlAttribute.class)){
+            return getAttributeProblem(f);
+        }
+        if (f.isAnnotationPresent(XmlIDREF.class)){
+            return "IDREF element";
+        }
+        if (f.isAnnotationPresent(XmlElements.class)){
+            for (XmlElement e : f.getAnnotation(XmlElements.class).value()) {
+                if (e.nillable() || e.type() == XmlElement.DEFAULT.class
+                        || !e.namespace().equals(DEFAULT)
+                        || !isNode(e.type())){
+                    return "unsupported element " + e.name();
+                }
+            }
+            return List.class.equals(f.getType())? null : "not a list";
+        }
+        if (f.isAnnotationPresent(XmlElementRefs.class)
+                || f.isAnnotationPresent(XmlElementRef.class)){
+            for (XmlElementRef r : getRefs(f)) {
+                if (!r.namespace().isEmpty() && !r.namespace().equals(DEFAULT)){
+                    return "unsupported element " + r.name();
+                }
+            }
+            return null;
+        }
+        final XmlElement e = f.getAnnotation(XmlElement.class);
+        if (e != null && (e.nillable() || e.type() != XmlElement.DEFAULT.class
+                || !e.namespace().equals(DEFAULT))){
+            return "unsupported element " + e.name();
+        }
+        return isNode(getElementType(f))? null : "not a node element";
+    }
+
+    private static String getAttributeProblem(Field f) {
+        final Class<?> t = f.getType();
+        if (f.isAnnotationPresent(XmlIDREF.class)){
+            return null;
+        }
+        if (List.class.equals(t)){
+            return String.class.equals(getElementType(f))?
+                    null : "list of " + getElementType(f);
+        }
+        if (t.isEnum() || t == String.class || t == Float.class
+                || t == float.class || t == Double.class || t == double.class
+                || t == Boolean.class || t == boolean.class
+                || t == Integer.class || t == int.class
+                || t == BigInteger.class){
+            return null;
+        }
+        return "attribute of type " + t.getName();
+    }
+
+    private static boolean isNode(Type t) {
+        return t instanceof Class && !((Class<?>) t).isEnum()
+                && ((Class<?>) t).isAnnotationPresent(XmlType.class);
+    }
+
+    /**
+     * Gets the type of a field, or of the items of a list field.
+     */
+    private static Type getElementType(Field f) {
+        if (List.class.equals(f.getType())){
+            final Type t = f.getGenericType();
+            return t instanceof ParameterizedType?
+                    ((ParameterizedType) t).getActualTypeArguments()[0]
+                    : Object.class;
+        }
+        return f.getType();
+    }
+
+    private static List<XmlElementRef> getRefs(Field f) {
+        return f.isAnnotationPresent(XmlElementRefs.class)?
+                Arrays.asList(f.getAnnotation(XmlElementRefs.class).value())
+                : Collections.singletonList(
+                        f.getAnnotation(XmlElementRef.class));
+    }
+
+    /**
+     * Gets the classes of the hierarchy of a node.
+     * @param c the class of the node.
+     * @return the class and its ancestors in the package, from the root.
+     */
+    private static List<Class<?>> getHierarchy(Class<?> c) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (; c != null && c.isAnnotationPresent(XmlType.class);
+                c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Gets the mapped fields declared by a class.
+     */
+    private static List<Field> getFields(Class<?> c) {
+        List<Field> fields = new ArrayList<>();
+        for (Field f : c.getDeclaredFields()) {
+            if (!Modifier.isStatic(f.getModifiers())
+                    && !Modifier.isTransient(f.getModifiers())
+                    && !f.isSynthetic()
+                    && !f.isAnnotationPresent(XmlTransient.class)){
+                fields.add(f);
+            }
+        }
+        return fields;
+    }
+
+    private static Field getField(Class<?> c, String name) {
+        for (Field f : getFields(c)) {
+            if (f.getName().equals(name)){
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> getPropOrder(Class<?> c) {
+        final String[] order = c.getAnnotation(XmlType.class).propOrder();
+        return order.length == 1 && order[0].isEmpty()?
+                Collections.<String>emptyList() : Arrays.asList(order);
+    }
+
+    /**
+     * Gets the attributes declared by a class, in declaration order.
+     */
+    private static List<Field> getAttributes(Class<?> c) {
+        List<Field> attributes = new ArrayList<>();
+        for (Field f : getFields(c)) {
+            if (f.isAnnotationPresent(XmlAttribute.class)){
+                attributes.add(f);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Gets the elements declared by a class, in <code>propOrder</code>, if
+     * any, or declaration order.
+     */
+    private static List<Field> getElements(Class<?> c) {
+        List<Field> elements = new ArrayList<>();
+        final List<String> order = getPropOrder(c);
+        if (order.isEmpty()){
+            for (Field f : getFields(c)) {
+                if (!f.isAnnotationPresent(XmlAttribute.class)){
+                    elements.add(f);
+                }
+            }
+        } else {
+            for (String name : order) {
+                elements.add(getField(c, name));
+            }
+        }
+        return elements;
+    }
+
+    private static String getAttributeName(Field f) {
+        final String name = f.getAnnotation(XmlAttribute.class).name();
+        return DEFAULT.equals(name)? f.getName() : name;
+    }
+
+    private static String getElementName(Field f) {
+        final XmlElement e = f.getAnnotation(XmlElement.class);
+        return e == null || DEFAULT.equals(e.name())? f.getName() : e.name();
+    }
+
+    private static String getRootName(Class<?> c) {
+        final String name = c.getAnnotation(XmlRootElement.class).name();
+        return DEFAULT.equals(name)?
+                Character.toLowerCase(c.getSimpleName().charAt(0))
+                        + c.getSimpleName().substring(1)
+                : name;
+    }
+
+    /**
+     * Sorts classes so that subclasses come before their ancestors.
+     */
+    private static void sortDeepestFirst(List<Class<?>> classes) {
+        Collections.sort(classes, new Comparator<Class<?>>() {
+            @Override
+            public int compare(Class<?> c1, Class<?> c2) {
+                return Integer.compare(getHierarchy(c2).size(),
+                        getHierarchy(c1).size());
+            }
+        });
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static String quote(String s) {
+        return '"' + s + '"';
+    }
+
+    /**
+     * Generates the source code of the writer.
+     * @return the source code.
+     */
+    public String generate() {
+        sb.setLength(0);
+        line(0, "/*");
+        line(0, " * Generated by " + WriterGenerator.class.getName()
+                + ", do not edit.");
+        line(0, " */");
+        line(0, "package " + PACKAGE + ";");
+        line(0, "");
+        line(0, "import java.io.IOException;");
+        line(0, "import javax.xml.bind.JAXBElement;");
+        line(0, "import " + XmlOutput.class.getName() + ";");
+        line(0, "");
+        line(0, "/**");
+        line(0, " * Writes X3D nodes as XML, like a JAXB marshaller, but without"
+                + " reflection.");
+        line(0, " * Nodes without a writer are passed to"
+                + " {@link XmlOutput#writeOther(String, Class, Object)}.");
+        line(0, " */");
+        line(0, "public final class " + CLASS_NAME + " {");
+        line(0, "");
+        line(1, "private " + CLASS_NAME + "() {");
+        line(1, "}");
+        generatePublicMethods();
+        generateDispatch();
+        generateIdOf();
+        Set<Class<?>> levels = new LinkedHashSet<>();
+        for (Class<?> c : supported) {
+            generateWriter(c);
+            levels.addAll(getHierarchy(c));
+        }
+        Map<Field, String> itemMethods = new LinkedHashMap<>();
+        for (Class<?> level : levels) {
+            generateAttributes(level);
+            generateElements(level, itemMethods);
+        }
+        for (Map.Entry<Field, String> entry : itemMethods.entrySet()) {
+            generateItem(entry.getKey(), entry.getValue());
+        }
+        line(0, "");
+        line(0, "}");
+        return sb.toString();
+    }
+
+    private void line(int indent, String code) {
+        for (int i = 0; i < indent; i++) {
+            sb.append("    ");
+        }
+        sb.append(code).append('\n');
+    }
+
+    private void generatePublicMethods() {
+        Class<?> x3d = null, scene = null;
+        for (Class<?> c : supported) {
+            if (c.getSimpleName().equals("X3D")){
+                x3d = c;
+            } else if (c.getSimpleName().equals(SCENE)){
+                scene = c;
+            }
+        }
+        if (x3d != null){
+            line(0, "");
+            line(1, "/**");
+            line(1, " * Writes an X3D document (without XML declaration).");
+            line(1, " */");
+            line(1, "public static void write(X3D x3d, XmlOutput out)"
+                    + " throws IOException {");
+            line(2, "writeX3D(x3d, " + quote(getRootName(x3d)) + ", out);");
+            line(1, "}");
+        }
+        line(0, "");
+        line(1, "/**");
+        line(1, " * Writes an XML element: a node of a class annotated with"
+                + " <code>XmlRootElement</code>,");
+        line(1, " * or a <code>JAXBElement</code>.");
+        line(1, " */");
+        line(1, "public static void write(Object node, XmlOutput out)"
+                + " throws IOException {");
+        line(2, "if (node instanceof JAXBElement){");
+        line(3, "writeElement((JAXBElement<?>) node, out);");
+        line(2, "} else if (!writeKnown(node, null, out)){");
+        line(3, "out.writeOther(null, null, node);");
+        line(2, "}");
+        line(1, "}");
+        if (scene != null){
+            for (Field f : getElements(scene)) {
+                if (f.isAnnotationPresent(XmlElements.class)){
+                    line(0, "");
+                    line(1, "/**");
+                    line(1, " * Writes a top-level node of a scene.");
+                    line(1, " */");
+                    line(1, "public static void writeSceneChild(Object node,"
+                            + " XmlOutput out) throws IOException {");
+                    line(2, getItemMethod(f) + "(node, out);");
+                    line(1, "}");
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the methods writing nodes of any class, given their element
+     * name (or their root element name).
+     */
+    private void generateDispatch() {
+        line(0, "");
+        line(1, "private static boolean writeKnown(Object node, String tag,"
+                + " XmlOutput out) throws IOException {");
+        line(2, "final Class<?> c = node.getClass();");
+        String prefix = "";
+        for (Class<?> c : supported) {
+            final String name = c.getSimpleName();
+            line(2, prefix + "if (c == " + name + ".class){");
+            line(3, "write" + name + "((" + name + ") node, tag == null? "
+                    + quote(getRootName(c)) + " : tag, out);");
+            prefix = "} else ";
+        }
+        if (!supported.isEmpty()){
+            line(2, "} else {");
+            line(3, "return false;");
+            line(2, "}");
+            line(2, "return true;");
+        } else {
+            line(2, "return false;");
+        }
+        line(1, "}");
+        line(0, "");
+        line(1, "private static void writeElement(JAXBElement<?> element,"
+                + " XmlOutput out) throws IOException {");
+        line(2, "final Object value = element.getValue();");
+        line(2, "if (element.isNil() || value == null");
+        line(4, "|| !element.getName().getNamespaceURI().isEmpty()");
+        line(4, "|| element.getDeclaredType() != value.getClass()");
+        line(4, "|| !writeKnown(value, element.getName().getLocalPart(),"
+                + " out)){");
+        line(3, "out.writeOther(null, null, element);");
+        line(2, "}");
+        line(1, "}");
+    }
+
+    private void generateIdOf() {
+        line(0, "");
+        line(1, "private static String idOf(Object node) throws IOException {");
+        line(2, "if (node == null){");
+        line(3, "return null;");
+        for (Class<?> c : idClasses) {
+            for (Field f : getFields(c)) {
+                if (f.isAnnotationPresent(XmlID.class)){
+                    line(2, "} else if (node instanceof "
+                            + c.getSimpleName() + "){");
+                    line(3, "return ((" + c.getSimpleName() + ") node)."
+                            + f.getName() + ";");
+                }
+            }
+        }
+        line(2, "}");
+        line(2, "throw new IOException(\"No ID in \""
+                + " + node.getClass().getName());");
+        line(1, "}");
+    }
+
+    private void generateWriter(Class<?> c) {
+        final String name = c.getSimpleName();
+        line(0, "");
+        line(1, "private static void write" + name + "(" + name
+                + " n, String tag, XmlOutput out) throws IOException {");
+        line(2, "out.startTag(tag);");
+        final List<Class<?>> hierarchy = getHierarchy(c);
+        // JAXB writes the attributes of the class before the inherited ones,
+        for (int i = hierarchy.size() - 1; i >= 0; i--) {
+            if (!getAttributes(hierarchy.get(i)).isEmpty()){
+                line(2, "attributes" + hierarchy.get(i).getSimpleName()
+                        + "(n, out);");
+            }
+        }
+        // ...but the inherited elements before those of the class
+        for (Class<?> level : hierarchy) {
+            if (!getElements(level).isEmpty()){
+                line(2, "elements" + level.getSimpleName() + "(n, out);");
+            }
+        }
+        line(2, "out.endTag(tag);");
+        line(1, "}");
+    }
+
+    private void generateAttributes(Class<?> c) {
+        final List<Field> attributes = getAttributes(c);
+        if (attributes.isEmpty()){
+            return;
+        }
+        final String name = c.getSimpleName();
+        line(0, "");
+        line(1, "private static void attributes" + name + "(" + name
+                + " n, XmlOutput out) throws IOException {");
+        for (Field f : attributes) {
+            final String attribute = quote(getAttributeName(f));
+            final String value = "n." + f.getName();
+            if (f.isAnnotationPresent(XmlIDREF.class)){
+                line(2, "out.attribute(" + attribute + ", idOf(" + value
+                        + "));");
+            } else if (f.getType().isEnum()){
+                line(2, "if (" + value + " != null){");
+                line(3, "out.attribute(" + attribute + ", " + value
+                        + getEnumValue(f.getType()) + ");");
+                line(2, "}");
+            } else {
+                line(2, "out.attribute(" + attribute + ", " + value + ");");
+            }
+        }
+        line(1, "}");
+    }
+
+    private static String getEnumValue(Class<?> type) {
+        try {
+            type.getMethod("value");
+            return ".value()";
+        } catch (NoSuchMethodException ex) {
+            return ".name()";
+        }
+    }
+
+    private void generateElements(Class<?> c, Map<Field, String> items) {
+        final List<Field> elements = getElements(c);
+        if (elements.isEmpty()){
+            return;
+        }
+        final String name = c.getSimpleName();
+        line(0, "");
+        line(1, "private static void elements" + name + "(" + name
+                + " n, XmlOutput out) throws IOException {");
+        for (Field f : elements) {
+            final String value = "n." + f.getName();
+            if (f.isAnnotationPresent(XmlElements.class)
+                    || f.isAnnotationPresent(XmlElementRefs.class)
+                    || f.isAnnotationPresent(XmlElementRef.class)){
+                items.put(f, getItemMethod(f));
+                if (List.class.equals(f.getType())){
+                    line(2, "if (" + value + " != null){");
+                    line(3, "for (Object item : " + value + ") {");
+                    line(4, getItemMethod(f) + "(item, out);");
+                    line(3, "}");
+                    line(2, "}");
+                } else {
+                    line(2, getItemMethod(f) + "(" + value + ", out);");
+                }
+            } else {
+                final Class<?> type = (Class<?>) getElementType(f);
+                final String tag = quote(getElementName(f));
+                final String writer;
+                if (supported.contains(type)){
+                    writer = "if (v.getClass() == " + type.getSimpleName()
+                            + ".class){ write" + type.getSimpleName() + "(v, "
+                            + tag + ", out); } else { out.writeOther(" + tag
+                            + ", " + type.getSimpleName() + ".class, v); }";
+                } else {
+                    writer = "out.writeOther(" + tag + ", "
+                            + type.getSimpleName() + ".class, v);";
+                }
+                if (List.class.equals(f.getType())){
+                    line(2, "if (" + value + " != null){");
+                    line(3, "for (" + type.getSimpleName() + " v : " + value
+                            + ") {");
+                    line(4, "if (v != null){ " + writer + " }");
+                    line(3, "}");
+                    line(2, "}");
+                } else {
+                    line(2, "if (" + value + " != null){");
+                    line(3, "final " + type.getSimpleName() + " v = "
+                            + value + ";");
+                    line(3, writer);
+                    line(2, "}");
+                }
+            }
+        }
+        line(1, "}");
+    }
+
+    private static String getItemMethod(Field f) {
+        return "write" + f.getDeclaringClass().getSimpleName()
+                + capitalize(f.getName());
+    }
+
+    /**
+     * Generates the method writing an item of an element property with
+     * several possible elements.
+     */
+    private void generateItem(Field f, String method) {
+        line(0, "");
+        line(1, "private static void " + method
+                + "(Object item, XmlOutput out) throws IOException {");
+        line(2, "if (item == null){");
+        line(3, "return;");
+        line(2, "}");
+        if (f.isAnnotationPresent(XmlElements.class)){
+            line(2, "final Class<?> c = item.getClass();");
+            List<Class<?>> others = new ArrayList<>();
+            Map<Class<?>, String> names = new LinkedHashMap<>();
+            for (XmlElement e : f.getAnnotation(XmlElements.class).value()) {
+                names.put(e.type(), e.name());
+                if (supported.contains(e.type())){
+                    final String name = e.type().getSimpleName();
+                    line(2, "if (c == " + name + ".class){");
+                    line(3, "write" + name + "((" + name + ") item, "
+                            + quote(e.name()) + ", out);");
+                    line(3, "return;");
+                    line(2, "}");
+                }
+                others.add(e.type());
+            }
+            // subclasses are written as their closest mapped ancestor:
+            sortDeepestFirst(others);
+            for (Class<?> other : others) {
+                line(2, "if (item instanceof " + other.getSimpleName()
+                        + "){");
+                line(3, "out.writeOther(" + quote(names.get(other)) + ", "
+                        + other.getSimpleName() + ".class, item);");
+                line(3, "return;");
+                line(2, "}");
+            }
+        } else {
+            line(2, "if (item instanceof JAXBElement){");
+            line(3, "writeElement((JAXBElement<?>) item, out);");
+            line(3, "return;");
+            line(2, "}");
+            line(2, "final Class<?> c = item.getClass();");
+            for (XmlElementRef r : getRefs(f)) {
+                final Class<?> type = r.type();
+                if (supported.contains(type)
+                        && getRootName(type).equals(r.name())){
+                    final String name = type.getSimpleName();
+                    line(2, "if (c == " + name + ".class){");
+                    line(3, "write" + name + "((" + name + ") item, "
+                            + quote(r.name()) + ", out);");
+                    line(3, "return;");
+                    line(2, "}");
+                }
+            }
+        }
+        line(2, "out.writeOther(null, null, item);");
+        line(1, "}");
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 rafa
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.web3d.x3d.writer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Minimal XML output used by the generated <code>X3DWriter</code>.
+ * <br>
+ * Values are printed as JAXB prints them, so that the output is the same as
+ * the one of a JAXB marshaller writing to a {@link Writer} (empty elements
+ * are closed with <code>/&gt;</code>, no formatting). Nodes without a
+ * generated writer are passed to {@link #writeOther(String, Class, Object)
+ * writeOther}, which subclasses override to marshal them somehow else.
+ * @author rafa
+ */
+public class XmlOutput {
+
+    /**
+     * The XML declaration written by JAXB marshallers.
+     */
+    public static final String DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+    private final Writer writer;
+    /**
+     * Is the last start tag still open (without its closing
+     * <code>&gt;</code>)?
+     */
+    private boolean startTagOpen;
+
+    /**
+     * Builds an output.
+     * @param writer the writer to write the XML to.
+     */
+    public XmlOutput(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Gets the underlying writer, to write some XML directly.
+     * @return the writer, after closing any pending start tag.
+     * @throws IOException if the XML cannot be written.
+     */
+    public Writer getWriter() throws IOException {
+        closeStartTag();
+        return writer;
+    }
+
+    /**
+     * Writes the XML declaration.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void declaration() throws IOException {
+        writer.write(DECLARATION);
+    }
+
+    /**
+     * Starts an element. Its attributes must be written right after it.
+     * @param name the name of the element.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void startTag(String name) throws IOException {
+        closeStartTag();
+        writer.write('<');
+        writer.write(name);
+        startTagOpen = true;
+    }
+
+    /**
+     * Ends an element.
+     * @param name the name of the element.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void endTag(String name) throws IOException {
+        if (startTagOpen){
+            writer.write("/>");
+            startTagOpen = false;
+        } else {
+            writer.write("</");
+            writer.write(name);
+            writer.write('>');
+        }
+    }
+
+    private void closeStartTag() throws IOException {
+        if (startTagOpen){
+            writer.write('>');
+            startTagOpen = false;
+        }
+    }
+
+    /**
+     * Writes an attribute.
+     * @param name the name of the attribute.
+     * @param value the value of the attribute, or <code>null</code> to skip
+     *      it.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void attribute(String name, String value) throws IOException {
+        if (value != null){
+            writer.write(' ');
+            writer.write(name);
+            writer.write("=\"");
+            escape(value);
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Writes a list attribute, with its items separated by spaces.
+     * @param name the name of the attribute.
+     * @param values the items, or <code>null</code> to skip the attribute.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void attribute(String name, List<String> values)
+    throws IOException {
+        if (values != null){
+            StringBuilder sb = new StringBuilder();
+            for (String value : values) {
+                if (sb.length() > 0){
+                    sb.append(' ');
+                }
+                sb.append(value);
+            }
+            attribute(name, sb.toString());
+        }
+    }
+
+    public void attribute(String name, Float value) throws IOException {
+        if (value != null){
+            attribute(name, value.floatValue());
+        }
+    }
+
+    public void attribute(String name, float value) throws IOException {
+        attribute(name, Float.isNaN(value)? "NaN"
+                : value == Float.POSITIVE_INFINITY? "INF"
+                : value == Float.NEGATIVE_INFINITY? "-INF"
+                : String.valueOf(value));
+    }
+
+    public void attribute(String name, Double value) throws IOException {
+        if (value != null){
+            attribute(name, value.doubleValue());
+        }
+    }
+
+    public void attribute(String name, double value) throws IOException {
+        attribute(name, Double.isNaN(value)? "NaN"
+                : value == Double.POSITIVE_INFINITY? "INF"
+                : value == Double.NEGATIVE_INFINITY? "-INF"
+                : String.valueOf(value));
+    }
+
+    public void attribute(String name, Boolean value) throws IOException {
+        if (value != null){
+            attribute(name, value.toString());
+        }
+    }
+
+    public void attribute(String name, boolean value) throws IOException {
+        attribute(name, String.valueOf(value));
+    }
+
+    public void attribute(String name, Integer value) throws IOException {
+        if (value != null){
+            attribute(name, value.toString());
+        }
+    }
+
+    public void attribute(String name, int value) throws IOException {
+        attribute(name, String.valueOf(value));
+    }
+
+    public void attribute(String name, BigInteger value) throws IOException {
+        if (value != null){
+            attribute(name, value.toString());
+        }
+    }
+
+    /**
+     * Escapes an attribute value.
+     * @param value the value.
+     * @throws IOException if the XML cannot be written.
+     */
+    private void escape(String value) throws IOException {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final String entity;
+            switch (value.charAt(i)){
+                case '&': entity = "&amp;"; break;
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '"': entity = "&quot;"; break;
+                default: continue;
+            }
+            writer.write(value, start, i - start);
+            writer.write(entity);
+            start = i + 1;
+        }
+        writer.write(value, start, value.length() - start);
+    }
+
+    /**
+     * Writes a node without a generated writer. This implementation just
+     * fails.
+     * @param name the name of the element, or <code>null</code> if the
+     *      value is an XML element itself (a <code>JAXBElement</code> or an
+     *      instance of a class annotated with <code>XmlRootElement</code>).
+     * @param type the type declared for the element in the schema, or
+     *      <code>null</code> along with the name.
+     * @param value the node.
+     * @throws IOException if the node cannot be written.
+     */
+    public void writeOther(String name, Class<?> type, Object value)
+    throws IOException {
+        throw new IOException("No writer for "
+                + value.getClass().getName());
+    }
+
+    /**
+     * Flushes the underlying writer.
+     * @throws IOException if the XML cannot be written.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+}